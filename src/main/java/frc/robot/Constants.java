@@ -76,6 +76,26 @@ public final class Constants {
         }
     }
 
+    // Shaping of the operators' axes (see InputShaper)
+    public static final class InputShaping {
+        public final class Joystick3DButton {
+            public static final int Precision = 3;
+        }
+
+        public static final double kDriveDeadband = 0.05;
+        public static final double kDriveExpo = 0.6;                // about as soft as squaring
+        public static final double kForwardSlewRate = 3.0;          // 0 to full in 1/3 second
+        public static final double kTurnSlewRate = 6.0;
+        public static final double kPrecisionScale = 0.4;
+
+        public static final double kIntakeDeadband = 0.1;
+        public static final double kIntakeSlewRate = 4.0;
+
+        public static final double kColorWheelExpo = 0.5;
+
+        public static final double kShooterSlewRate = 1.0;          // spin up over a second, not in one step
+    }
+
     // Drive Constants
     public static final class DriveConstants {
         public static final double kMaxDriveOutput = 0.75;
@@ -90,6 +110,84 @@ public final class Constants {
             (kWheelDiameterInches * Math.PI) / (double) kEncoderCPR;
 
         public static final boolean kGyroReversed = false;
+
+        // Effective distance between the left and right wheels (a bit more than measured, because of
+        // scrub), for working out the heading from the encoders when the navX isn't there
+        public static final double kTrackWidthInches = 24;
+
+        // High rate sensor loop (runs on its own Notifier, separate from periodic())
+        public static final double kSensorLoopPeriod = 0.005;   // seconds
+        public static final int kHeadingHistorySize = 200;      // 1 second of samples
+
+        // Collision detection, on every navX update
+        public static final byte kNavxUpdateRateHz = (byte)200;         // the most SPI allows
+        public static final double kCollisionThresholdDeltaG = 0.5;     // between updates
+        public static final double kCollisionHoldoff = 0.1;             // seconds, so one hit is one collision
+        public static final int kCollisionQueueSize = 16;
+    }
+
+    public static final class DriveCharacteristics {
+        // Per side feedforward: volts = kS * sign(v) + kV * v + kA * a, with v in meters per second
+        // (estimates until the Characterization tests have been run on the robot)
+        public static final double kS = 1.0;        // volts
+        public static final double kV = 3.5;        // volts per meter per second
+        public static final double kA = 0.6;        // volts per meter per second squared
+
+        public static final double kNominalVoltage = 12.0;
+    }
+
+    public static final class Characterization {
+        public static final double kRampVoltsPerSecond = 0.5;   // quasistatic
+        public static final double kQuasistaticSeconds = 12.0;
+        public static final double kStepVolts = 6.0;            // dynamic
+        public static final double kDynamicSeconds = 2.5;
+        public static final double kMaxSeconds = Math.max(kQuasistaticSeconds, kDynamicSeconds);
+
+        // Samples slower than this are left out of the fit
+        public static final double kMinVelocityMetersPerSecond = 0.05;
+    }
+
+    public static final class DriveStraight {
+        // Heading hold gains (output is arcade rotation, clockwise positive)
+        public static final double kP = 0.02;       // per degree of error
+        public static final double kD = 0.002;      // per degree per second of turn rate
+        public static final double kS = 0.05;       // added to get the wheels to scrub at all
+
+        public static final double kToleranceDeg = 0.5;     // no kS inside this, so it doesn't hunt
+        public static final double kMaxCorrection = 0.3;
+
+        // Stop holding if driveStraight() hasn't been called for this long (command ended)
+        public static final double kHoldTimeout = 0.1;      // seconds
+    }
+
+    public static final class VelocityControl {
+        // Closed loop wheel speeds: the DriveCharacteristics feedforward plus per side PID on the
+        // encoder rates (output is volts, so battery sag is taken out too)
+        public static final double kP = 1.5;        // volts per meter per second of error
+        public static final double kI = 0.0;
+        public static final double kD = 0.0;
+
+        // Whether the sticks and trajectories drive wheel speeds (true) or motor outputs at startup
+        public static final boolean kEnabledAtStartup = false;
+
+        // Stop if no new setpoint has come for this long (command ended)
+        public static final double kTimeout = 0.1;          // seconds
+    }
+
+    public static final class AutoConstants {
+        // Limits the autonomous trajectories are generated with
+        public static final double kMaxSpeedMetersPerSecond = 2.0;
+        public static final double kMaxAccelerationMetersPerSecondSquared = 1.5;
+
+        // Wheel speed at full output (and full stick, with velocity control)
+        public static final double kMaxWheelSpeedMetersPerSecond = 3.4;
+
+        // Ramsete gains (the WPILib defaults, which work for most robots)
+        public static final double kRamseteB = 2.0;
+        public static final double kRamseteZeta = 0.7;
+
+        // Pre-generated trajectories, under the deploy directory
+        public static final String kTrajectoryDirectory = "trajectories";
     }
 
     public static final class TurnByAngle {
@@ -102,7 +200,14 @@ public final class Constants {
         public static final double kTurnRateToleranceDegPerS = 10;  // degrees per second
 
         public static final double kMaxTurnRateDegPerS = 100;
-        public static final double kMaxTurnAccelDegPerSSquared = 300;    
+        public static final double kMaxTurnAccelDegPerSSquared = 300;
+
+        // Feedforward, in arcade rotation (unsquared) per degree/second of the profile
+        public static final double kS = 0.26;       // just gets the robot turning (was kMinTurnValue squared)
+        public static final double kV = 0.002;      // per degree per second
+        public static final double kA = 0.0003;     // per degree per second squared
+
+        public static final double kTimeout = 3.0;  // seconds    
     }
 
     public static final class AutoAim {
@@ -118,6 +223,8 @@ public final class Constants {
         public static final double kMaxTurnRateDegPerS = 100;
         public static final double kMaxTurnAccelDegPerSecSqd = 300;  
 
+        public static final double kTimeout = 3.0;  // seconds
+
         public static final double kPxlOffsetRatio = .1;
 
         public static final double kTurnTolerancePxl = 3;           // pixels
@@ -135,9 +242,55 @@ public final class Constants {
         public static final double kGoalX = (double)kImageWidth / 2.0;
         public static final double kGoalY = (double)kImageHeight / 2.0;
 
+        // USB device numbers of the cameras plugged into the roboRIO
+        public static final int kIntakeCameraIndex = 0;
+        public static final int kShooterCameraIndex = 1;
+
+        // Whether the robot has a shooter camera (CameraSubsystemGRIP), which looks for the
+        // Power Port while we're aiming
+        public static final boolean kShooterCamera = true;
+
+        // Process the shooter camera on the roboRIO rather than with GRIP on the Driver Station
+        public static final boolean kProcessOnRobot = true;
+
+        // Run the shooter pipeline on its own threads (segmenting one frame while locating the one
+        // before) instead of on the shared vision workers, where it can take priority over the intake
+        public static final boolean kShooterPipelined = false;
+
+        // Where (and how often, in seconds) the on-robot pipeline publishes its timings and counts
+        public static final String kDiagnosticsTable = "VisionDiagnostics";
+        public static final double kDiagnosticsPeriod = 1.0;
+        public static final String kIntakeDiagnosticsTable = kDiagnosticsTable + "/SpineCam";  // frame rates only
+
         public static final String kGripNT = "GRIP/myContoursReport";
         public static final String kCenterXKey = "centerX";
         public static final String kCenterYKey = "centerY";
+        public static final String kAreaKey = "area";
+        public static final String kWidthKey = "width";
+        public static final String kHeightKey = "height";
+        public static final String kSolidityKey = "solidity";
+
+        // Streams on the roboRIO's shared vision workers (higher priority is processed first).
+        // The intake camera backs off while we're aiming so it doesn't slow the shooter's loops,
+        // and the shooter camera jumps ahead of it.
+        public static final int kIntakePriority = 0;
+        public static final int kIntakeAimPriority = -10;
+        public static final double kIntakeMaxFps = 15;
+        public static final double kIntakeAimMaxFps = 5;
+        public static final int kShooterPriority = 0;
+        public static final int kShooterAimPriority = 10;
+        public static final double kShooterMaxFps = 0;      // no cap
+
+        // The Pi publishes each frame's results as a single VisionPacket
+        public static final String kPacketKey = "vp";
+
+        // Until its publisher is updated, it publishes them under separate keys instead, with the
+        // time from frame capture to the result being published (in ms) under kPipelineLatencyKey
+        public static final String kPipelineLatencyKey = "tl";
+        public static final double kDefaultPipelineLatencyMs = 40;
+
+        // Camera frames older than this can't be looked up in the drive's heading history
+        public static final double kMaxFrameAgeSec = 0.5;
 
         public static final int kLightSwitch = 0;
     }
@@ -7,9 +7,15 @@
 
 package frc.robot;
 
+import java.util.function.BooleanSupplier;
+import java.util.function.DoubleSupplier;
+
 import edu.wpi.first.wpilibj.GenericHID;
 import edu.wpi.first.wpilibj.Joystick;
 import edu.wpi.first.wpilibj.XboxController;
+import edu.wpi.first.wpilibj.shuffleboard.BuiltInLayouts;
+import edu.wpi.first.wpilibj.shuffleboard.Shuffleboard;
+import edu.wpi.first.wpilibj.shuffleboard.ShuffleboardLayout;
 import edu.wpi.first.wpilibj.smartdashboard.SendableChooser;
 import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
 import edu.wpi.first.wpilibj2.command.button.JoystickButton;
@@ -25,6 +31,9 @@ import edu.wpi.first.wpilibj2.command.WaitCommand;
 import frc.robot.Constants.GamePad;
 import frc.robot.commands.*;
 import frc.robot.subsystems.*;
+import frc.robot.trajectory.AutoTrajectories;
+import frc.robot.trajectory.TrajectoryCache;
+import frc.robot.util.InputShaper;
 
 import static frc.robot.Constants.*;
 
@@ -43,15 +52,18 @@ public class RobotContainer {
   private final Joystick m_maverick = new Joystick(Laptop.UsbPorts.Joystick);
 
   // The robot's subsystems and commands are defined here...
-  private final CameraSubsystemRPi m_cameraSubsystem = new CameraSubsystemRPi();
-  private final ColorWheelSubsystem m_colorWheelSubsystem = new ColorWheelSubsystem();
   private final DriveSubsystem m_driveSubsystem = new DriveSubsystem();
+  private final CameraSubsystemRPi m_cameraSubsystem = new CameraSubsystemRPi(m_driveSubsystem);
+  private final CameraSubsystemGRIP m_shooterCameraSubsystem = 
+    VisionConstants.kShooterCamera ? new CameraSubsystemGRIP() : null;
+  private final ColorWheelSubsystem m_colorWheelSubsystem = new ColorWheelSubsystem();
   private final IntakeSubsystem m_intakeSubsystem = new IntakeSubsystem();
   //private final PDPSubsystem m_pdpSubsystem = new PDPSubsystem();
   private final ShooterSubsystem m_shooterSubsystem = new ShooterSubsystem(); //m_maverick);
   private final MonkeySpiritSubsystem m_monkeySpiritSubsystem = new MonkeySpiritSubsystem();
 
   SendableChooser<Command> m_autonomousChooser = new SendableChooser<>();
+  private final TrajectoryCache m_trajectoryCache = new TrajectoryCache();
 
   /**
    * The container for the robot. Pulls together subsystems, OI devices, and commands.
@@ -93,8 +105,13 @@ public class RobotContainer {
 
     // Auto-Aim
     new JoystickButton(m_gamePad, GamePad.Button.B)
-      .whenPressed(new AutoAimCommand(m_driveSubsystem, m_cameraSubsystem)
-      .withTimeout(3)
+      .whenPressed(autoAimCommand()
+    );
+
+    // Turn to face the driver station
+    new JoystickButton(m_gamePad, GamePad.Button.Y)
+      .whenPressed(new TurnToAngleCommand(m_driveSubsystem, 180)
+      .withTimeout(TurnByAngle.kTimeout)
     );
 
     // Turn the LED Ring On
@@ -127,6 +144,24 @@ public class RobotContainer {
     );
   }
   
+  /**
+   * Creates the auto-aim command, which also has the shooter camera look for the target
+   * (ahead of the intake camera) while it runs
+   * @return the command
+   */
+  private Command autoAimCommand() {
+    Command autoAim = new AutoAimCommand(m_driveSubsystem, m_cameraSubsystem)
+      .withTimeout(AutoAim.kTimeout);
+
+    if (m_shooterCameraSubsystem == null) {
+      return autoAim;
+    }
+    return autoAim.deadlineWith(new StartEndCommand(
+      () -> m_shooterCameraSubsystem.setAiming(true),
+      () -> m_shooterCameraSubsystem.setAiming(false),
+      m_shooterCameraSubsystem));
+  }
+
   /**
    * Use this method to set the default commands for subsystems
    * Default commands can be explicit command classes, inline or use one of the
@@ -134,25 +169,41 @@ public class RobotContainer {
    */
   private void configureDefaultCommands(){
 
-    // Set Arcade Drive as the default
+    // Set Arcade Drive as the default, with the sticks shaped (and a precision mode button)
+    final BooleanSupplier precision = () -> m_maverick.getRawButton(InputShaping.Joystick3DButton.Precision);
     m_driveSubsystem.setDefaultCommand(
       new ArcadeDriveCommand(m_driveSubsystem,
       () -> -m_maverick.getRawAxis(Joystick3D.Axis.FightFlight),
-      () -> m_maverick.getRawAxis(Joystick3D.Axis.TurnNeck))
+      () -> m_maverick.getRawAxis(Joystick3D.Axis.TurnNeck),
+      new InputShaper().withDeadband(InputShaping.kDriveDeadband).withExpo(InputShaping.kDriveExpo)
+        .withPrecision(InputShaping.kPrecisionScale, precision).withSlewRate(InputShaping.kForwardSlewRate),
+      new InputShaper().withDeadband(InputShaping.kDriveDeadband).withExpo(InputShaping.kDriveExpo)
+        .withPrecision(InputShaping.kPrecisionScale, precision).withSlewRate(InputShaping.kTurnSlewRate))
     );
 
+    final DoubleSupplier intakeSpeed = new InputShaper()
+      .withDeadband(InputShaping.kIntakeDeadband).withSlewRate(InputShaping.kIntakeSlewRate)
+      .shape(() -> m_gamePad.getRawAxis(GamePad.Axis.LeftStickUpDown));
     m_intakeSubsystem.setDefaultCommand(
-      new RunCommand(()->m_intakeSubsystem.setSpeed(m_gamePad.getRawAxis(GamePad.Axis.LeftStickUpDown)), 
+      new RunCommand(()->m_intakeSubsystem.setSpeed(intakeSpeed.getAsDouble()), 
       m_intakeSubsystem)
     );
     
+    // (the color wheel has its own deadzone)
+    final DoubleSupplier colorWheelSpeed = new InputShaper()
+      .withExpo(InputShaping.kColorWheelExpo)
+      .shape(() -> m_gamePad.getRawAxis(GamePad.Axis.RightStickUpDown));
     m_colorWheelSubsystem.setDefaultCommand(
-      new RunCommand(()->m_colorWheelSubsystem.lightTravel(m_gamePad.getRawAxis(GamePad.Axis.RightStickUpDown)), 
+      new RunCommand(()->m_colorWheelSubsystem.lightTravel(colorWheelSpeed.getAsDouble()), 
       m_colorWheelSubsystem)
     );
 
+    // (the shooter has its own deadzone, and spinning down isn't limited)
+    final DoubleSupplier shooterThrottle = new InputShaper()
+      .withSlewRate(InputShaping.kShooterSlewRate)
+      .shape(() -> m_maverick.getRawAxis(Joystick3D.Axis.Throttle));
     m_shooterSubsystem.setDefaultCommand(
-      new RunCommand(() -> m_shooterSubsystem.setByJoystick(m_maverick.getRawAxis(Joystick3D.Axis.Throttle)),
+      new RunCommand(() -> m_shooterSubsystem.setByJoystick(shooterThrottle.getAsDouble()),
       m_shooterSubsystem)
     );
 
@@ -169,11 +220,35 @@ public class RobotContainer {
     setUpAutonomousChooser();
 
     m_cameraSubsystem.setUpShuffleboard(m_atCompetition);
+    if (m_shooterCameraSubsystem != null) {
+      m_shooterCameraSubsystem.setUpShuffleboard(m_atCompetition);
+    }
     m_colorWheelSubsystem.setUpShuffleboard(m_atCompetition);
     m_driveSubsystem.setUpShuffleboard(m_atCompetition);
     m_intakeSubsystem.setUpShuffleboard(m_atCompetition);
     //m_pdpSubsystem.setUpShuffleboard(m_atCompetition);
     m_shooterSubsystem.setUpShuffleboard(m_atCompetition);
+
+    if (!m_atCompetition) {
+      setUpCharacterization();
+    }
+  }
+
+  /**
+   * Puts the drivetrain characterization tests on the Drive tab
+   */
+  private void setUpCharacterization() {
+    ShuffleboardLayout tests = Shuffleboard.getTab("Drive")
+      .getLayout("Characterization", BuiltInLayouts.kList)
+      .withSize(5, 6).withPosition(15, 2);
+
+    for (DriveSubsystem.CharacterizationTest test : DriveSubsystem.CharacterizationTest.values()) {
+      tests.add(test.name().substring(1), new CharacterizeDriveCommand(m_driveSubsystem, test));
+    }
+
+    // For trying out the velocity control gains, which come from these tests
+    tests.add("Toggle Velocity Control",
+      new InstantCommand(() -> m_driveSubsystem.setVelocityControl(!m_driveSubsystem.isVelocityControl())));
   }
 
   /**
@@ -203,8 +278,15 @@ public class RobotContainer {
         new InstantCommand(() -> m_cameraSubsystem.lightOff())
       )      ;
     
+    // Trajectories load in the background; the commands only need them once they start
+    m_trajectoryCache.preload(AutoTrajectories.values());
+
     m_autonomousChooser.setDefaultOption("Plan C - Distance", planCDistance);
     m_autonomousChooser.addOption("Plan C - Timeout", planCTimeout);
+    m_autonomousChooser.addOption("Path - Off Line",
+      new FollowTrajectoryCommand(m_driveSubsystem, m_trajectoryCache, AutoTrajectories.kOffLine));
+    m_autonomousChooser.addOption("Path - Offset Off Line",
+      new FollowTrajectoryCommand(m_driveSubsystem, m_trajectoryCache, AutoTrajectories.kOffsetOffLine));
     m_autonomousChooser.addOption("Do Nothing", null);
     m_autonomousChooser.addOption("Combined", combinedTest);
     SmartDashboard.putData("Autonomous", m_autonomousChooser);
@@ -11,19 +11,33 @@ import java.util.function.DoubleSupplier;
 
 import edu.wpi.first.wpilibj2.command.CommandBase;
 import frc.robot.subsystems.DriveSubsystem;
+import frc.robot.util.InputShaper;
 
 public class ArcadeDriveCommand extends CommandBase {
   private final DriveSubsystem m_drive;
   private final DoubleSupplier m_forward;
   private final DoubleSupplier m_rotation;
+  private final InputShaper m_forwardShaper;
+  private final InputShaper m_rotationShaper;
   
   /**
    * Creates a new DefaultDrive.
    */
   public ArcadeDriveCommand(DriveSubsystem subsystem, DoubleSupplier forward, DoubleSupplier rotation) {
+    this(subsystem, forward, rotation, null, null);
+  }
+
+  /**
+   * Creates a new DefaultDrive that shapes the inputs (instead of the diff drive squaring them)
+   */
+  public ArcadeDriveCommand(DriveSubsystem subsystem, DoubleSupplier forward, DoubleSupplier rotation,
+    InputShaper forwardShaper, InputShaper rotationShaper) {
+
     m_drive = subsystem;
     m_forward = forward;
     m_rotation = rotation;
+    m_forwardShaper = forwardShaper;
+    m_rotationShaper = rotationShaper;
     // Use addRequirements() here to declare subsystem dependencies.
     addRequirements(m_drive);
   }
@@ -31,12 +45,23 @@ public class ArcadeDriveCommand extends CommandBase {
   // Called when the command is initially scheduled.
   @Override
   public void initialize() {
+    // Start the slew rate limits from a standstill
+    if (m_forwardShaper != null) {
+      m_forwardShaper.reset();
+      m_rotationShaper.reset();
+    }
   }
 
   // Called every time the scheduler runs while the command is scheduled.
   @Override
   public void execute() {
-    m_drive.arcadeDrive(m_forward.getAsDouble(), m_rotation.getAsDouble());
+    if (m_forwardShaper != null) {
+      m_drive.arcadeDrive(m_forwardShaper.calculate(m_forward.getAsDouble()),
+        m_rotationShaper.calculate(m_rotation.getAsDouble()), false);
+    }
+    else {
+      m_drive.arcadeDrive(m_forward.getAsDouble(), m_rotation.getAsDouble());
+    }
   }
 
   // Called once the command ends or is interrupted.
@@ -9,40 +9,33 @@ package frc.robot.commands;
 
 import edu.wpi.first.wpilibj.controller.PIDController;
 import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
-import edu.wpi.first.wpilibj2.command.PIDCommand;
+import edu.wpi.first.wpilibj2.command.CommandBase;
 import frc.robot.subsystems.*;
 
 import static frc.robot.Constants.*;
 
 /**
+ * Turns the robot to face the target.
  * 
+ * <p>Rather than driving the camera's (old, noisy) angle to zero, every scheduler run sets a
+ * heading setpoint from the camera subsystem's tracked angle, which is predicted forward from
+ * the last frame using the gyro. The loop is then closed on the gyro, which is current.
  */
-public class AutoAimCommand extends PIDCommand {
+public class AutoAimCommand extends CommandBase {
   private DriveSubsystem m_drive;
   private CameraSubsystemRPi m_cameras;
 
+  private final PIDController m_controller = new PIDController(AutoAim.kP, AutoAim.kI, AutoAim.kD);
+
+  private boolean m_haveSetpoint;
+
   /**
    * Creates a new AutoAimCommand.
    */
   public AutoAimCommand(DriveSubsystem drive, CameraSubsystemRPi cameras) {
-    super(
-        // The controller that the command will use
-        new PIDController(AutoAim.kP, AutoAim.kI, AutoAim.kD),
-        // This should return the measurement
-        cameras::getAngleX,
-        // This should return the setpoint (can also be a constant)
-        () -> 0,
-        // This uses the output
-        (output) -> drive.autoTurn(output * AutoAim.kOffsetRatio)
-        );
-    // Configure additional PID options by calling `getController` here.
-    
-    // Don't set the PID controller to be continuous since the output is in pixels, not degrees
-    //getController().enableContinuousInput(-180, 180);
-
     // Set the controller tolerance - the delta tolerance ensures the robot is stationary at the
     // setpoint before it is considered as having reached the reference
-    getController().setTolerance(AutoAim.kTurnToleranceDeg, AutoAim.kTurnRateToleranceDegPerS);
+    m_controller.setTolerance(AutoAim.kTurnToleranceDeg, AutoAim.kTurnRateToleranceDegPerS);
 
     m_drive = drive;
     m_cameras = cameras;
@@ -54,20 +47,52 @@ public class AutoAimCommand extends PIDCommand {
     setUpPidTuning();
   }
 
+  @Override
+  public void initialize() {
+    m_controller.reset();
+    m_haveSetpoint = false;
+    m_cameras.setAiming(true);
+  }
+
   @Override
   public void execute() {
-    super.execute();
+    updateSetpoint();
+
+    if (m_haveSetpoint) {
+      double output = m_controller.calculate(m_drive.getContinuousHeading());
+      m_drive.autoTurn(output * AutoAim.kOffsetRatio);
+    }
+    else {
+      m_drive.stop();
+    }
 
     tunePid();
   }
+
+  @Override
+  public void end(boolean interrupted) {
+    m_drive.stop();
+    m_cameras.setAiming(false);
+  }
   
   // Returns true when the command should end.
   @Override
   public boolean isFinished() {
-    return false;
+    return m_haveSetpoint && m_controller.atSetpoint();
+  }
+
+  /**
+   * Points the heading setpoint at the tracked target (keeps the last setpoint if it's lost)
+   */
+  private void updateSetpoint() {
+    if (!m_cameras.hasTrackedTarget()) {
+      return;
+    }
+
+    m_controller.setSetpoint(m_drive.getContinuousHeading() - m_cameras.getTrackedAngleX());
+    m_haveSetpoint = true;
   }
 
-  
   // For PID tuning
   private double m_P = 0;
   private double m_I = 0;
@@ -84,7 +109,7 @@ public class AutoAimCommand extends PIDCommand {
   }
 
   private void tunePid() {
-    PIDController pidController = getController();
+    PIDController pidController = m_controller;
 
     SmartDashboard.putNumber("Position Error", pidController.getPositionError());
     double p = SmartDashboard.getNumber("P Gain", 0);
@@ -0,0 +1,86 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2019 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+package frc.robot.commands;
+
+import java.io.File;
+import java.io.IOException;
+
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.Filesystem;
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+import edu.wpi.first.wpilibj2.command.CommandBase;
+import frc.robot.subsystems.DriveSubsystem;
+import frc.robot.subsystems.DriveSubsystem.CharacterizationTest;
+import frc.robot.util.CharacterizationLog;
+
+import static frc.robot.Constants.*;
+
+/**
+ * Runs one drivetrain characterization test. The drive subsystem does the driving and recording
+ * on its sensor loop; once the test is over, this writes the samples to a csv file (in the
+ * robot's home directory) and fits kS, kV and kA to every test that has been run so far.
+ *
+ * <p>Run all four tests, then use the Characterization values on SmartDashboard
+ * (volts, meters and seconds).
+ */
+public class CharacterizeDriveCommand extends CommandBase {
+  private final DriveSubsystem m_drive;
+  private final CharacterizationTest m_test;
+
+  /**
+   * Creates a new CharacterizeDriveCommand.
+   */
+  public CharacterizeDriveCommand(DriveSubsystem drive, CharacterizationTest test) {
+    m_drive = drive;
+    m_test = test;
+
+    // Use addRequirements() here to declare subsystem dependencies.
+    addRequirements(m_drive);
+  }
+
+  // Called when the command is initially scheduled.
+  @Override
+  public void initialize() {
+    m_drive.startCharacterization(m_test);
+  }
+
+  // Called once the command ends or is interrupted.
+  @Override
+  public void end(boolean interrupted) {
+    m_drive.stopCharacterization();
+
+    CharacterizationLog[] logs = m_drive.getCharacterizationLogs();
+    File file = new File(Filesystem.getOperatingDirectory(),
+      "characterization-" + m_test.name().substring(1) + ".csv");
+    try {
+      logs[m_test.ordinal()].writeCsv(file);
+    }
+    catch (IOException ex) {
+      DriverStation.reportError("Can't write " + file + ": " + ex.getMessage(), false);
+    }
+
+    publishFit("Left", CharacterizationLog.fit(logs, true, Characterization.kMinVelocityMetersPerSecond));
+    publishFit("Right", CharacterizationLog.fit(logs, false, Characterization.kMinVelocityMetersPerSecond));
+  }
+
+  // Returns true when the command should end.
+  @Override
+  public boolean isFinished() {
+    return !m_drive.isCharacterizing();
+  }
+
+  private static void publishFit(String side, double[] fit) {
+    if (fit == null) {
+      return;
+    }
+    SmartDashboard.putNumber("Characterization/" + side + " kS", fit[0]);
+    SmartDashboard.putNumber("Characterization/" + side + " kV", fit[1]);
+    SmartDashboard.putNumber("Characterization/" + side + " kA", fit[2]);
+    SmartDashboard.putNumber("Characterization/" + side + " r2", fit[3]);
+  }
+}
@@ -44,7 +44,7 @@ public class DriveNoHandsCommand extends PIDCommand {
   @Override
   public void initialize() {
     super.initialize();
-    m_drive.resetEncoders();
+    m_drive.initDriveStraight();
 
     // temporary. To see when initialize is called
     m_initializeCount++;
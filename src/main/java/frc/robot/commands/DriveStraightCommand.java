@@ -41,6 +41,7 @@ public class DriveStraightCommand extends CommandBase {
   // Called once the command ends or is interrupted.
   @Override
   public void end(boolean interrupted) {
+    m_drive.stop();
   }
 
   // Returns true when the command should end.
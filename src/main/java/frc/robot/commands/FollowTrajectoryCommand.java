@@ -0,0 +1,107 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2019 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+package frc.robot.commands;
+
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.controller.RamseteController;
+import edu.wpi.first.wpilibj.kinematics.DifferentialDriveKinematics;
+import edu.wpi.first.wpilibj.trajectory.Trajectory;
+import edu.wpi.first.wpilibj.util.Units;
+import edu.wpi.first.wpilibj2.command.CommandBase;
+import edu.wpi.first.wpilibj2.command.RamseteCommand;
+import frc.robot.subsystems.DriveSubsystem;
+import frc.robot.trajectory.AutoTrajectories;
+import frc.robot.trajectory.TrajectoryCache;
+import frc.robot.util.CollisionDetector;
+
+import static frc.robot.Constants.*;
+
+/**
+ * Drives one of the autonomous trajectories with a Ramsete controller on the odometry pose.
+ *
+ * <p>The trajectory is only taken from the cache when the command starts, so building the
+ * autonomous chooser never waits for it to load. Starting never waits either: if the trajectory
+ * still isn't loaded, that's reported and the command finishes straight away. The odometry is
+ * reset to the trajectory's starting pose, since the trajectories are relative to where the
+ * robot starts.
+ *
+ * <p>If the robot hits something on the way, it stops rather than keep pushing.
+ */
+public class FollowTrajectoryCommand extends CommandBase {
+  private final DriveSubsystem m_drive;
+  private final TrajectoryCache m_cache;
+  private final AutoTrajectories m_routine;
+
+  private final DifferentialDriveKinematics m_kinematics =
+    new DifferentialDriveKinematics(Units.inchesToMeters(DriveConstants.kTrackWidthInches));
+
+  private RamseteCommand m_follower;
+  private final CollisionDetector.Event m_collision = new CollisionDetector.Event();
+
+  /**
+   * Creates a new FollowTrajectoryCommand.
+   */
+  public FollowTrajectoryCommand(DriveSubsystem drive, TrajectoryCache cache, AutoTrajectories routine) {
+    m_drive = drive;
+    m_cache = cache;
+    m_routine = routine;
+
+    // Use addRequirements() here to declare subsystem dependencies.
+    addRequirements(m_drive);
+  }
+
+  // Called when the command is initially scheduled.
+  @Override
+  public void initialize() {
+    Trajectory trajectory = m_cache.getIfLoaded(m_routine);
+    if (trajectory == null) {
+      DriverStation.reportError(m_routine + " hasn't loaded yet, not following it", false);
+      m_follower = null;
+      return;
+    }
+    m_drive.resetOdometry(trajectory.getInitialPose());
+
+    m_follower = new RamseteCommand(trajectory, m_drive::getPose,
+      new RamseteController(AutoConstants.kRamseteB, AutoConstants.kRamseteZeta),
+      m_kinematics, m_drive::driveWheelSpeeds, m_drive);
+    m_follower.initialize();
+
+    // Only collisions from now on count
+    m_drive.clearCollisions();
+  }
+
+  // Called every time the scheduler runs while the command is scheduled.
+  @Override
+  public void execute() {
+    if (m_follower != null) {
+      m_follower.execute();
+    }
+  }
+
+  // Called once the command ends or is interrupted.
+  @Override
+  public void end(boolean interrupted) {
+    if (m_follower != null) {
+      m_follower.end(interrupted);
+    }
+    m_drive.stop();
+  }
+
+  // Returns true when the command should end.
+  @Override
+  public boolean isFinished() {
+    if (m_follower == null) {
+      return true;
+    }
+    if (m_drive.pollCollision(m_collision)) {
+      DriverStation.reportError("Collision while following " + m_routine + ", stopping", false);
+      return true;
+    }
+    return m_follower.isFinished();
+  }
+}
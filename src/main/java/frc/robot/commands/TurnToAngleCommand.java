@@ -0,0 +1,90 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2019 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+package frc.robot.commands;
+
+import edu.wpi.first.wpilibj.TimedRobot;
+import edu.wpi.first.wpilibj.controller.ProfiledPIDController;
+import edu.wpi.first.wpilibj.controller.SimpleMotorFeedforward;
+import edu.wpi.first.wpilibj.trajectory.TrapezoidProfile;
+import edu.wpi.first.wpilibj2.command.ProfiledPIDCommand;
+import frc.robot.subsystems.DriveSubsystem;
+
+import static frc.robot.Constants.*;
+
+/**
+ * Turns the robot to a heading along a trapezoidal profile, at the TurnByAngle max turn rate
+ * and acceleration. The profile's velocity and acceleration are fed forward, so the PID only
+ * has to correct what the feedforward misses and there's no need for autoTurn()'s minimum.
+ *
+ * <p>The robot turns the short way round, and the command ends once it's at the heading and
+ * has stopped (within the TurnByAngle tolerances).
+ */
+public class TurnToAngleCommand extends ProfiledPIDCommand {
+  private final DriveSubsystem m_drive;
+  private final double m_targetHeading;
+
+  private final SimpleMotorFeedforward m_feedforward =
+    new SimpleMotorFeedforward(TurnByAngle.kS, TurnByAngle.kV, TurnByAngle.kA);
+  private TrapezoidProfile.State m_lastSetpoint;
+
+  /**
+   * Creates a new TurnToAngleCommand.
+   * @param drive the drive subsystem
+   * @param targetHeading the heading to turn to, in degrees (as getHeading(), clockwise positive)
+   */
+  public TurnToAngleCommand(DriveSubsystem drive, double targetHeading) {
+    super(
+        new ProfiledPIDController(TurnByAngle.kTurnP, TurnByAngle.kTurnI, TurnByAngle.kTurnD,
+          new TrapezoidProfile.Constraints(TurnByAngle.kMaxTurnRateDegPerS, TurnByAngle.kMaxTurnAccelDegPerSSquared)),
+        // The measurement is continuous, so the profile never has to wrap at +/-180
+        drive::getContinuousHeading,
+        // The goal is set when the command starts (see initialize())
+        0,
+        (output, setpoint) -> { },
+        drive);
+
+    m_drive = drive;
+    m_targetHeading = targetHeading;
+    m_useOutput = this::useOutput;
+
+    getController().setTolerance(TurnByAngle.kTurnToleranceDeg, TurnByAngle.kTurnRateToleranceDegPerS);
+  }
+
+  @Override
+  public void initialize() {
+    // Turn the short way round to the target heading
+    final double heading = m_drive.getContinuousHeading();
+    final double goal = heading + Math.IEEEremainder(m_targetHeading - heading, 360);
+    m_goal = () -> new TrapezoidProfile.State(goal, 0);
+
+    super.initialize();
+    // Start the profile from how fast we're already turning
+    getController().reset(heading, m_drive.getTurnRate());
+    m_lastSetpoint = getController().getSetpoint();
+  }
+
+  private void useOutput(double output, TrapezoidProfile.State setpoint) {
+    // The profile only gives the setpoint velocity, so the acceleration is taken from its change
+    final double acceleration = (setpoint.velocity - m_lastSetpoint.velocity) / TimedRobot.kDefaultPeriod;
+    m_lastSetpoint = setpoint;
+
+    m_drive.turn(output + m_feedforward.calculate(setpoint.velocity, acceleration));
+  }
+
+  @Override
+  public void end(boolean interrupted) {
+    super.end(interrupted);
+    m_drive.stop();
+  }
+
+  // Returns true when the command should end.
+  @Override
+  public boolean isFinished() {
+    return getController().atGoal();
+  }
+}
@@ -0,0 +1,190 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2019 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+package frc.robot.simulation;
+
+import static frc.robot.Constants.*;
+
+/**
+ * A physics model of the drivetrain for running off the robot, standing in for the encoders
+ * and the navX.
+ *
+ * <p>Each side follows the same feedforward model the drivetrain is characterized with,
+ * volts = kS * sign(v) + kV * v + kA * a, and sticks while its voltage is under kS. The robot
+ * turns at the difference in side speeds over the track width. Sensor values come out in the
+ * drive subsystem's units (inches and degrees, clockwise positive like the navX).
+ * Not thread safe; step it from one thread.
+ */
+public class DrivetrainSim {
+  private static final double kInchesPerMeter = 1 / 0.0254;
+
+  private final double m_kS;
+  private final double m_kV;
+  private final double m_kA;
+  private final double m_trackWidth;
+
+  // Side speeds (m/s), total side distances (m) and the pose (m, counter-clockwise radians)
+  private double m_leftVelocity;
+  private double m_rightVelocity;
+  private double m_leftDistance;
+  private double m_rightDistance;
+  private double m_x;
+  private double m_y;
+  private double m_heading;
+
+  // What the sensors read as zero
+  private double m_leftZero;
+  private double m_rightZero;
+  private double m_headingZero;
+
+  /**
+   * Creates a model from the drive characteristics in Constants
+   */
+  public DrivetrainSim() {
+    this(DriveCharacteristics.kS, DriveCharacteristics.kV, DriveCharacteristics.kA,
+      DriveConstants.kTrackWidthInches / kInchesPerMeter);
+  }
+
+  /**
+   * Creates a new DrivetrainSim.
+   * @param kS volts to get a side moving
+   * @param kV volts per meter per second
+   * @param kA volts per meter per second squared
+   * @param trackWidth the effective track width in meters
+   */
+  public DrivetrainSim(double kS, double kV, double kA, double trackWidth) {
+    m_kS = kS;
+    m_kV = kV;
+    m_kA = kA;
+    m_trackWidth = trackWidth;
+  }
+
+  /**
+   * Advances the model
+   * @param dt the time step in seconds
+   * @param leftVolts the voltage on the left side (positive drives forward)
+   * @param rightVolts the voltage on the right side (positive drives forward)
+   */
+  public void step(double dt, double leftVolts, double rightVolts) {
+    final double leftStart = m_leftVelocity;
+    final double rightStart = m_rightVelocity;
+    m_leftVelocity = stepSide(dt, leftVolts, m_leftVelocity);
+    m_rightVelocity = stepSide(dt, rightVolts, m_rightVelocity);
+
+    // Trapezoidal integration of the side speeds
+    final double left = (leftStart + m_leftVelocity) / 2 * dt;
+    final double right = (rightStart + m_rightVelocity) / 2 * dt;
+    m_leftDistance += left;
+    m_rightDistance += right;
+
+    final double distance = (left + right) / 2;
+    final double turned = (right - left) / m_trackWidth;
+    final double midHeading = m_heading + turned / 2;
+    m_x += distance * Math.cos(midHeading);
+    m_y += distance * Math.sin(midHeading);
+    m_heading += turned;
+  }
+
+  private double stepSide(double dt, double volts, double velocity) {
+    if (velocity == 0 && Math.abs(volts) <= m_kS) {
+      return 0;
+    }
+
+    final double friction = m_kS * Math.signum(velocity != 0 ? velocity : volts);
+    final double next = velocity + (volts - friction - m_kV * velocity) / m_kA * dt;
+    // Friction can stop a side, but not push it backwards
+    if (next * velocity < 0 && Math.abs(volts) <= m_kS) {
+      return 0;
+    }
+    return next;
+  }
+
+  /**
+   * Puts the robot back at the origin, stopped, with the sensors zeroed
+   */
+  public void reset() {
+    m_leftVelocity = 0;
+    m_rightVelocity = 0;
+    m_leftDistance = 0;
+    m_rightDistance = 0;
+    m_x = 0;
+    m_y = 0;
+    m_heading = 0;
+    m_leftZero = 0;
+    m_rightZero = 0;
+    m_headingZero = 0;
+  }
+
+  public void resetEncoders() {
+    m_leftZero = m_leftDistance;
+    m_rightZero = m_rightDistance;
+  }
+
+  public void resetGyro() {
+    m_headingZero = m_heading;
+  }
+
+  /**
+   * @return the left encoder distance in inches
+   */
+  public double getLeftDistance() {
+    return (m_leftDistance - m_leftZero) * kInchesPerMeter;
+  }
+
+  /**
+   * @return the right encoder distance in inches
+   */
+  public double getRightDistance() {
+    return (m_rightDistance - m_rightZero) * kInchesPerMeter;
+  }
+
+  /**
+   * @return the left encoder rate in inches per second
+   */
+  public double getLeftRate() {
+    return m_leftVelocity * kInchesPerMeter;
+  }
+
+  /**
+   * @return the right encoder rate in inches per second
+   */
+  public double getRightRate() {
+    return m_rightVelocity * kInchesPerMeter;
+  }
+
+  /**
+   * @return the gyro angle in degrees, continuous and clockwise positive
+   */
+  public double getGyroAngle() {
+    return -Math.toDegrees(m_heading - m_headingZero);
+  }
+
+  /**
+   * @return the gyro rate in degrees per second, clockwise positive
+   */
+  public double getGyroRate() {
+    return -Math.toDegrees((m_rightVelocity - m_leftVelocity) / m_trackWidth);
+  }
+
+  /**
+   * @return where the robot really is, in meters from the origin
+   */
+  public double getX() {
+    return m_x;
+  }
+
+  public double getY() {
+    return m_y;
+  }
+
+  /**
+   * @return which way the robot is really facing, in radians counter-clockwise
+   */
+  public double getHeading() {
+    return m_heading;
+  }
+}
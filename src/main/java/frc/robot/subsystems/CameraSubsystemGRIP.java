@@ -14,12 +14,26 @@ import edu.wpi.first.networktables.NetworkTableEntry;
 import edu.wpi.first.networktables.NetworkTableInstance;
 import edu.wpi.first.wpilibj.DriverStation;
 import edu.wpi.first.wpilibj.shuffleboard.*;
+
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
 import edu.wpi.first.wpilibj2.command.SubsystemBase;
+import frc.robot.vision.PipelinedVisionRunner;
+import frc.robot.vision.PowerPortPipeline;
+import frc.robot.vision.TargetRanker;
+import frc.robot.vision.VisionDiagnostics;
+import frc.robot.vision.VisionExecutor;
 
 import static frc.robot.Constants.*;
 
 /**
- * Camera subsystem for processing Vision on the Driver Station (w/GRIP)
+ * Camera subsystem for processing Vision on the Driver Station (w/GRIP), or on the robot when
+ * VisionConstants.kProcessOnRobot is set.
+ * 
+ * <p>On the robot, the pipeline runs on the shared vision workers alongside the intake camera
+ * (or on its own threads with kShooterPipelined). Processing stays suspended until setAiming(true)
+ * is called (RobotContainer does for as long as we're auto-aiming), so the shooter camera costs
+ * nothing the rest of the time, and while aiming its frames go ahead of the intake camera's.
  */
 public class CameraSubsystemGRIP extends SubsystemBase {
   private UsbCamera m_shooterCam;
@@ -27,6 +41,29 @@ public class CameraSubsystemGRIP extends SubsystemBase {
   private NetworkTable m_gripData;
 
   private final double[] emptyArray = new double[0];
+
+  // On-robot processing of the shooter camera (instead of GRIP on the Driver Station)
+  private final PowerPortPipeline m_pipeline = new PowerPortPipeline();
+  private VisionExecutor.Stream<PowerPortPipeline> m_visionStream;
+  private PipelinedVisionRunner<PowerPortPipeline> m_visionRunner;
+  private VisionDiagnostics m_diagnostics;
+  private boolean m_processingOnRobot = false;
+
+  // Latest result from the pipeline (written by the vision thread)
+  private final Object m_targetLock = new Object();
+  private int m_pipelineTargetCount = 0;
+  private double m_pipelineCenterX = -1;
+  private double m_pipelineCenterY = -1;
+  private double m_pipelineConfidence = 0;
+
+  // Ranks GRIP's targets when it reports more than one
+  private final TargetRanker m_gripRanker = new TargetRanker();
+
+  // The target used during this scheduler run (updated in periodic())
+  private int m_targetCount = 0;
+  private double m_targetCenterX = -1;
+  private double m_targetCenterY = -1;
+  private double m_targetConfidence = 0;
   
 
   /**
@@ -34,16 +71,85 @@ public class CameraSubsystemGRIP extends SubsystemBase {
    */
   public CameraSubsystemGRIP() {
     try {
-      m_shooterCam = CameraServer.getInstance().startAutomaticCapture("ShooterCam", 0);
+      m_shooterCam = CameraServer.getInstance().startAutomaticCapture("ShooterCam", VisionConstants.kShooterCameraIndex);
       m_shooterCam.setResolution(VisionConstants.kImageWidth, VisionConstants.kImageHeight);
+
+      if (VisionConstants.kProcessOnRobot) {
+        // Frames are grabbed straight into reusable Mats and, since the camera is already at the
+        // processing resolution, handed to the pipeline without a copy or resize
+        m_diagnostics = new VisionDiagnostics(VisionConstants.kDiagnosticsTable, VisionConstants.kDiagnosticsPeriod);
+        if (VisionConstants.kShooterPipelined) {
+          m_visionRunner = new PipelinedVisionRunner<>(m_shooterCam, m_pipeline, this::copyPipelineOutputs);
+          m_visionRunner.startAsync();
+        }
+        else {
+          VisionExecutor executor = VisionExecutor.getInstance();
+          m_visionStream = executor.addStream("ShooterCam", m_shooterCam, m_pipeline, 
+            VisionConstants.kShooterPriority, VisionConstants.kShooterMaxFps, this::copyPipelineOutputs);
+          executor.startAsync();
+        }
+        m_processingOnRobot = true;
+      }
     }
     catch (Exception ex) {
-      DriverStation.reportError("Error instantiating USB Camera 0" + ex.getMessage(), true);
+      DriverStation.reportError("Error instantiating USB Camera " + VisionConstants.kShooterCameraIndex + ex.getMessage(), true);
     }
 
     m_gripData = NetworkTableInstance.getDefault().getTable(VisionConstants.kGripNT);
   }
 
+  /**
+   * Start looking for the target in the shooter camera's frames again (on-robot processing only)
+   */
+  public void startProcessing() {
+    m_pipeline.suspendProcessing(false);
+  }
+
+  /**
+   * Stop looking for the target, so frames are dropped as soon as they're grabbed
+   */
+  public void stopProcessing() {
+    m_pipeline.suspendProcessing(true);
+  }
+
+  /**
+   * Set whether we're aiming at the Power Port: processes the shooter camera's frames, ahead of
+   * the intake camera's, only while we are
+   */
+  public void setAiming(boolean aiming) {
+    m_pipeline.suspendProcessing(!aiming);
+
+    if (m_visionStream != null) {
+      m_visionStream.setPriority(aiming ? VisionConstants.kShooterAimPriority : VisionConstants.kShooterPriority);
+    }
+  }
+
+  /**
+   * Saves the results of a frame (called on the vision thread; only one frame at a time)
+   */
+  private void copyPipelineOutputs(long sequence, long frameTime, PowerPortPipeline pipeline) {
+    MatOfPoint best = pipeline.bestTarget();
+    Point center = (best != null) ? pipeline.findCenter(best) : null;
+
+    synchronized (m_targetLock) {
+      m_pipelineTargetCount = pipeline.filterContoursOutput().size();
+      m_pipelineCenterX = (center != null) ? center.x : -1;
+      m_pipelineCenterY = (center != null) ? center.y : -1;
+      m_pipelineConfidence = pipeline.bestTargetConfidence();
+    }
+
+    // Suspended frames skip every stage, so they'd only drag the timings down
+    if (!pipeline.isProcessingSuspended()) {
+      m_diagnostics.record(pipeline);
+    }
+    if (m_visionStream != null) {
+      m_diagnostics.publishIfDue(m_visionStream.processedFrameCount(), m_visionStream.droppedFrameCount());
+    }
+    else {
+      m_diagnostics.publishIfDue(m_visionRunner.processedFrameCount(), m_visionRunner.droppedFrameCount());
+    }
+  }
+
   // Shuffleboard Network Table Entries (for updating values) 
   private static class SBNTE {
     public static NetworkTableEntry targetStatus;
@@ -51,19 +157,20 @@ public class CameraSubsystemGRIP extends SubsystemBase {
     public static NetworkTableEntry centerY;
     public static NetworkTableEntry offsetX;
     public static NetworkTableEntry offsetY;
+    public static NetworkTableEntry confidence;
   }
 
   /**
    * Sets up Shuffleboard for this subsystem
-   * @param teleopTab The main tab used during teleop
    * @param atCompetition Whether to exclude testing info from Shuffleboard
    */
-  public void setUpShuffleboard(ShuffleboardTab teleopTab, Boolean atCompetition) {
+  public void setUpShuffleboard(Boolean atCompetition) {
 
     if (!atCompetition) {
       ShuffleboardTab visionTab = Shuffleboard.getTab("Vision");
 
-      ShuffleboardLayout targetInfo = visionTab.getLayout("Target Info", BuiltInLayouts.kList);
+      // (CameraSubsystemRPi has the "Target Info" layout)
+      ShuffleboardLayout targetInfo = visionTab.getLayout("Shooter Camera", BuiltInLayouts.kList);
       
       SBNTE.targetStatus = targetInfo.add("Status", "Initializing...")
         .getEntry();
@@ -75,14 +182,18 @@ public class CameraSubsystemGRIP extends SubsystemBase {
         .getEntry();
       SBNTE.offsetY = targetInfo.add("Offset Y", 0.0)
         .getEntry();
+      SBNTE.confidence = targetInfo.add("Confidence", 0.0)
+        .getEntry();
     }
   }
 
   @Override
   public void periodic() {
     // This method will be called once per scheduler run
+    updateTarget();
     
     if (SBNTE.targetStatus != null) {
+      putTargetStatus();
       getOffsetX(true);
       getOffsetY(true);
     }
@@ -112,7 +223,7 @@ public class CameraSubsystemGRIP extends SubsystemBase {
    */
   private double getOffsetX(Boolean logging) {
     double offsetX = 0;
-    double centerX = getCenter(VisionConstants.kCenterXKey, logging);
+    double centerX = m_targetCenterX;
 
     if (centerX >= 0) {
       offsetX = VisionConstants.kGoalX - centerX;
@@ -133,7 +244,7 @@ public class CameraSubsystemGRIP extends SubsystemBase {
    */
   public double getOffsetY(Boolean logging) {
     double offsetY = 0;
-    double centerY = getCenter(VisionConstants.kCenterYKey, false); // Assumes centerX already logged the target status
+    double centerY = m_targetCenterY;
 
     if (centerY >= 0) {
       offsetY = VisionConstants.kGoalY - centerY;
@@ -148,31 +259,61 @@ public class CameraSubsystemGRIP extends SubsystemBase {
   }
 
   /**
-   * Get a single center value from the GRIP network table
-   * @param ntKey the network table key for the array data ("centerX" or "centerY")
-   * @param logTargetStatus whether to log the target status to Shuffleboard
-   * @return the center of the target in pixels
+   * @return how sure we are that the target is the Power Port, from 0 to 1 (0 if there's no target)
    */
-  private double getCenter(String ntKey, Boolean logTargetStatus) {
-    double center = -1;
-
-    double centers[] = m_gripData.getEntry(ntKey).getDoubleArray(emptyArray);
-    int targetCount = centers.length;
+  public double getConfidence() {
+    return m_targetConfidence;
+  }
 
-    if (targetCount == 1) {
-      center = centers[0];
+  /**
+   * Picks up the best target from the on-robot pipeline or the GRIP network table
+   * (once per scheduler run, so every caller sees the same target)
+   */
+  private void updateTarget() {
+    if (m_processingOnRobot) {
+      synchronized (m_targetLock) {
+        m_targetCount = m_pipelineTargetCount;
+        m_targetCenterX = m_pipelineCenterX;
+        m_targetCenterY = m_pipelineCenterY;
+        m_targetConfidence = m_pipelineConfidence;
+      }
+      return;
     }
 
-    if (logTargetStatus) {
-      String status = "";
-      switch (targetCount) {
-        case 0: status = "No target found"; break;
-        case 1: status = "Target found"; break;
-        default: status = Integer.toString(targetCount) + " targets found"; break;
-      }      
-      SBNTE.targetStatus.setString(status);
+    double centersX[] = m_gripData.getEntry(VisionConstants.kCenterXKey).getDoubleArray(emptyArray);
+    double centersY[] = m_gripData.getEntry(VisionConstants.kCenterYKey).getDoubleArray(emptyArray);
+    double areas[] = m_gripData.getEntry(VisionConstants.kAreaKey).getDoubleArray(emptyArray);
+    double widths[] = m_gripData.getEntry(VisionConstants.kWidthKey).getDoubleArray(emptyArray);
+    double heights[] = m_gripData.getEntry(VisionConstants.kHeightKey).getDoubleArray(emptyArray);
+    double solidities[] = m_gripData.getEntry(VisionConstants.kSolidityKey).getDoubleArray(emptyArray);
+
+    // The arrays are published separately, so only use as many targets as they all have
+    m_targetCount = Math.min(Math.min(centersX.length, centersY.length), 
+      Math.min(Math.min(areas.length, widths.length), Math.min(heights.length, solidities.length)));
+
+    m_gripRanker.clear();
+    for (int i = 0; i < m_targetCount; i++) {
+      // GRIP reports solidity as a fraction
+      m_gripRanker.add(areas[i], widths[i], heights[i], solidities[i] * 100, centersX[i], centersY[i]);
     }
 
-    return center;
+    int best = m_gripRanker.rank();
+    m_targetCenterX = (best >= 0) ? centersX[best] : -1;
+    m_targetCenterY = (best >= 0) ? centersY[best] : -1;
+    m_targetConfidence = m_gripRanker.getConfidence();
+  }
+
+  /**
+   * Logs the target status to Shuffleboard
+   */
+  private void putTargetStatus() {
+    String status = "";
+    switch (m_targetCount) {
+      case 0: status = "No target found"; break;
+      case 1: status = "Target found"; break;
+      default: status = Integer.toString(m_targetCount) + " targets found"; break;
+    }      
+    SBNTE.targetStatus.setString(status);
+    SBNTE.confidence.setDouble(m_targetConfidence);
   }
 }
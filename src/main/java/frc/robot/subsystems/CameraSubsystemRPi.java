@@ -9,13 +9,25 @@ package frc.robot.subsystems;
 
 import edu.wpi.cscore.UsbCamera;
 import edu.wpi.first.cameraserver.CameraServer;
+import edu.wpi.first.networktables.EntryListenerFlags;
+import edu.wpi.first.networktables.EntryNotification;
 import edu.wpi.first.networktables.NetworkTable;
 import edu.wpi.first.networktables.NetworkTableEntry;
 import edu.wpi.first.networktables.NetworkTableInstance;
 import edu.wpi.first.wpilibj.DriverStation;
 import edu.wpi.first.wpilibj.Solenoid;
+import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj.shuffleboard.*;
 import edu.wpi.first.wpilibj2.command.SubsystemBase;
+import frc.robot.vision.PowerCellPipeline;
+import frc.robot.vision.TargetTracker;
+import frc.robot.vision.VisionDiagnostics;
+import frc.robot.vision.VisionExecutor;
+import frc.robot.vision.VisionPacket;
+
+import java.util.Arrays;
+
+import org.opencv.core.MatOfPoint;
 
 import static frc.robot.Constants.*;
 
@@ -23,26 +35,139 @@ import static frc.robot.Constants.*;
  * Camera subsystem for processing Vision on the Driver Station (w/GRIP)
  */
 public class CameraSubsystemRPi extends SubsystemBase {
-  @SuppressWarnings("unused") //The intake camera is just sending a stream. It doesn't need to be "used" in the code
   private UsbCamera m_intakeCam;
 
+  // Power Cells in the intake camera, found on the shared vision workers
+  private VisionExecutor.Stream<PowerCellPipeline> m_intakeStream;
+  private final VisionDiagnostics m_intakeDiagnostics = 
+    new VisionDiagnostics(VisionConstants.kIntakeDiagnosticsTable, VisionConstants.kDiagnosticsPeriod);
+  private final Object m_cellLock = new Object();
+  private int m_pipelineCellCount = 0;
+  private double m_pipelineCellOffsetX = 0;
+
+  // The Power Cells used during this scheduler run (copied in periodic())
+  private int m_cellCount = 0;
+  private double m_cellOffsetX = 0;
+
   private NetworkTable m_piData;
 
   private Solenoid m_lightSwitch = new Solenoid(RoboRio.CanID.PCM, VisionConstants.kLightSwitch);
 
+  // Latest packet from the Pi and when it arrived (written by the NT listener thread). Until the
+  // first real packet arrives, packets are built from the legacy per-key entries in periodic().
+  private final VisionPacket m_receivedPacket = new VisionPacket();
+  private double m_receivedTime = 0;
+  private boolean m_packetsArriving = false;
+
+  // The legacy entries: target count, center x & y, offset x & y, angle x & y, then the latency
+  private static final String[] kLegacyKeys = {"ct", "cx", "cy", "nx", "ny", "tx", "ty", VisionConstants.kPipelineLatencyKey};
+  private static final double[] kLegacyDefaults = {0, 0, 0, 0, 0, 0, 0, VisionConstants.kDefaultPipelineLatencyMs};
+  private static final int kLegacyLatencyIndex = 7;
+  private final NetworkTableEntry[] m_legacyEntries = new NetworkTableEntry[kLegacyKeys.length];
+  private final double[] m_legacyValues = new double[kLegacyKeys.length];
+  private final double[] m_legacyCheck = new double[kLegacyKeys.length];
+  private long m_legacySequence = -1;
+
+  // The packet everyone uses during this scheduler run (copied in periodic())
+  private final VisionPacket m_packet = new VisionPacket();
+  private double m_targetTimestamp = 0;
+
+  // Smooths the target angle and predicts it between frames using the drive's gyro
+  private final DriveSubsystem m_drive;
+  private final TargetTracker m_tracker = new TargetTracker();
+  private long m_lastTrackedSequence = -1;
+  private double m_lastPredictTime = 0;
+  private boolean m_trackedTarget = false;
+
   /**
    * Creates a new CameraSubsystem.
+   * @param drive the drive subsystem, for the gyro used to track the target between frames
    */
-  public CameraSubsystemRPi() {
+  public CameraSubsystemRPi(DriveSubsystem drive) {
+    m_drive = drive;
+
     try {
-      //m_intakeCam = CameraServer.getInstance().startAutomaticCapture("SpineCam", 0);
-      //m_intakeCam.setResolution(VisionConstants.kImageWidth, VisionConstants.kImageHeight);
+      m_intakeCam = CameraServer.getInstance().startAutomaticCapture("SpineCam", VisionConstants.kIntakeCameraIndex);
+      m_intakeCam.setResolution(VisionConstants.kImageWidth, VisionConstants.kImageHeight);
+
+      VisionExecutor executor = VisionExecutor.getInstance();
+      m_intakeStream = executor.addStream("SpineCam", m_intakeCam, new PowerCellPipeline(), 
+        VisionConstants.kIntakePriority, VisionConstants.kIntakeMaxFps, this::copyCellOutputs);
+      executor.startAsync();
     }
     catch (Exception ex) {
-      DriverStation.reportError("Error instantiating USB Camera 0" + ex.getMessage(), true);
+      DriverStation.reportError("Error instantiating USB Camera " + VisionConstants.kIntakeCameraIndex + ex.getMessage(), true);
     }
 
     m_piData = NetworkTableInstance.getDefault().getTable(VisionConstants.kGripNT);
+
+    // Timestamp each packet as it arrives rather than when periodic() gets around to it
+    m_piData.getEntry(VisionConstants.kPacketKey).addListener(this::packetReceived, 
+      EntryListenerFlags.kNew | EntryListenerFlags.kUpdate);
+
+    for (int i = 0; i < kLegacyKeys.length; i++) {
+      m_legacyEntries[i] = m_piData.getEntry(kLegacyKeys[i]);
+    }
+  }
+
+  /**
+   * Decodes a new packet from the Pi and notes when it arrived
+   */
+  private void packetReceived(EntryNotification notification) {
+    double arrival = Timer.getFPGATimestamp();
+
+    synchronized (m_receivedPacket) {
+      if (m_receivedPacket.decode(notification.value.getDoubleArray())) {
+        m_receivedTime = arrival;
+        m_packetsArriving = true;
+      }
+    }
+  }
+
+  /**
+   * Builds a packet from the separate entries a Pi without the packet publisher sends
+   * (called from periodic() while holding m_receivedPacket, until real packets arrive).
+   * 
+   * <p>The entries have no frame counter, and an entry set to the value it already has doesn't
+   * update, so a target that isn't moving looks just like no new frames. Every poll is therefore
+   * taken as a new frame. The entries are read twice and the poll skipped if they changed in
+   * between, so a packet doesn't mix values from two of the Pi's updates.
+   */
+  private void pollLegacyEntries() {
+    readLegacyEntries(m_legacyValues);
+    readLegacyEntries(m_legacyCheck);
+    if (!Arrays.equals(m_legacyValues, m_legacyCheck)) {
+      return;
+    }
+
+    final double now = Timer.getFPGATimestamp();
+    final double latency = m_legacyValues[kLegacyLatencyIndex] / 1000.0;
+    m_receivedPacket.setFrame(++m_legacySequence, now - latency, latency);
+    m_receivedPacket.setTarget((int)m_legacyValues[0], m_legacyValues[1], m_legacyValues[2], 
+      m_legacyValues[3], m_legacyValues[4], m_legacyValues[5], m_legacyValues[6]);
+    m_receivedTime = now;
+  }
+
+  private void readLegacyEntries(double[] values) {
+    for (int i = 0; i < m_legacyEntries.length; i++) {
+      values[i] = m_legacyEntries[i].getDouble(kLegacyDefaults[i]);
+    }
+  }
+
+  /**
+   * Saves the Power Cells found in a frame (called on a vision worker)
+   */
+  private void copyCellOutputs(long sequence, long frameTime, PowerCellPipeline pipeline) {
+    MatOfPoint largest = pipeline.largestCell();
+    double offsetX = (largest != null) ? pipeline.findOffset(pipeline.findCenter(largest)).x : 0;
+
+    synchronized (m_cellLock) {
+      m_pipelineCellCount = pipeline.filterContoursOutput().size();
+      m_pipelineCellOffsetX = offsetX;
+    }
+
+    // Only one worker runs this stream at a time, so this is the diagnostics' only thread
+    m_intakeDiagnostics.publishIfDue(m_intakeStream.processedFrameCount(), m_intakeStream.droppedFrameCount());
   }
 
   // Shuffleboard Network Table Entries (for updating values) 
@@ -55,6 +180,10 @@ public class CameraSubsystemRPi extends SubsystemBase {
     public static NetworkTableEntry offsetY;
     public static NetworkTableEntry angleX;
     public static NetworkTableEntry angleY;
+    public static NetworkTableEntry trackedAngle;
+    public static NetworkTableEntry trackedStdDev;
+    public static NetworkTableEntry cellCount;
+    public static NetworkTableEntry cellOffsetX;
   }
 
   /**
@@ -84,26 +213,105 @@ public class CameraSubsystemRPi extends SubsystemBase {
         .getEntry();
       SBNTE.angleY = targetInfo.add("Angle Y", 0.0)
         .getEntry();
+      SBNTE.trackedAngle = targetInfo.add("Tracked Angle", 0.0)
+        .getEntry();
+      SBNTE.trackedStdDev = targetInfo.add("Tracked Std Dev", 0.0)
+        .getEntry();
+
+      ShuffleboardLayout cellInfo = visionTab.getLayout("Power Cell Info", BuiltInLayouts.kList);
+
+      SBNTE.cellCount = cellInfo.add("Cell Count", 0.0)
+        .getEntry();
+      SBNTE.cellOffsetX = cellInfo.add("Offset X", 0.0)
+        .getEntry();
     }
   }
 
   @Override
   public void periodic() {
     // This method will be called once per scheduler run
+
+    // Take one snapshot of the latest packet, so every command sees the same frame this run
+    double receivedTime;
+    synchronized (m_receivedPacket) {
+      if (!m_packetsArriving) {
+        pollLegacyEntries();
+      }
+      m_packet.copyFrom(m_receivedPacket);
+      receivedTime = m_receivedTime;
+    }
+    m_targetTimestamp = receivedTime - m_packet.getLatency();
+
+    updateTracker();
+
+    synchronized (m_cellLock) {
+      m_cellCount = m_pipelineCellCount;
+      m_cellOffsetX = m_pipelineCellOffsetX;
+    }
     
     if (SBNTE.targetStatus != null) {
-      Number targetCount = m_piData.getEntry("ct").getNumber(0);
-      putTargetStatus(targetCount.intValue());
-      SBNTE.targetCount.setNumber(targetCount);
-      SBNTE.centerX.setNumber(m_piData.getEntry("cx").getNumber(0));
-      SBNTE.centerY.setNumber(m_piData.getEntry("cy").getNumber(0));
-      SBNTE.offsetX.setNumber(m_piData.getEntry("nx").getNumber(0));
-      SBNTE.offsetY.setNumber(m_piData.getEntry("ny").getNumber(0));
-      SBNTE.angleX.setNumber(m_piData.getEntry("tx").getNumber(0));
-      SBNTE.angleY.setNumber(m_piData.getEntry("ty").getNumber(0));
+      putTargetStatus(m_packet.getTargetCount());
+      SBNTE.targetCount.setNumber(m_packet.getTargetCount());
+      SBNTE.centerX.setDouble(m_packet.getCenterX());
+      SBNTE.centerY.setDouble(m_packet.getCenterY());
+      SBNTE.offsetX.setDouble(m_packet.getOffsetX());
+      SBNTE.offsetY.setDouble(m_packet.getOffsetY());
+      SBNTE.angleX.setDouble(m_packet.getAngleX());
+      SBNTE.angleY.setDouble(m_packet.getAngleY());
+      SBNTE.trackedAngle.setDouble(m_tracker.getAngle());
+      SBNTE.trackedStdDev.setDouble(m_tracker.getStdDev());
+      SBNTE.cellCount.setDouble(m_cellCount);
+      SBNTE.cellOffsetX.setDouble(m_cellOffsetX);
     }
   }
 
+  /**
+   * Predicts the target angle for this scheduler run, correcting it if a new frame came in
+   */
+  private void updateTracker() {
+    double now = Timer.getFPGATimestamp();
+    m_tracker.predict(m_drive.getTurnRate(), now - m_lastPredictTime);
+    m_lastPredictTime = now;
+
+    long sequence = m_packet.getSequence();
+    if (sequence != m_lastTrackedSequence) {
+      m_lastTrackedSequence = sequence;
+
+      // Frames older than the heading history can't be adjusted for turning, so skip them
+      if (m_packet.getTargetCount() >= 1 && now - m_targetTimestamp < VisionConstants.kMaxFrameAgeSec) {
+        double turnedSinceCapture = m_drive.getContinuousHeading() - m_drive.getHeadingAt(m_targetTimestamp);
+        m_tracker.correct(m_packet.getAngleX() + turnedSinceCapture, m_targetTimestamp);
+      }
+    }
+
+    m_trackedTarget = m_tracker.hasTarget(now);
+  }
+
+  /**
+   * Set whether we're aiming at the Power Port, so the intake camera gives up processor time
+   */
+  public void setAiming(boolean aiming) {
+    if (m_intakeStream == null) {
+      return;
+    }
+    m_intakeStream.setMaxFps(aiming ? VisionConstants.kIntakeAimMaxFps : VisionConstants.kIntakeMaxFps);
+    m_intakeStream.setPriority(aiming ? VisionConstants.kIntakeAimPriority : VisionConstants.kIntakePriority);
+  }
+
+  /**
+   * @return the number of Power Cells the intake camera sees
+   */
+  public int getCellCount() {
+    return m_cellCount;
+  }
+
+  /**
+   * @return the horizontal offset of the biggest Power Cell from the center of the intake camera, in pixels
+   */
+  public double getCellOffsetX() {
+    return m_cellOffsetX;
+  }
+
   public void lightOn() {
     m_lightSwitch.set(true);
   }
@@ -124,11 +332,56 @@ public class CameraSubsystemRPi extends SubsystemBase {
     SBNTE.targetStatus.setString(status);
   }
 
+  /**
+   * @return the horizontal angle to the target in degrees, from the latest frame
+   */
   public double getAngleX() {
-    return m_piData.getEntry("tx").getDouble(0);
+    return m_packet.getAngleX();
+  }
+
+  /**
+   * @return whether the tracker has a recent, certain enough estimate of the target angle
+   */
+  public boolean hasTrackedTarget() {
+    return m_trackedTarget;
+  }
+
+  /**
+   * @return the tracked horizontal angle to the target in degrees, predicted for this scheduler run
+   */
+  public double getTrackedAngleX() {
+    return m_tracker.getAngle();
+  }
+
+  /**
+   * @return the standard deviation of the tracked angle in degrees
+   */
+  public double getTrackedAngleStdDev() {
+    return m_tracker.getStdDev();
+  }
+
+  /**
+   * @return the FPGA time (seconds) at which the frame behind getAngleX() was captured
+   */
+  public double getTargetTimestamp() {
+    return m_targetTimestamp;
+  }
+
+  /**
+   * @return the sequence number of the latest frame, so callers can tell when a new frame arrives
+   */
+  public long getFrameCount() {
+    return m_packet.getSequence();
+  }
+
+  /**
+   * @return whether the latest frame found a target
+   */
+  public boolean hasTarget() {
+    return m_packet.getTargetCount() >= 1;
   }
   
   public double getOffsetX() {
-    return m_piData.getEntry("nx").getDouble(0);
+    return m_packet.getOffsetX();
   }
 }
@@ -10,18 +10,32 @@ package frc.robot.subsystems;
 import com.kauailabs.navx.frc.AHRS;
 
 import edu.wpi.first.wpilibj.CounterBase.EncodingType;
+import edu.wpi.first.wpilibj.controller.PIDController;
+import edu.wpi.first.wpilibj.controller.SimpleMotorFeedforward;
 import edu.wpi.first.wpilibj.drive.DifferentialDrive;
+import edu.wpi.first.wpilibj.geometry.Pose2d;
+import edu.wpi.first.wpilibj.geometry.Rotation2d;
+import edu.wpi.first.wpilibj.kinematics.DifferentialDriveOdometry;
 import edu.wpi.first.wpilibj.DriverStation;
 import edu.wpi.first.wpilibj.Encoder;
+import edu.wpi.first.wpilibj.Notifier;
+import edu.wpi.first.wpilibj.RobotBase;
 import edu.wpi.first.wpilibj.shuffleboard.BuiltInLayouts;
 import edu.wpi.first.wpilibj.shuffleboard.Shuffleboard;
 import edu.wpi.first.wpilibj.shuffleboard.ShuffleboardLayout;
 import edu.wpi.first.wpilibj.shuffleboard.ShuffleboardTab;
 import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+import edu.wpi.first.wpilibj.RobotController;
 import edu.wpi.first.wpilibj.SpeedControllerGroup;
 import edu.wpi.first.wpilibj.SPI;
+import edu.wpi.first.wpilibj.Timer;
+import edu.wpi.first.wpilibj.util.Units;
 import edu.wpi.first.wpilibj.VictorSP;
 import edu.wpi.first.wpilibj2.command.SubsystemBase;
+import frc.robot.simulation.DrivetrainSim;
+import frc.robot.util.CharacterizationLog;
+import frc.robot.util.CollisionDetector;
+import frc.robot.util.HeadingHistory;
 
 import static frc.robot.Constants.*;
 
@@ -40,6 +54,7 @@ public class DriveSubsystem extends SubsystemBase {
   private  SpeedControllerGroup m_leftGroup = new SpeedControllerGroup(m_leftFrontMotor, m_leftRearMotor);
 
   private DifferentialDrive m_diffDrive;
+  private double m_maxOutput = 1.0;
 
   
 
@@ -56,8 +71,62 @@ public class DriveSubsystem extends SubsystemBase {
   // The gyro sensor
   private AHRS m_navx;
 
-  // Class variable for collision detection
-  private double m_lastLinearAccelY;
+  // Off the robot, a physics model stands in for the encoders and the navX (see the read...()
+  // methods, which are the only things that talk to the sensors)
+  private DrivetrainSim m_simulation;
+
+  // Collisions are spotted on the navX's own update thread, at its full rate
+  private final CollisionDetector m_collisionDetector = new CollisionDetector(
+    DriveConstants.kCollisionThresholdDeltaG, DriveConstants.kCollisionHoldoff, DriveConstants.kCollisionQueueSize);
+
+  // Sensors that need sampling faster than periodic() are read on their own loop
+  private final Notifier m_sensorLoop = new Notifier(this::sensorLoop);
+  private final HeadingHistory m_headingHistory = new HeadingHistory(DriveConstants.kHeadingHistorySize);
+
+  // Field relative pose, integrated on the sensor loop. The odometry is only touched while holding
+  // its lock (resets come from other threads); the latest pose is published through a volatile
+  // so getPose() never waits on the loop.
+  private DifferentialDriveOdometry m_odometry;
+  private final Object m_odometryLock = new Object();
+  private volatile Pose2d m_pose = new Pose2d();
+
+  // Encoder distances (inches) the odometry counts from, so it can be re-based without resetting
+  // the encoders under commands that are using them (also under m_odometryLock)
+  private double m_odometryLeftOffset = 0;
+  private double m_odometryRightOffset = 0;
+
+  // Heading hold for driveStraight(), run on the sensor loop. The motors are driven from both
+  // threads, so every drive call holds m_driveLock.
+  private final Object m_driveLock = new Object();
+  private boolean m_holdingHeading = false;
+  private double m_straightHeading;
+  private double m_straightForward;
+  private double m_straightUpdateTime;
+
+  // Characterization runs, driven and recorded on the sensor loop (also under m_driveLock)
+  private final CharacterizationLog[] m_characterizationLogs = new CharacterizationLog[CharacterizationTest.values().length];
+  private CharacterizationTest m_characterizationTest = null;
+  private double m_characterizationStart;
+  private double m_characterizationVolts;
+
+  // Closed loop wheel speeds, run on the sensor loop (also under m_driveLock). The setpoints are
+  // in meters per second, and volatile for Shuffleboard.
+  private boolean m_velocityControlEnabled = VelocityControl.kEnabledAtStartup;
+  private boolean m_controllingVelocity = false;
+  private volatile double m_leftSetpoint;
+  private volatile double m_rightSetpoint;
+  private double m_velocityUpdateTime;
+  private final PIDController m_leftVelocityPid = new PIDController(VelocityControl.kP, VelocityControl.kI,
+    VelocityControl.kD, DriveConstants.kSensorLoopPeriod);
+  private final PIDController m_rightVelocityPid = new PIDController(VelocityControl.kP, VelocityControl.kI,
+    VelocityControl.kD, DriveConstants.kSensorLoopPeriod);
+  private final SimpleMotorFeedforward m_feedforward = new SimpleMotorFeedforward(DriveCharacteristics.kS,
+    DriveCharacteristics.kV, DriveCharacteristics.kA);
+
+  // Every sensor, read once at the start of each scheduler run (see Sensors). Each reading goes
+  // into whichever of the two snapshots isn't published, then is published, so reading doesn't allocate.
+  private final Sensors[] m_sensorBuffers = {new Sensors(), new Sensors()};
+  private volatile Sensors m_sensors;
   
   /**
    * Creates a new DriveSubsystem.
@@ -68,12 +137,31 @@ public class DriveSubsystem extends SubsystemBase {
     m_leftEncoder.setDistancePerPulse(DriveConstants.kEncoderDistancePerPulse);
     m_rightEncoder.setDistancePerPulse(DriveConstants.kEncoderDistancePerPulse);
     
-    try {
-      m_navx = new AHRS(SPI.Port.kMXP);
+    if (RobotBase.isSimulation()) {
+      m_simulation = new DrivetrainSim();
     }
-    catch (RuntimeException ex) {
-      DriverStation.reportError("Error instantiating navX MSP: " + ex.getMessage(), true);
+    else {
+      try {
+        m_navx = new AHRS(SPI.Port.kMXP, DriveConstants.kNavxUpdateRateHz);
+        m_navx.registerCallback((systemTimestamp, sensorTimestamp, update, context) ->
+          m_collisionDetector.sample(Timer.getFPGATimestamp(), update.linear_accel_x, update.linear_accel_y), null);
+      }
+      catch (RuntimeException ex) {
+        DriverStation.reportError("Error instantiating navX MSP: " + ex.getMessage(), true);
+      }
     }
+
+    if (hasGyro()) {
+      m_odometry = new DifferentialDriveOdometry(gyroRotation());
+    }
+
+    final int samples = (int)Math.ceil(Characterization.kMaxSeconds / DriveConstants.kSensorLoopPeriod) + 1;
+    for (int i = 0; i < m_characterizationLogs.length; i++) {
+      m_characterizationLogs[i] = new CharacterizationLog(samples);
+    }
+
+    readSensors();
+    m_sensorLoop.startPeriodic(DriveConstants.kSensorLoopPeriod);
   }
 
   /**
@@ -100,22 +188,370 @@ public class DriveSubsystem extends SubsystemBase {
       driveTab.addNumber("turnScale Value", () -> this.turnScale())
         .withSize(3,2).withPosition(10, 0);
 
+      driveTab.addNumber("Last Collision", () -> m_collisionDetector.getLatestEventTime())
+        .withSize(3,2).withPosition(13, 2);
+
+      ShuffleboardLayout poseList = driveTab.getLayout("Pose", BuiltInLayouts.kList)
+        .withSize(3, 6).withPosition(10, 2)
+        .withProperties(Map.of("LabelPosition", "TOP"));
+
+      poseList.addNumber("X (m)", () -> m_pose.getTranslation().getX());
+      poseList.addNumber("Y (m)", () -> m_pose.getTranslation().getY());
+      poseList.addNumber("Heading (deg)", () -> m_pose.getRotation().getDegrees());
+
       driveTab.add(this)
         .withSize(8,2).withPosition(15, 0);
+
+      ShuffleboardLayout speedList = driveTab.getLayout("Wheel Speeds", BuiltInLayouts.kList)
+        .withSize(3, 6).withPosition(20, 2)
+        .withProperties(Map.of("LabelPosition", "TOP"));
+
+      speedList.addBoolean("Velocity Control", () -> isVelocityControl());
+      speedList.addNumber("Left Setpoint (m/s)", () -> m_leftSetpoint);
+      speedList.addNumber("Left Speed (m/s)", () -> Units.inchesToMeters(m_sensors.getLeftRate()));
+      speedList.addNumber("Right Setpoint (m/s)", () -> m_rightSetpoint);
+      speedList.addNumber("Right Speed (m/s)", () -> Units.inchesToMeters(m_sensors.getRightRate()));
     }
   }
 
   @Override
   public void periodic() {
     // This method will be called once per scheduler run
-    //detectCollision();
+    // (before the commands run, so they all see this run's sensor readings)
+    readSensors();
+  }
+
+  /**
+   * The high rate sensor loop
+   */
+  private void sensorLoop() {
+    if (m_simulation != null) {
+      stepSimulation(DriveConstants.kSensorLoopPeriod);
+    }
+    sampleSensors();
+  }
+
+  /**
+   * Samples the sensors on the high rate sensor loop
+   */
+  private void sampleSensors() {
+    if (hasGyro()) {
+      m_headingHistory.record(Timer.getFPGATimestamp(), readContinuousHeading());
+      updateOdometry();
+    }
+    holdHeading();
+    controlVelocity();
+    characterize();
+  }
+
+  /**
+   * Integrates the latest encoder distances and heading into the pose
+   */
+  private void updateOdometry() {
+    synchronized (m_odometryLock) {
+      m_pose = m_odometry.update(gyroRotation(),
+        Units.inchesToMeters(readLeftDistance() - m_odometryLeftOffset),
+        Units.inchesToMeters(readRightDistance() - m_odometryRightOffset));
+    }
+  }
+
+  /**
+   * Drives straight along the held heading, correcting the rotation from the gyro
+   * (or the encoders, if the navX isn't working). Called on the sensor loop.
+   */
+  private void holdHeading() {
+    synchronized (m_driveLock) {
+      if (!m_holdingHeading) {
+        return;
+      }
+      if (Timer.getFPGATimestamp() - m_straightUpdateTime > DriveStraight.kHoldTimeout) {
+        // Nobody is asking to drive straight any more
+        m_holdingHeading = false;
+        m_diffDrive.arcadeDrive(0, 0);
+        return;
+      }
+
+      final double rotation = headingCorrection(m_straightHeading - readStraightHeading(), readStraightTurnRate());
+      m_diffDrive.arcadeDrive(m_straightForward, rotation, false);
+    }
+  }
+
+  /**
+   * Stops whatever the sensor loop was driving, so the caller can drive (call holding m_driveLock)
+   */
+  private void takeOverMotors() {
+    m_holdingHeading = false;
+    m_controllingVelocity = false;
+    m_characterizationTest = null;
+  }
+
+  /**
+   * Drives each side at its wheel speed setpoint: feedforward from the drive characteristics,
+   * plus PID on the encoder rate. Called on the sensor loop.
+   */
+  private void controlVelocity() {
+    synchronized (m_driveLock) {
+      if (!m_controllingVelocity) {
+        return;
+      }
+      if (Timer.getFPGATimestamp() - m_velocityUpdateTime > VelocityControl.kTimeout) {
+        // Nobody is setting wheel speeds any more
+        m_controllingVelocity = false;
+        m_diffDrive.stopMotor();
+        return;
+      }
+
+      final double leftVolts = m_feedforward.calculate(m_leftSetpoint)
+        + m_leftVelocityPid.calculate(Units.inchesToMeters(readLeftRate()), m_leftSetpoint);
+      final double rightVolts = m_feedforward.calculate(m_rightSetpoint)
+        + m_rightVelocityPid.calculate(Units.inchesToMeters(readRightRate()), m_rightSetpoint);
+      m_leftGroup.setVoltage(clampVolts(leftVolts));
+      m_rightGroup.setVoltage(-clampVolts(rightVolts));   // the diff drive normally inverts the right side
+      m_diffDrive.feed();
+    }
+  }
+
+  private static double clampVolts(double volts) {
+    final double max = DriveCharacteristics.kNominalVoltage;
+    return Math.max(-max, Math.min(max, volts));
+  }
+
+  /**
+   * Hands the wheel speeds to the sensor loop to control (call holding m_driveLock)
+   * @param left the left wheel speed in meters per second
+   * @param right the right wheel speed in meters per second
+   */
+  private void setWheelSpeedSetpoints(double left, double right) {
+    if (!m_controllingVelocity) {
+      // Don't carry anything over from the last time
+      m_leftVelocityPid.reset();
+      m_rightVelocityPid.reset();
+    }
+    takeOverMotors();
+    m_leftSetpoint = left;
+    m_rightSetpoint = right;
+    m_velocityUpdateTime = Timer.getFPGATimestamp();
+    m_controllingVelocity = true;
+  }
+
+  /**
+   * Turns a stick value into a fraction of full speed the way DifferentialDrive does: clamped,
+   * deadbanded and optionally squared
+   */
+  private static double stickToSpeed(double value, boolean squareInput) {
+    value = Math.max(-1.0, Math.min(1.0, value));
+    final double deadband = DifferentialDrive.kDefaultDeadband;
+    if (Math.abs(value) <= deadband) {
+      return 0.0;
+    }
+    value = Math.copySign((Math.abs(value) - deadband) / (1.0 - deadband), value);
+    return squareInput ? Math.copySign(value * value, value) : value;
+  }
+
+  /**
+   * Drives the running characterization test and records a sample. Called on the sensor loop.
+   */
+  private void characterize() {
+    synchronized (m_driveLock) {
+      final CharacterizationTest test = m_characterizationTest;
+      if (test == null) {
+        return;
+      }
+
+      final double now = Timer.getFPGATimestamp();
+      final double elapsed = now - m_characterizationStart;
+      final CharacterizationLog log = m_characterizationLogs[test.ordinal()];
+      if (elapsed > test.getDuration()
+          || !log.record(now, m_characterizationVolts, RobotController.getBatteryVoltage(),
+            readLeftDistance(), readRightDistance(), readLeftRate(), readRightRate(),
+            hasGyro() ? readTurnRate() : 0.0)) {
+        m_characterizationTest = null;
+        m_diffDrive.stopMotor();
+        return;
+      }
+
+      // The sample goes with the voltage that was on the motors up to it; this one is for the next
+      m_characterizationVolts = test.getVoltage(elapsed);
+      m_leftGroup.setVoltage(m_characterizationVolts);
+      m_rightGroup.setVoltage(-m_characterizationVolts);   // the diff drive normally inverts the right side
+      m_diffDrive.feed();
+    }
+  }
+
+  /**
+   * Works out the rotation to correct a heading error: PD plus a static friction feedforward
+   * @param error the held heading minus the current heading, in degrees
+   * @param turnRate the current turn rate in degrees per second
+   * @return the arcade rotation (clockwise positive)
+   */
+  private static double headingCorrection(double error, double turnRate) {
+    double rotation = DriveStraight.kP * error - DriveStraight.kD * turnRate;
+    if (Math.abs(error) > DriveStraight.kToleranceDeg) {
+      rotation += Math.copySign(DriveStraight.kS, error);
+    }
+    return Math.max(-DriveStraight.kMaxCorrection, Math.min(DriveStraight.kMaxCorrection, rotation));
+  }
+
+  /**
+   * @return the heading to hold straight against, in degrees: the gyro's, or if there's no navX,
+   *         how far the left side has got ahead of the right (since the encoders were reset)
+   */
+  private double readStraightHeading() {
+    if (hasGyro()) {
+      return readContinuousHeading();
+    }
+    return Math.toDegrees((readLeftDistance() - readRightDistance())
+      / DriveConstants.kTrackWidthInches);
+  }
+
+  /**
+   * @return the turn rate matching readStraightHeading(), in degrees per second
+   */
+  private double readStraightTurnRate() {
+    if (hasGyro()) {
+      return readTurnRate();
+    }
+    return Math.toDegrees((readLeftRate() - readRightRate()) / DriveConstants.kTrackWidthInches);
+  }
+
+  /**
+   * @return the gyro heading the way the odometry wants it (counter-clockwise positive)
+   */
+  private Rotation2d gyroRotation() {
+    return Rotation2d.fromDegrees(-Math.IEEEremainder(readContinuousHeading(), 360));
+  }
+
+  /**
+   * Reads every sensor once and publishes the readings (the only place outside the sensor loop
+   * that talks to them). Called on the main thread only.
+   * 
+   * <p>The sensor loop doesn't use these readings: it runs several times per scheduler run and
+   * reads the sensors itself, so the pose and the heading history are newer than the snapshot.
+   */
+  private void readSensors() {
+    final Sensors sensors = (m_sensors == m_sensorBuffers[0]) ? m_sensorBuffers[1] : m_sensorBuffers[0];
+    sensors.set(Timer.getFPGATimestamp(),
+      readLeftDistance(), readRightDistance(),
+      readLeftRate(), readRightRate(),
+      hasGyro() ? readContinuousHeading() : 0.0, hasGyro() ? readTurnRate() : 0.0);
+    m_sensors = sensors;
+  }
+
+  private boolean hasGyro() {
+    return m_navx != null || m_simulation != null;
+  }
+
+  /**
+   * @return the heading straight from the gyro, for the sensor loop (see getContinuousHeading())
+   */
+  private double readContinuousHeading() {
+    if (m_simulation != null) {
+      return m_simulation.getGyroAngle();
+    }
+    return m_navx.getAngle() * (DriveConstants.kGyroReversed ? -1.0 : 1.0);
+  }
+
+  /**
+   * @return the turn rate straight from the gyro, in degrees per second (clockwise positive)
+   */
+  private double readTurnRate() {
+    if (m_simulation != null) {
+      return m_simulation.getGyroRate();
+    }
+    return m_navx.getRate() * (DriveConstants.kGyroReversed ? -1.0 : 1.0);
+  }
+
+  private double readLeftDistance() {
+    return (m_simulation != null) ? m_simulation.getLeftDistance() : m_leftEncoder.getDistance();
+  }
+
+  private double readRightDistance() {
+    return (m_simulation != null) ? m_simulation.getRightDistance() : m_rightEncoder.getDistance();
+  }
+
+  private double readLeftRate() {
+    return (m_simulation != null) ? m_simulation.getLeftRate() : m_leftEncoder.getRate();
+  }
+
+  private double readRightRate() {
+    return (m_simulation != null) ? m_simulation.getRightRate() : m_rightEncoder.getRate();
+  }
+
+  private void resetEncoderHardware() {
+    m_leftEncoder.reset();
+    m_rightEncoder.reset();
+    if (m_simulation != null) {
+      m_simulation.resetEncoders();
+    }
+  }
+
+  private void resetGyroHardware() {
+    if (m_simulation != null) {
+      m_simulation.resetGyro();
+    }
+    else {
+      m_navx.reset();
+    }
+  }
+
+  /**
+   * Moves the simulated drivetrain on by a time step, under whatever the motors are set to
+   */
+  private void stepSimulation(double dt) {
+    // The motor controllers hold their last output, so read it back (the right side is inverted)
+    final double volts = DriveCharacteristics.kNominalVoltage;
+    m_simulation.step(dt, m_leftGroup.get() * volts, -m_rightGroup.get() * volts);
+  }
+
+  /**
+   * Stops the sensor loop, so a simulation can run it with simulationStep() instead and
+   * go faster than real time
+   */
+  public void stopSensorLoop() {
+    m_sensorLoop.stop();
+  }
+
+  /**
+   * Advances the simulated drivetrain and runs the sensor loop once (simulation only)
+   * @param dt the time step in seconds (the simulated clock must be stepped to match)
+   */
+  public void simulationStep(double dt) {
+    stepSimulation(dt);
+    sampleSensors();
+  }
+
+  /**
+   * Puts the simulated robot back at the origin, stopped, with the sensors and odometry zeroed
+   * (simulation only)
+   */
+  public void resetSimulation() {
+    stop();
+    synchronized (m_odometryLock) {
+      m_simulation.reset();
+      m_headingHistory.clear();
+      m_odometryLeftOffset = 0;
+      m_odometryRightOffset = 0;
+      m_odometry.resetPosition(new Pose2d(), gyroRotation());
+      m_pose = new Pose2d();
+    }
+    readSensors();
+  }
+
+  /**
+   * @return the physics model standing in for the sensors, or null on the robot
+   */
+  public DrivetrainSim getSimulation() {
+    return m_simulation;
   }
 
   /**
    * Stops the drive subystem
    */
   public void stop() {
-    m_diffDrive.arcadeDrive(0, 0);
+    synchronized (m_driveLock) {
+      takeOverMotors();
+      m_diffDrive.arcadeDrive(0, 0);
+    }
   }
 
   /**
@@ -125,17 +561,99 @@ public class DriveSubsystem extends SubsystemBase {
    * @param rotation the rate & direction to turn
    */
   public void arcadeDrive(double forward, double rotation) {
-    m_diffDrive.arcadeDrive(forward, rotation);
+    arcadeDrive(forward, rotation, true);
     //SmartDashboard.putNumber("ArcadeDrive-Rotation", rotation);
   }
 
+  /**
+   * Drives the robot using arcade controls
+   * 
+   * @param forward the forward movement speed
+   * @param rotation the rate & direction to turn
+   * @param squareInputs whether to square the inputs (false if they've already been shaped)
+   */
+  public void arcadeDrive(double forward, double rotation, boolean squareInputs) {
+    synchronized (m_driveLock) {
+      if (m_velocityControlEnabled) {
+        // Mixed like the diff drive does, with full stick on one side being full speed
+        forward = stickToSpeed(forward, squareInputs);
+        rotation = stickToSpeed(rotation, squareInputs);
+        final double left = forward + rotation;
+        final double right = forward - rotation;
+        final double scale = fullSpeed() / Math.max(1.0, Math.max(Math.abs(left), Math.abs(right)));
+        setWheelSpeedSetpoints(left * scale, right * scale);
+        return;
+      }
+      takeOverMotors();
+      m_diffDrive.arcadeDrive(forward, rotation, squareInputs);
+    }
+  }
+
   /**
    * Drives the robot using tank controls
    * @param leftSpeed the left motor speed
    * @param rightSpeed the right motor speed
    */
   public void tankDrive(double leftSpeed, double rightSpeed) {
-    m_diffDrive.tankDrive(leftSpeed, rightSpeed);
+    synchronized (m_driveLock) {
+      if (m_velocityControlEnabled) {
+        setWheelSpeedSetpoints(stickToSpeed(leftSpeed, true) * fullSpeed(),
+          stickToSpeed(rightSpeed, true) * fullSpeed());
+        return;
+      }
+      takeOverMotors();
+      m_diffDrive.tankDrive(leftSpeed, rightSpeed);
+    }
+  }
+
+  /**
+   * Drives each side at a speed (e.g. for following a trajectory), closed loop with velocity
+   * control and open loop without
+   * @param leftSpeed the left wheel speed in meters per second
+   * @param rightSpeed the right wheel speed in meters per second
+   */
+  public void driveWheelSpeeds(double leftSpeed, double rightSpeed) {
+    synchronized (m_driveLock) {
+      if (m_velocityControlEnabled) {
+        setWheelSpeedSetpoints(leftSpeed, rightSpeed);
+        return;
+      }
+      takeOverMotors();
+      // The max output scales everything the diff drive sends, so take it back out
+      final double fullSpeed = fullSpeed();
+      m_diffDrive.tankDrive(leftSpeed / fullSpeed, rightSpeed / fullSpeed, false);
+    }
+  }
+
+  /**
+   * @return the wheel speed at full stick, in meters per second (call holding m_driveLock)
+   */
+  private double fullSpeed() {
+    return AutoConstants.kMaxWheelSpeedMetersPerSecond * m_maxOutput;
+  }
+
+  /**
+   * Sets whether arcadeDrive(), tankDrive() and driveWheelSpeeds() control the wheel speeds
+   * closed loop, so the robot drives the same whatever the battery and carpet are doing
+   * (the turning and driving straight methods stay open loop)
+   */
+  public void setVelocityControl(boolean enabled) {
+    synchronized (m_driveLock) {
+      m_velocityControlEnabled = enabled;
+      if (!enabled && m_controllingVelocity) {
+        m_controllingVelocity = false;
+        m_diffDrive.stopMotor();
+      }
+    }
+  }
+
+  /**
+   * @return whether the wheel speeds are controlled closed loop (see setVelocityControl())
+   */
+  public boolean isVelocityControl() {
+    synchronized (m_driveLock) {
+      return m_velocityControlEnabled;
+    }
   }
 
   /**
@@ -155,27 +673,100 @@ public class DriveSubsystem extends SubsystemBase {
 
     SmartDashboard.putNumber("Calc'ed Rotation", rotation);
 
-    m_diffDrive.arcadeDrive(0, rotation);
+    synchronized (m_driveLock) {
+      takeOverMotors();
+      m_diffDrive.arcadeDrive(0, rotation);
+    }
+  }
+
+  /**
+   * Turns the robot in place, with no minimum (for controllers that have their own feedforward)
+   * @param rotation The rotation rate around the z-axis. Clockwise is positive.
+   */
+  public void turn(double rotation) {
+    synchronized (m_driveLock) {
+      takeOverMotors();
+      m_diffDrive.arcadeDrive(0, rotation, false);
+    }
   }
 
   /**
-   * Initialize drive straight
-   * (either encoder or gyro depending on how we're driving straight)
+   * Initialize drive straight: resets the encoders and holds the current heading
+   * (gyro or encoder heading depending on how we're driving straight)
    */
   public void initDriveStraight() {
     this.resetEncoders();
+
+    synchronized (m_driveLock) {
+      m_straightHeading = readStraightHeading();
+      m_straightForward = 0;
+      m_straightUpdateTime = Timer.getFPGATimestamp();
+      takeOverMotors();
+      m_holdingHeading = true;
+    }
   }
   
 
   /**
-   * Drives the robot in a straight line
+   * Drives the robot in a straight line, along the heading from initDriveStraight()
+   * (or the current heading, if something else has driven since). The rotation is corrected
+   * on the sensor loop, so this only needs calling once per scheduler run.
    * @param forward the forward movement speed
    */
   public void driveStraight(double forward) {
-    double rotation = 0;
-    // To do: Calculate the rotation to keep the robot going straight
+    synchronized (m_driveLock) {
+      if (!m_holdingHeading) {
+        m_straightHeading = readStraightHeading();
+      }
+      // Squared like arcadeDrive() does, so the stick feels the same
+      m_straightForward = Math.copySign(forward * forward, forward);
+      m_straightUpdateTime = Timer.getFPGATimestamp();
+      takeOverMotors();
+      m_holdingHeading = true;
+    }
+  }
+
+  /**
+   * Starts a characterization test, which drives the robot on its own until it's finished or
+   * anything else drives (the robot needs a clear run of the field, or to be up on blocks)
+   */
+  public void startCharacterization(CharacterizationTest test) {
+    synchronized (m_driveLock) {
+      takeOverMotors();
+      m_characterizationLogs[test.ordinal()].clear();
+      m_characterizationStart = Timer.getFPGATimestamp();
+      m_characterizationVolts = 0;
+      m_characterizationTest = test;
+    }
+  }
+
+  /**
+   * Stops the characterization test (if one is running)
+   */
+  public void stopCharacterization() {
+    synchronized (m_driveLock) {
+      if (m_characterizationTest != null) {
+        m_characterizationTest = null;
+        m_diffDrive.stopMotor();
+      }
+    }
+  }
 
-    m_diffDrive.arcadeDrive(forward, rotation);
+  /**
+   * @return whether a characterization test is running
+   */
+  public boolean isCharacterizing() {
+    synchronized (m_driveLock) {
+      return m_characterizationTest != null;
+    }
+  }
+
+  /**
+   * Get the samples from the last run of each characterization test
+   * (only read them while no test is running)
+   */
+  public CharacterizationLog[] getCharacterizationLogs() {
+    return m_characterizationLogs;
   }
 
   /**
@@ -183,7 +774,10 @@ public class DriveSubsystem extends SubsystemBase {
    * @param maxOutput the maximum output to which the drive will be constrained
    */
   public void setMaxOutput(double maxOutput) {
-    m_diffDrive.setMaxOutput(maxOutput);
+    synchronized (m_driveLock) {
+      m_maxOutput = maxOutput;
+      m_diffDrive.setMaxOutput(maxOutput);
+    }
   }
   
 
@@ -191,8 +785,43 @@ public class DriveSubsystem extends SubsystemBase {
    * Resets both drive encoders to zero
    */
   public void resetEncoders() {
-    m_leftEncoder.reset();
-    m_rightEncoder.reset();
+    synchronized (m_odometryLock) {
+      resetEncoderHardware();
+      m_odometryLeftOffset = 0;
+      m_odometryRightOffset = 0;
+
+      // The odometry has to start counting distance from zero again, but keeps the pose
+      if (m_odometry != null) {
+        m_odometry.resetPosition(m_pose, gyroRotation());
+      }
+    }
+    // So commands that reset and then read in the same run see the zeroes
+    readSensors();
+  }
+
+  /**
+   * Resets the encoders and sets where the robot is on the field
+   * @param pose the field relative pose, in meters
+   */
+  public void resetOdometry(Pose2d pose) {
+    synchronized (m_odometryLock) {
+      resetEncoderHardware();
+      m_odometryLeftOffset = 0;
+      m_odometryRightOffset = 0;
+
+      if (m_odometry != null) {
+        m_odometry.resetPosition(pose, gyroRotation());
+      }
+      m_pose = pose;
+    }
+    readSensors();
+  }
+
+  /**
+   * @return the field relative pose from the odometry, in meters (updated on the sensor loop)
+   */
+  public Pose2d getPose() {
+    return m_pose;
   }
 
 
@@ -200,28 +829,29 @@ public class DriveSubsystem extends SubsystemBase {
    * Get the distance from the left encoder
    */
   public double leftDistance() {
-    return m_leftEncoder.getDistance();    
+    return m_sensors.getLeftDistance();
   }
 
   /**
    * Get the distance reading from the right encoder
    */
   public double rightDistance() {
-    return m_rightEncoder.getDistance();
+    return m_sensors.getRightDistance();
   }
 
   /**
    * Get the average distance from the two encoders
    */
   public double getAverageEncoderDistance() {
-    return (m_leftEncoder.getDistance() + m_rightEncoder.getDistance()) / 2.0;
+    return m_sensors.getAverageDistance();
   }
 
   /**
    * @return rate of turn for driving straight via encoders
    */
   public double turnScale(){
-    double rate = leftDistance()-rightDistance();
+    final Sensors sensors = m_sensors;
+    double rate = sensors.getLeftDistance()-sensors.getRightDistance();
     if (rate == 0.0)
       return rate;
 
@@ -233,41 +863,197 @@ public class DriveSubsystem extends SubsystemBase {
   }
 
   /**
-   * Resets the gyro heading to zero
+   * Resets the gyro heading to zero. The encoders aren't touched, so commands driving a
+   * distance carry on unaffected.
    */
   public void zeroHeading() {
-    m_navx.reset();
+    synchronized (m_odometryLock) {
+      resetGyroHardware();
+      m_headingHistory.clear();
+
+      // Keep the pose's heading; from now on it's measured from the new zero. The odometry
+      // counts distance from zero again after a re-base, so it starts from where the encoders are now.
+      if (m_odometry != null) {
+        m_odometryLeftOffset = readLeftDistance();
+        m_odometryRightOffset = readRightDistance();
+        m_odometry.resetPosition(m_pose, new Rotation2d());
+      }
+    }
+    readSensors();
   }
 
   /**
    * @return the heading from the gyro in degrees, from +180 to -180
    */
   public double getHeading() {
-    return Math.IEEEremainder(m_navx.getAngle(), 360) * (DriveConstants.kGyroReversed ? -1.0 : 1.0);
+    return m_sensors.getHeading();
+  }
+
+  /**
+   * @return the heading from the gyro in degrees, without wrapping at +/-180
+   */
+  public double getContinuousHeading() {
+    return m_sensors.getContinuousHeading();
+  }
+
+  /**
+   * Get the heading the robot had at a recent point in time (e.g. when a camera frame was captured)
+   * @param timestamp the FPGA time in seconds
+   * @return the continuous heading in degrees (see getContinuousHeading())
+   */
+  public double getHeadingAt(double timestamp) {
+    return m_headingHistory.getHeadingAt(timestamp);
   }
 
   /**
    * @return the rate of turn from the gyro
    */
   public double getTurnRate() {
-    return m_navx.getRate() * (DriveConstants.kGyroReversed ? -1.0 : 1.0);
+    return m_sensors.getTurnRate();
   }
 
-  public void detectCollision() {
-    final double COLLISION_THRESHOLD_DELTA_G = 0.5;
+  /**
+   * @return all of the drive sensors as read at the start of this scheduler run
+   */
+  public Sensors getSensors() {
+    return m_sensors;
+  }
 
-    boolean collisionDetectedY = false;
-    
-    double currentLinearAccelY = m_navx.getWorldLinearAccelY();
-    double currentJerkY = currentLinearAccelY - m_lastLinearAccelY;
-    m_lastLinearAccelY = currentLinearAccelY;
+  /**
+   * Takes the oldest collision that hasn't been handled yet (call from the main robot thread only)
+   * @param event where to put it
+   * @return false if there hasn't been a collision since the last one was taken
+   */
+  public boolean pollCollision(CollisionDetector.Event event) {
+    return m_collisionDetector.poll(event);
+  }
 
-    if (Math.abs(currentJerkY) > COLLISION_THRESHOLD_DELTA_G) {
-      collisionDetectedY = true;
+  /**
+   * Forgets the collisions that haven't been handled (call from the main robot thread only)
+   */
+  public void clearCollisions() {
+    m_collisionDetector.clear();
+  }
+
+  /**
+   * The voltage ramps used to characterize the drivetrain: a slow ramp, so acceleration is
+   * negligible (for kS and kV), and a sudden step (for kA), each way.
+   */
+  public enum CharacterizationTest {
+    kQuasistaticForward(false, 1.0),
+    kQuasistaticBackward(false, -1.0),
+    kDynamicForward(true, 1.0),
+    kDynamicBackward(true, -1.0);
+
+    private final boolean m_dynamic;
+    private final double m_direction;
+
+    CharacterizationTest(boolean dynamic, double direction) {
+      m_dynamic = dynamic;
+      m_direction = direction;
     }
 
-    SmartDashboard.putBoolean("Collision Detected Y", collisionDetectedY);
+    /**
+     * @return the voltage to apply at a time into the test
+     */
+    public double getVoltage(double elapsed) {
+      return m_direction * (m_dynamic ? Characterization.kStepVolts : Characterization.kRampVoltsPerSecond * elapsed);
+    }
+
+    /**
+     * @return how long the test runs for, in seconds
+     */
+    public double getDuration() {
+      return m_dynamic ? Characterization.kDynamicSeconds : Characterization.kQuasistaticSeconds;
+    }
   }
-}
 
+  /**
+   * The drive sensors as read at one point in time.
+   *
+   * <p>The getters of DriveSubsystem all answer from the latest of these, so everything that
+   * runs in one scheduler run sees the same readings and each sensor is only read once per run.
+   * Distances are in inches and angles in degrees, like the rest of the subsystem.
+   * 
+   * <p>DriveSubsystem reuses two of these, so a snapshot is only left alone until the reading
+   * after next: copy the values out rather than holding on to it.
+   */
+  public static final class Sensors {
+    private double m_timestamp;
+    private double m_leftDistance;
+    private double m_rightDistance;
+    private double m_leftRate;
+    private double m_rightRate;
+    private double m_continuousHeading;
+    private double m_turnRate;
+
+    private Sensors() {
+    }
+
+    private void set(double timestamp, double leftDistance, double rightDistance, double leftRate, double rightRate,
+      double continuousHeading, double turnRate) {
+
+      m_timestamp = timestamp;
+      m_leftDistance = leftDistance;
+      m_rightDistance = rightDistance;
+      m_leftRate = leftRate;
+      m_rightRate = rightRate;
+      m_continuousHeading = continuousHeading;
+      m_turnRate = turnRate;
+    }
+
+    /**
+     * @return the FPGA time in seconds when the sensors were read
+     */
+    public double getTimestamp() {
+      return m_timestamp;
+    }
+
+    public double getLeftDistance() {
+      return m_leftDistance;
+    }
+
+    public double getRightDistance() {
+      return m_rightDistance;
+    }
+
+    public double getAverageDistance() {
+      return (m_leftDistance + m_rightDistance) / 2.0;
+    }
+
+    /**
+     * @return the speed of the left side in inches per second
+     */
+    public double getLeftRate() {
+      return m_leftRate;
+    }
 
+    /**
+     * @return the speed of the right side in inches per second
+     */
+    public double getRightRate() {
+      return m_rightRate;
+    }
+
+    /**
+     * @return the heading from +180 to -180
+     */
+    public double getHeading() {
+      return Math.IEEEremainder(m_continuousHeading, 360);
+    }
+
+    /**
+     * @return the heading without wrapping at +/-180
+     */
+    public double getContinuousHeading() {
+      return m_continuousHeading;
+    }
+
+    /**
+     * @return the rate of turn in degrees per second
+     */
+    public double getTurnRate() {
+      return m_turnRate;
+    }
+  }
+}
@@ -0,0 +1,97 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2019 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+package frc.robot.trajectory;
+
+import java.util.List;
+
+import edu.wpi.first.wpilibj.geometry.Pose2d;
+import edu.wpi.first.wpilibj.geometry.Rotation2d;
+import edu.wpi.first.wpilibj.kinematics.DifferentialDriveKinematics;
+import edu.wpi.first.wpilibj.trajectory.Trajectory;
+import edu.wpi.first.wpilibj.trajectory.TrajectoryConfig;
+import edu.wpi.first.wpilibj.trajectory.TrajectoryGenerator;
+import edu.wpi.first.wpilibj.util.Units;
+
+import static frc.robot.Constants.*;
+
+/**
+ * The trajectories our autonomous routines drive. AutoTrajectoryGenerator (in the tools source
+ * set) generates them into the deploy directory; see the generateTrajectories task in build.gradle.
+ *
+ * <p>Poses are in meters from where the robot starts, facing away from the driver station
+ * with counter-clockwise positive (the WPILib convention, same as the odometry).
+ */
+public enum AutoTrajectories {
+  // Back straight off the initiation line
+  kOffLine(true,
+    new Pose2d(0, 0, new Rotation2d()),
+    new Pose2d(-1.5, 0, new Rotation2d())),
+
+  // Back off the line and over, to leave the lane in front of the Power Port clear
+  kOffsetOffLine(true,
+    new Pose2d(0, 0, new Rotation2d()),
+    new Pose2d(-2.0, 0.7, new Rotation2d()));
+
+  private final boolean m_reversed;
+  private final List<Pose2d> m_waypoints;
+
+  AutoTrajectories(boolean reversed, Pose2d... waypoints) {
+    m_reversed = reversed;
+    m_waypoints = List.of(waypoints);
+  }
+
+  /**
+   * @return the name of the trajectory's file in the trajectory directory
+   */
+  public String fileName() {
+    return name().substring(1) + ".traj";
+  }
+
+  /**
+   * Generates the trajectory (slow on the roboRIO; use TrajectoryCache instead)
+   */
+  public Trajectory generate() {
+    return TrajectoryGenerator.generateTrajectory(m_waypoints, config());
+  }
+
+  /**
+   * @return a hash of everything the trajectory is generated from, so the cache can tell
+   *         when a saved trajectory is out of date
+   */
+  public long fingerprint() {
+    long hash = 0xcbf29ce484222325L;
+    hash = mix(hash, m_reversed ? 1 : 0);
+    for (Pose2d pose : m_waypoints) {
+      hash = mix(hash, Double.doubleToLongBits(pose.getTranslation().getX()));
+      hash = mix(hash, Double.doubleToLongBits(pose.getTranslation().getY()));
+      hash = mix(hash, Double.doubleToLongBits(pose.getRotation().getRadians()));
+    }
+    hash = mix(hash, Double.doubleToLongBits(AutoConstants.kMaxSpeedMetersPerSecond));
+    hash = mix(hash, Double.doubleToLongBits(AutoConstants.kMaxAccelerationMetersPerSecondSquared));
+    hash = mix(hash, Double.doubleToLongBits(DriveConstants.kTrackWidthInches));
+    return hash;
+  }
+
+  private TrajectoryConfig config() {
+    TrajectoryConfig config = new TrajectoryConfig(AutoConstants.kMaxSpeedMetersPerSecond,
+      AutoConstants.kMaxAccelerationMetersPerSecondSquared);
+    // Keeps the outside wheel under the max speed on curves
+    config.setKinematics(new DifferentialDriveKinematics(Units.inchesToMeters(DriveConstants.kTrackWidthInches)));
+    config.setReversed(m_reversed);
+    return config;
+  }
+
+  private static long mix(long hash, long value) {
+    // FNV-1a, a byte at a time
+    for (int i = 0; i < 8; i++) {
+      hash ^= (value >>> (8 * i)) & 0xff;
+      hash *= 0x100000001b3L;
+    }
+    return hash;
+  }
+}
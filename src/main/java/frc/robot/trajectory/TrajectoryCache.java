@@ -0,0 +1,169 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2019 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+package frc.robot.trajectory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.Filesystem;
+import edu.wpi.first.wpilibj.geometry.Pose2d;
+import edu.wpi.first.wpilibj.geometry.Rotation2d;
+import edu.wpi.first.wpilibj.trajectory.Trajectory;
+
+import static frc.robot.Constants.*;
+
+/**
+ * Loads the pre-generated autonomous trajectories from the deploy directory, so the roboRIO
+ * doesn't spend seconds generating them at boot.
+ *
+ * <p>Trajectories are loaded in the background when preloaded, or on first use otherwise, and
+ * kept. A file that's missing, or was generated from different waypoints or limits than
+ * AutoTrajectories has now, is reported and the trajectory is generated on the robot instead
+ * (slow, but never wrong) until generateTrajectories is run again.
+ *
+ * <p>The file format is big-endian: the magic number, the format version, the fingerprint of
+ * the definition, the number of states, then for each state its time, velocity, acceleration,
+ * x, y, heading (radians) and curvature, as floats.
+ */
+public class TrajectoryCache {
+  private static final int kMagic = 0x5452414a;   // "TRAJ"
+  private static final int kVersion = 1;
+  private static final int kHeaderBytes = 4 + 4 + 8 + 4;
+  private static final int kStateBytes = 7 * 4;
+
+  private final File m_directory;
+  private final Map<AutoTrajectories, CompletableFuture<Trajectory>> m_loads = new ConcurrentHashMap<>();
+
+  /**
+   * Creates a cache reading from the trajectory directory under the deploy directory
+   */
+  public TrajectoryCache() {
+    this(new File(Filesystem.getDeployDirectory(), AutoConstants.kTrajectoryDirectory));
+  }
+
+  /**
+   * Creates a new TrajectoryCache.
+   * @param directory the directory the trajectory files are in
+   */
+  public TrajectoryCache(File directory) {
+    m_directory = directory;
+  }
+
+  /**
+   * Starts loading trajectories in the background
+   */
+  public void preload(AutoTrajectories... routines) {
+    for (AutoTrajectories routine : routines) {
+      load(routine);
+    }
+  }
+
+  /**
+   * Get a trajectory, waiting for it to load if it hasn't yet
+   */
+  public Trajectory get(AutoTrajectories routine) {
+    return load(routine).join();
+  }
+
+  /**
+   * Get a trajectory without waiting (starting to load it, if it wasn't already)
+   * @return the trajectory, or null if it hasn't finished loading
+   */
+  public Trajectory getIfLoaded(AutoTrajectories routine) {
+    CompletableFuture<Trajectory> load = load(routine);
+    return (load.isDone() && !load.isCompletedExceptionally()) ? load.join() : null;
+  }
+
+  private CompletableFuture<Trajectory> load(AutoTrajectories routine) {
+    return m_loads.computeIfAbsent(routine, r -> CompletableFuture.supplyAsync(() -> loadOrGenerate(r)));
+  }
+
+  private Trajectory loadOrGenerate(AutoTrajectories routine) {
+    File file = new File(m_directory, routine.fileName());
+    try {
+      Trajectory trajectory = read(file, routine.fingerprint());
+      if (trajectory != null) {
+        return trajectory;
+      }
+      DriverStation.reportError(file + " is out of date (run generateTrajectories), generating it", false);
+    }
+    catch (IOException ex) {
+      DriverStation.reportError("Can't load " + file + " (" + ex.getMessage() + "), generating it", false);
+    }
+    return routine.generate();
+  }
+
+  /**
+   * Reads a trajectory file
+   * @param file the file to read
+   * @param fingerprint the fingerprint of the trajectory's current definition
+   * @return the trajectory, or null if the file was generated from a different definition
+   */
+  public static Trajectory read(File file, long fingerprint) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+    if (buffer.remaining() < kHeaderBytes || buffer.getInt() != kMagic) {
+      throw new IOException("not a trajectory file");
+    }
+    if (buffer.getInt() != kVersion || buffer.getLong() != fingerprint) {
+      return null;
+    }
+
+    final int count = buffer.getInt();
+    if (count <= 0 || buffer.remaining() != count * kStateBytes) {
+      throw new IOException("truncated");
+    }
+
+    List<Trajectory.State> states = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      final double time = buffer.getFloat();
+      final double velocity = buffer.getFloat();
+      final double acceleration = buffer.getFloat();
+      final double x = buffer.getFloat();
+      final double y = buffer.getFloat();
+      final double heading = buffer.getFloat();
+      final double curvature = buffer.getFloat();
+      states.add(new Trajectory.State(time, velocity, acceleration,
+        new Pose2d(x, y, new Rotation2d(heading)), curvature));
+    }
+    return new Trajectory(states);
+  }
+
+  /**
+   * Writes a trajectory file
+   * @param file the file to write
+   * @param fingerprint the fingerprint of the trajectory's definition
+   * @param trajectory the trajectory
+   */
+  public static void write(File file, long fingerprint, Trajectory trajectory) throws IOException {
+    List<Trajectory.State> states = trajectory.getStates();
+    ByteBuffer buffer = ByteBuffer.allocate(kHeaderBytes + states.size() * kStateBytes);
+    buffer.putInt(kMagic);
+    buffer.putInt(kVersion);
+    buffer.putLong(fingerprint);
+    buffer.putInt(states.size());
+
+    for (Trajectory.State state : states) {
+      buffer.putFloat((float)state.timeSeconds);
+      buffer.putFloat((float)state.velocityMetersPerSecond);
+      buffer.putFloat((float)state.accelerationMetersPerSecondSq);
+      buffer.putFloat((float)state.poseMeters.getTranslation().getX());
+      buffer.putFloat((float)state.poseMeters.getTranslation().getY());
+      buffer.putFloat((float)state.poseMeters.getRotation().getRadians());
+      buffer.putFloat((float)state.curvatureRadPerMeter);
+    }
+    Files.write(file.toPath(), buffer.array());
+  }
+}
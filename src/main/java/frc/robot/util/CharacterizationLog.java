@@ -0,0 +1,225 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2019 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+package frc.robot.util;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * Samples from one drivetrain characterization run, kept in arrays that are allocated up front
+ * so recording on the sensor loop never allocates or talks to the network.
+ *
+ * <p>Written by the sensor loop while the run is going and read by the main thread once it has
+ * finished (the handover is through DriveSubsystem's drive lock). Distances are in inches, like
+ * the rest of the drive subsystem; the fit converts them to meters.
+ */
+public class CharacterizationLog {
+  private static final double kMetersPerInch = 0.0254;
+
+  // Samples either side to take the acceleration over; differencing neighbouring 200 Hz samples
+  // amplifies the encoder noise so much that it drags kA towards zero
+  private static final int kAccelerationSpan = 5;
+
+  private final double[] m_time;
+  private final double[] m_commandedVolts;
+  private final double[] m_batteryVolts;
+  private final double[] m_leftDistance;
+  private final double[] m_rightDistance;
+  private final double[] m_leftRate;
+  private final double[] m_rightRate;
+  private final double[] m_gyroRate;
+  private int m_count = 0;
+
+  /**
+   * Creates a new CharacterizationLog.
+   * @param capacity the most samples it can hold
+   */
+  public CharacterizationLog(int capacity) {
+    m_time = new double[capacity];
+    m_commandedVolts = new double[capacity];
+    m_batteryVolts = new double[capacity];
+    m_leftDistance = new double[capacity];
+    m_rightDistance = new double[capacity];
+    m_leftRate = new double[capacity];
+    m_rightRate = new double[capacity];
+    m_gyroRate = new double[capacity];
+  }
+
+  /**
+   * Adds a sample
+   * @return false if the log is full (the sample is dropped)
+   */
+  public boolean record(double time, double commandedVolts, double batteryVolts, double leftDistance,
+    double rightDistance, double leftRate, double rightRate, double gyroRate) {
+
+    if (m_count == m_time.length) {
+      return false;
+    }
+    final int i = m_count++;
+    m_time[i] = time;
+    m_commandedVolts[i] = commandedVolts;
+    m_batteryVolts[i] = batteryVolts;
+    m_leftDistance[i] = leftDistance;
+    m_rightDistance[i] = rightDistance;
+    m_leftRate[i] = leftRate;
+    m_rightRate[i] = rightRate;
+    m_gyroRate[i] = gyroRate;
+    return true;
+  }
+
+  public void clear() {
+    m_count = 0;
+  }
+
+  public int size() {
+    return m_count;
+  }
+
+  public boolean isFull() {
+    return m_count == m_time.length;
+  }
+
+  /**
+   * Writes the samples to a csv file, in one go
+   */
+  public void writeCsv(File file) throws IOException {
+    StringBuilder text = new StringBuilder(64 + m_count * 96);
+    text.append("time,commanded volts,battery volts,left distance,right distance,left rate,right rate,gyro rate\n");
+    for (int i = 0; i < m_count; i++) {
+      text.append(m_time[i]).append(',')
+        .append(m_commandedVolts[i]).append(',')
+        .append(m_batteryVolts[i]).append(',')
+        .append(m_leftDistance[i]).append(',')
+        .append(m_rightDistance[i]).append(',')
+        .append(m_leftRate[i]).append(',')
+        .append(m_rightRate[i]).append(',')
+        .append(m_gyroRate[i]).append('\n');
+    }
+
+    try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+      writer.write(text.toString());
+    }
+  }
+
+  /**
+   * Fits voltage = kS * sign(velocity) + kV * velocity + kA * acceleration to one side of the
+   * drivetrain over several runs, by ordinary least squares. Fitting the quasistatic runs (which
+   * pin down kS and kV) together with the dynamic ones (which pin down kA) gives the best fit.
+   * @param logs the runs
+   * @param left true to fit the left side, false for the right
+   * @param minVelocity the slowest a sample can be moving to be used, in meters per second
+   *                    (standing still says nothing about kV, and static friction isn't kS)
+   * @return kS (volts), kV (volts per meter per second), kA (volts per meter per second squared)
+   *         and r squared, or null if there isn't enough data
+   */
+  public static double[] fit(CharacterizationLog[] logs, boolean left, double minVelocity) {
+    // Normal equations, X'X b = X'y, built up one sample at a time
+    final double[][] xtx = new double[3][3];
+    final double[] xty = new double[3];
+    final double[] x = new double[3];
+    double sumY = 0;
+    double sumYY = 0;
+    int n = 0;
+
+    for (CharacterizationLog log : logs) {
+      final double[] rate = left ? log.m_leftRate : log.m_rightRate;
+      for (int i = kAccelerationSpan; i < log.m_count - kAccelerationSpan; i++) {
+        final double velocity = rate[i] * kMetersPerInch;
+        if (Math.abs(velocity) < minVelocity) {
+          continue;
+        }
+        // Central difference, so the acceleration lines up with the velocity
+        final int before = i - kAccelerationSpan;
+        final int after = i + kAccelerationSpan;
+        final double dt = log.m_time[after] - log.m_time[before];
+        if (dt <= 0) {
+          continue;
+        }
+        final double acceleration = (rate[after] - rate[before]) * kMetersPerInch / dt;
+        final double volts = log.m_commandedVolts[i];
+
+        x[0] = Math.signum(velocity);
+        x[1] = velocity;
+        x[2] = acceleration;
+        for (int r = 0; r < 3; r++) {
+          for (int c = 0; c < 3; c++) {
+            xtx[r][c] += x[r] * x[c];
+          }
+          xty[r] += x[r] * volts;
+        }
+        sumY += volts;
+        sumYY += volts * volts;
+        n++;
+      }
+    }
+
+    if (n < 3) {
+      return null;
+    }
+    final double[] b = solve(xtx, xty);
+    if (b == null) {
+      return null;
+    }
+
+    // r^2 = 1 - SSres/SStot, with SSres = y'y - b'X'y for least squares
+    final double ssTotal = sumYY - sumY * sumY / n;
+    final double ssResidual = sumYY - (b[0] * xty[0] + b[1] * xty[1] + b[2] * xty[2]);
+    final double rSquared = (ssTotal > 0) ? 1 - ssResidual / ssTotal : 0;
+    return new double[] {b[0], b[1], b[2], rSquared};
+  }
+
+  /**
+   * Solves a small system by Gaussian elimination with partial pivoting
+   * @return the solution, or null if the system is singular (e.g. a run that never accelerated)
+   */
+  private static double[] solve(double[][] matrix, double[] vector) {
+    final int n = vector.length;
+    final double[][] a = new double[n][];
+    for (int r = 0; r < n; r++) {
+      a[r] = matrix[r].clone();
+    }
+    final double[] y = vector.clone();
+    for (int col = 0; col < n; col++) {
+      int pivot = col;
+      for (int r = col + 1; r < n; r++) {
+        if (Math.abs(a[r][col]) > Math.abs(a[pivot][col])) {
+          pivot = r;
+        }
+      }
+      if (Math.abs(a[pivot][col]) < 1e-12) {
+        return null;
+      }
+      final double[] row = a[col];
+      a[col] = a[pivot];
+      a[pivot] = row;
+      final double t = y[col];
+      y[col] = y[pivot];
+      y[pivot] = t;
+
+      for (int r = col + 1; r < n; r++) {
+        final double factor = a[r][col] / a[col][col];
+        for (int c = col; c < n; c++) {
+          a[r][c] -= factor * a[col][c];
+        }
+        y[r] -= factor * y[col];
+      }
+    }
+
+    final double[] b = new double[n];
+    for (int r = n - 1; r >= 0; r--) {
+      double sum = y[r];
+      for (int c = r + 1; c < n; c++) {
+        sum -= a[r][c] * b[c];
+      }
+      b[r] = sum / a[r][r];
+    }
+    return b;
+  }
+}
@@ -0,0 +1,164 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2019 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+package frc.robot.util;
+
+/**
+ * Spots collisions as jumps in linear acceleration between consecutive accelerometer samples,
+ * and queues them for the robot to react to.
+ *
+ * <p>Samples come from one thread (the navX update callback) and events are taken by another
+ * (the main robot thread, where the commands run), through a fixed size single producer,
+ * single consumer ring: each side only writes its own index, so neither ever waits on a lock.
+ * If the ring fills up, the newest events are dropped and counted.
+ */
+public class CollisionDetector {
+  private final double m_thresholdDeltaG;
+  private final double m_holdoff;
+
+  // Producer side (sampling thread only)
+  private boolean m_havePrevious = false;
+  private double m_lastAccelX;
+  private double m_lastAccelY;
+  private double m_lastEventTime = Double.NEGATIVE_INFINITY;
+
+  // The ring; slots are written by the producer before it publishes them by moving the head
+  private final int m_mask;
+  private final double[] m_timestamps;
+  private final double[] m_jerkX;
+  private final double[] m_jerkY;
+  private volatile long m_head = 0;   // next slot to write, only written by the producer
+  private volatile long m_tail = 0;   // next slot to read, only written by the consumer
+  private volatile long m_overflowCount = 0;
+  private volatile double m_latestEventTime = Double.NaN;
+
+  /**
+   * Creates a new CollisionDetector.
+   * @param thresholdDeltaG the change in acceleration between samples that counts as a collision, in G
+   * @param holdoff how long after a collision to ignore further jumps (one hit rings for a while), in seconds
+   * @param capacity the number of events to hold (rounded up to a power of 2)
+   */
+  public CollisionDetector(double thresholdDeltaG, double holdoff, int capacity) {
+    m_thresholdDeltaG = thresholdDeltaG;
+    m_holdoff = holdoff;
+
+    final int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+    m_mask = size - 1;
+    m_timestamps = new double[size];
+    m_jerkX = new double[size];
+    m_jerkY = new double[size];
+  }
+
+  /**
+   * Adds an accelerometer sample (producer thread only)
+   * @param timestamp the time of the sample in seconds
+   * @param accelX the linear acceleration in X, in G
+   * @param accelY the linear acceleration in Y, in G
+   */
+  public void sample(double timestamp, double accelX, double accelY) {
+    final double jerkX = accelX - m_lastAccelX;
+    final double jerkY = accelY - m_lastAccelY;
+    m_lastAccelX = accelX;
+    m_lastAccelY = accelY;
+    if (!m_havePrevious) {
+      m_havePrevious = true;
+      return;
+    }
+
+    if (Math.abs(jerkX) > m_thresholdDeltaG || Math.abs(jerkY) > m_thresholdDeltaG) {
+      if (timestamp - m_lastEventTime >= m_holdoff) {
+        m_lastEventTime = timestamp;
+        offer(timestamp, jerkX, jerkY);
+      }
+    }
+  }
+
+  private void offer(double timestamp, double jerkX, double jerkY) {
+    final long head = m_head;
+    if (head - m_tail > m_mask) {
+      m_overflowCount++;
+      return;
+    }
+
+    final int slot = (int)(head & m_mask);
+    m_timestamps[slot] = timestamp;
+    m_jerkX[slot] = jerkX;
+    m_jerkY[slot] = jerkY;
+    m_head = head + 1;    // publishes the slot
+    m_latestEventTime = timestamp;
+  }
+
+  /**
+   * Takes the oldest waiting collision (consumer thread only)
+   * @param event where to put it
+   * @return false if there were none waiting
+   */
+  public boolean poll(Event event) {
+    final long tail = m_tail;
+    if (tail == m_head) {
+      return false;
+    }
+
+    final int slot = (int)(tail & m_mask);
+    event.m_timestamp = m_timestamps[slot];
+    event.m_jerkX = m_jerkX[slot];
+    event.m_jerkY = m_jerkY[slot];
+    m_tail = tail + 1;    // hands the slot back
+    return true;
+  }
+
+  /**
+   * Throws away any waiting collisions (consumer thread only)
+   */
+  public void clear() {
+    m_tail = m_head;
+  }
+
+  /**
+   * @return the time of the latest collision in seconds (NaN if there hasn't been one)
+   */
+  public double getLatestEventTime() {
+    return m_latestEventTime;
+  }
+
+  /**
+   * @return the number of collisions dropped because the ring was full
+   */
+  public long getOverflowCount() {
+    return m_overflowCount;
+  }
+
+  /**
+   * A collision, reused by the consumer to save allocating one per poll
+   */
+  public static final class Event {
+    private double m_timestamp;
+    private double m_jerkX;
+    private double m_jerkY;
+
+    /**
+     * @return the time of the sample that crossed the threshold, in seconds
+     */
+    public double getTimestamp() {
+      return m_timestamp;
+    }
+
+    /**
+     * @return the change in X acceleration from the sample before, in G
+     */
+    public double getJerkX() {
+      return m_jerkX;
+    }
+
+    /**
+     * @return the change in Y acceleration from the sample before, in G
+     */
+    public double getJerkY() {
+      return m_jerkY;
+    }
+  }
+}
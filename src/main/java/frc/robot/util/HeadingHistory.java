@@ -0,0 +1,85 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2019 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+package frc.robot.util;
+
+/**
+ * Fixed size, time-indexed history of headings, so we can look up where the robot was pointing
+ * when something (like a camera frame) happened a little while ago.
+ * 
+ * <p>Written by one thread (the sensor loop) and read by others, so access is synchronized.
+ * Headings should be continuous (not wrapped to +/-180) so they can be interpolated.
+ */
+public class HeadingHistory {
+  private final double[] m_timestamps;
+  private final double[] m_headings;
+  private int m_next = 0;
+  private int m_count = 0;
+
+  /**
+   * Creates a new HeadingHistory
+   * @param capacity the number of samples to keep
+   */
+  public HeadingHistory(int capacity) {
+    m_timestamps = new double[capacity];
+    m_headings = new double[capacity];
+  }
+
+  /**
+   * Adds a sample. Samples must be added in time order.
+   * @param timestamp the time of the sample in seconds
+   * @param heading the heading in degrees
+   */
+  public synchronized void record(double timestamp, double heading) {
+    m_timestamps[m_next] = timestamp;
+    m_headings[m_next] = heading;
+    m_next = (m_next + 1) % m_timestamps.length;
+    if (m_count < m_timestamps.length) {
+      m_count++;
+    }
+  }
+
+  /**
+   * Removes all samples
+   */
+  public synchronized void clear() {
+    m_next = 0;
+    m_count = 0;
+  }
+
+  /**
+   * Get the heading at a point in time, interpolating between the samples on either side.
+   * Times before the oldest sample or after the newest get the oldest or newest heading.
+   * @param timestamp the time in seconds
+   * @return the heading in degrees (0 if there are no samples)
+   */
+  public synchronized double getHeadingAt(double timestamp) {
+    if (m_count == 0) {
+      return 0;
+    }
+
+    final int capacity = m_timestamps.length;
+    final int newest = (m_next - 1 + capacity) % capacity;
+    if (timestamp >= m_timestamps[newest]) {
+      return m_headings[newest];
+    }
+
+    // Walk back from the newest sample; we're usually looking for something recent
+    int later = newest;
+    for (int i = 1; i < m_count; i++) {
+      final int earlier = (newest - i + capacity) % capacity;
+      if (m_timestamps[earlier] <= timestamp) {
+        final double span = m_timestamps[later] - m_timestamps[earlier];
+        final double fraction = (span > 0) ? (timestamp - m_timestamps[earlier]) / span : 0;
+        return m_headings[earlier] + fraction * (m_headings[later] - m_headings[earlier]);
+      }
+      later = earlier;
+    }
+
+    return m_headings[later];
+  }
+}
@@ -0,0 +1,122 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2019 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+package frc.robot.util;
+
+import java.util.function.BooleanSupplier;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Shapes a joystick axis for the operator: deadband, expo curve, precision mode and a slew rate
+ * limit, applied in that order. Stages are added with the with...() methods and are all
+ * optional, e.g.
+ * <pre>
+ *   new InputShaper().withDeadband(0.05).withExpo(0.6).withSlewRate(3.0).shape(() -> stick.getY())
+ * </pre>
+ *
+ * <p>All the state is primitive fields, so shaping a value allocates nothing. One shaper keeps
+ * the slew rate state of one axis, so each axis needs its own, and it expects to be called once
+ * per scheduler run.
+ */
+public class InputShaper {
+  private static final double kPeriod = 0.02;   // seconds, the scheduler period
+
+  private double m_deadband = 0.0;
+  private double m_expo = 0.0;
+  private double m_precisionScale = 1.0;
+  private BooleanSupplier m_precision = null;
+  private double m_maxStep = Double.POSITIVE_INFINITY;
+
+  private double m_last = 0.0;
+
+  /**
+   * Zero the axis inside a deadband, and rescale the rest so the output still starts at 0
+   * @param deadband the size of the deadband, from 0 to 1
+   */
+  public InputShaper withDeadband(double deadband) {
+    m_deadband = deadband;
+    return this;
+  }
+
+  /**
+   * Blend in a cubic curve, for finer control near the center of the stick
+   * @param expo 0 for linear, 1 for fully cubic
+   */
+  public InputShaper withExpo(double expo) {
+    m_expo = expo;
+    return this;
+  }
+
+  /**
+   * Scale the axis down while a button is held
+   * @param scale the scale in precision mode (e.g. 0.4)
+   * @param precision whether precision mode is on
+   */
+  public InputShaper withPrecision(double scale, BooleanSupplier precision) {
+    m_precisionScale = scale;
+    m_precision = precision;
+    return this;
+  }
+
+  /**
+   * Limit how quickly the output can move away from zero. Moving towards zero isn't limited,
+   * so letting go of the stick always stops right away.
+   * @param ratePerSecond the most the output can change in a second (e.g. 3 is 0 to full in 1/3 s)
+   */
+  public InputShaper withSlewRate(double ratePerSecond) {
+    m_maxStep = ratePerSecond * kPeriod;
+    return this;
+  }
+
+  /**
+   * @return a supplier of the shaped value of an axis (create it once, not every run)
+   */
+  public DoubleSupplier shape(DoubleSupplier axis) {
+    return () -> calculate(axis.getAsDouble());
+  }
+
+  /**
+   * Shapes the next value of the axis
+   * @param value the raw axis value, from -1 to 1
+   * @return the shaped value, from -1 to 1
+   */
+  public double calculate(double value) {
+    value = Math.max(-1.0, Math.min(1.0, value));
+
+    // Deadband
+    final double magnitude = Math.abs(value);
+    if (magnitude <= m_deadband) {
+      value = 0.0;
+    }
+    else {
+      value = Math.copySign((magnitude - m_deadband) / (1.0 - m_deadband), value);
+    }
+
+    // Expo
+    value = (1.0 - m_expo) * value + m_expo * value * value * value;
+
+    // Precision mode
+    if (m_precision != null && m_precision.getAsBoolean()) {
+      value *= m_precisionScale;
+    }
+
+    // Slew rate, only away from zero (reversing drops straight to zero, then is limited)
+    final double from = (value * m_last < 0) ? 0.0 : m_last;
+    if (Math.abs(value) > Math.abs(from)) {
+      value = Math.max(from - m_maxStep, Math.min(from + m_maxStep, value));
+    }
+    m_last = value;
+    return value;
+  }
+
+  /**
+   * Forgets the last output, so the slew rate limit starts from zero again
+   */
+  public void reset() {
+    m_last = 0.0;
+  }
+}
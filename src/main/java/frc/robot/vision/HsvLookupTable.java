@@ -0,0 +1,152 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2019 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+package frc.robot.vision;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * Segments a BGR image by HSV range in a single pass, using a precomputed table that maps
+ * a quantized BGR color straight to in-range (255) or out-of-range (0).
+ * 
+ * <p>Colors are quantized to {@link #kBits} bits per channel and classified by the HSV of the
+ * center of their bin (using the same conversion as OpenCV's 8-bit COLOR_BGR2HSV), so pixels
+ * right on the edge of a threshold can land on the other side of it compared to cvtColor + inRange.
+ */
+public class HsvLookupTable {
+  public static final int kBits = 6;
+
+  private static final int kShift = 8 - kBits;
+  private static final int kLevels = 1 << kBits;
+
+  // OpenCV's reciprocal tables for the saturation and hue divisions, in 12-bit fixed point
+  private static final int kHsvShift = 12;
+  private static final int kRoundHalf = 1 << (kHsvShift - 1);
+  private static final int[] kSatDiv = divisionTable(255, 1);
+  private static final int[] kHueDiv = divisionTable(180, 6);
+
+  private final byte[] m_table = new byte[kLevels * kLevels * kLevels];
+
+  // The thresholds the table was built for
+  private final double[] m_hue = new double[2];
+  private final double[] m_sat = new double[2];
+  private final double[] m_val = new double[2];
+  private boolean m_built = false;
+
+  // Pixel buffers, grown when a larger image comes along
+  private byte[] m_bgrBuffer = new byte[0];
+  private byte[] m_maskBuffer = new byte[0];
+
+  /**
+   * Rebuilds the table if the thresholds have changed since it was last built
+   * @param hue The min and max hue
+   * @param sat The min and max saturation
+   * @param val The min and max value
+   * @return true if the table was rebuilt
+   */
+  public boolean update(double[] hue, double[] sat, double[] val) {
+    if (m_built && sameRange(m_hue, hue) && sameRange(m_sat, sat) && sameRange(m_val, val)) {
+      return false;
+    }
+
+    copyRange(hue, m_hue);
+    copyRange(sat, m_sat);
+    copyRange(val, m_val);
+
+    final int halfBin = (1 << kShift) >> 1;
+    for (int b = 0; b < kLevels; b++) {
+      for (int g = 0; g < kLevels; g++) {
+        for (int r = 0; r < kLevels; r++) {
+          boolean inRange = isInRange((b << kShift) + halfBin, (g << kShift) + halfBin, (r << kShift) + halfBin);
+          m_table[index(b, g, r)] = inRange ? (byte)255 : 0;
+        }
+      }
+    }
+
+    m_built = true;
+    return true;
+  }
+
+  /**
+   * Segments an image using the table
+   * @param input The 8-bit BGR image to segment
+   * @param output The image in which to store the 8-bit, single channel mask
+   */
+  public void apply(Mat input, Mat output) {
+    final int pixels = input.rows() * input.cols();
+    output.create(input.rows(), input.cols(), CvType.CV_8UC1);
+
+    if (m_maskBuffer.length < pixels) {
+      m_bgrBuffer = new byte[pixels * 3];
+      m_maskBuffer = new byte[pixels];
+    }
+
+    // One copy in and one copy out (get() copies a submat row by row for us)
+    input.get(0, 0, m_bgrBuffer);
+
+    final byte[] bgr = m_bgrBuffer;
+    final byte[] mask = m_maskBuffer;
+    final byte[] table = m_table;
+    for (int i = 0, j = 0; i < pixels; i++, j += 3) {
+      mask[i] = table[index((bgr[j] & 0xFF) >> kShift, (bgr[j + 1] & 0xFF) >> kShift, (bgr[j + 2] & 0xFF) >> kShift)];
+    }
+
+    output.put(0, 0, mask, 0, pixels);
+  }
+
+  private static int index(int b, int g, int r) {
+    return (b << (2 * kBits)) | (g << kBits) | r;
+  }
+
+  /**
+   * Converts a BGR color to 8-bit HSV the same way as OpenCV and checks it against the thresholds
+   */
+  private boolean isInRange(int b, int g, int r) {
+    final int v = Math.max(b, Math.max(g, r));
+    final int diff = v - Math.min(b, Math.min(g, r));
+
+    // OpenCV's fixed-point math, which rounds a little differently to doing it in doubles
+    final int s = (diff * kSatDiv[v] + kRoundHalf) >> kHsvShift;
+
+    int h;
+    if (v == r) {
+      h = g - b;
+    }
+    else if (v == g) {
+      h = b - r + 2 * diff;
+    }
+    else {
+      h = r - g + 4 * diff;
+    }
+    h = (h * kHueDiv[diff] + kRoundHalf) >> kHsvShift;
+    if (h < 0) {
+      h += 180;
+    }
+
+    return h >= m_hue[0] && h <= m_hue[1]
+        && s >= m_sat[0] && s <= m_sat[1]
+        && v >= m_val[0] && v <= m_val[1];
+  }
+
+  private static int[] divisionTable(int numerator, int scale) {
+    int[] table = new int[256];
+    for (int i = 1; i < table.length; i++) {
+      table[i] = (int)Math.rint((double)(numerator << kHsvShift) / (scale * i));
+    }
+    return table;
+  }
+
+  private static boolean sameRange(double[] current, double[] range) {
+    return current[0] == range[0] && current[1] == range[1];
+  }
+
+  private static void copyRange(double[] from, double[] to) {
+    to[0] = from[0];
+    to[1] = from[1];
+  }
+}
@@ -0,0 +1,234 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2019 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+package frc.robot.vision;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+import org.opencv.core.Mat;
+
+import edu.wpi.cscore.CvSink;
+import edu.wpi.cscore.VideoSource;
+import edu.wpi.first.wpilibj.DriverStation;
+
+/**
+ * Runs a {@link StagedVisionPipeline} with each stage on its own thread, so frame N+1 can be
+ * segmented while frame N is being located.
+ * 
+ * <p>Frames move through a fixed ring of slots, each holding a reusable camera frame and
+ * segmented image. The camera is grabbed straight into a free slot. When no slot is free the
+ * frame is dropped rather than queued, so results never fall further behind the camera.
+ * Each stage works through its slots in order, so results come out in the order the frames
+ * were grabbed.
+ */
+public class PipelinedVisionRunner<P extends StagedVisionPipeline> {
+  /**
+   * Listener that is told when the pipeline has finished with a frame.
+   * Called on the runner's locate thread; the pipeline outputs are only valid during the call.
+   */
+  @FunctionalInterface
+  public interface Listener<P> {
+    /**
+     * @param sequence the sequence number of the frame (counts every grabbed frame, including dropped ones)
+     * @param frameTime the time the frame was grabbed, in microseconds (0 if not known)
+     * @param pipeline the pipeline that processed the frame
+     */
+    void copyPipelineOutputs(long sequence, long frameTime, P pipeline);
+  }
+
+  private static final int kDefaultRingSize = 3;
+
+  // A frame and everything the stages need to work on it
+  private static class Slot {
+    final Mat frame = new Mat();
+    final Mat segmented = new Mat();
+    final StagedVisionPipeline.FrameInfo info;
+    long sequence;
+    long frameTime;
+
+    Slot(int stageCount) {
+      info = new StagedVisionPipeline.FrameInfo(stageCount);
+    }
+  }
+
+  private final CvSink m_cvSink = new CvSink("PipelinedVisionRunner CvSink");
+  private final P m_pipeline;
+  private final Listener<? super P> m_listener;
+
+  // Slots are always in exactly one of these queues (or held by the thread working on them)
+  private final ArrayBlockingQueue<Slot> m_freeSlots;
+  private final ArrayBlockingQueue<Slot> m_toSegment;
+  private final ArrayBlockingQueue<Slot> m_toLocate;
+
+  // Frames that arrive while every slot is busy are grabbed here and thrown away
+  private final Mat m_droppedFrame = new Mat();
+
+  private long m_nextSequence = 0;
+  private boolean m_grabFailing = false;   // grab thread only
+  private volatile long m_droppedFrameCount = 0;
+  private volatile long m_processedFrameCount = 0;
+
+  private volatile boolean m_running = false;
+  private Thread[] m_threads;
+
+  /**
+   * Creates a new pipelined runner using the default ring size.
+   * @param videoSource the video source to use to supply images for the pipeline
+   * @param pipeline the vision pipeline to run
+   * @param listener a function to call after the pipeline has finished with each frame
+   */
+  public PipelinedVisionRunner(VideoSource videoSource, P pipeline, Listener<? super P> listener) {
+    this(videoSource, pipeline, kDefaultRingSize, listener);
+  }
+
+  /**
+   * Creates a new pipelined runner.
+   * @param videoSource the video source to use to supply images for the pipeline
+   * @param pipeline the vision pipeline to run
+   * @param ringSize the number of frames that can be in the pipeline at once (at least 2)
+   * @param listener a function to call after the pipeline has finished with each frame
+   */
+  public PipelinedVisionRunner(VideoSource videoSource, P pipeline, int ringSize, Listener<? super P> listener) {
+    if (ringSize < 2) {
+      throw new IllegalArgumentException("ringSize must be at least 2");
+    }
+
+    m_pipeline = pipeline;
+    m_listener = listener;
+    m_cvSink.setSource(videoSource);
+
+    m_freeSlots = new ArrayBlockingQueue<>(ringSize);
+    m_toSegment = new ArrayBlockingQueue<>(ringSize);
+    m_toLocate = new ArrayBlockingQueue<>(ringSize);
+    for (int i = 0; i < ringSize; i++) {
+      m_freeSlots.add(new Slot(pipeline.stageCount()));
+    }
+  }
+
+  /**
+   * Starts the grab, segment and locate threads
+   */
+  public synchronized void startAsync() {
+    if (m_running) {
+      return;
+    }
+    m_running = true;
+
+    m_threads = new Thread[] {
+      new Thread(this::grabLoop, "Vision Grab"),
+      new Thread(this::segmentLoop, "Vision Segment"),
+      new Thread(this::locateLoop, "Vision Locate")
+    };
+    for (Thread thread : m_threads) {
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  /**
+   * Stops the runner's threads and waits for them to finish. Frames in the ring are discarded.
+   */
+  public synchronized void stop() {
+    m_running = false;
+    if (m_threads == null) {
+      return;
+    }
+    for (Thread thread : m_threads) {
+      thread.interrupt();
+    }
+
+    // The grab thread can be waiting in grabFrame, and the stages finishing a frame, so wait for
+    // them to hand their slots back before taking the slots out of the queues
+    try {
+      for (Thread thread : m_threads) {
+        thread.join();
+      }
+    }
+    catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+    m_threads = null;
+
+    // Throw away the frames still waiting for a stage, so a restart begins with fresh ones
+    m_toSegment.drainTo(m_freeSlots);
+    m_toLocate.drainTo(m_freeSlots);
+  }
+
+  /**
+   * @return the number of frames dropped because the pipeline was behind
+   */
+  public long droppedFrameCount() {
+    return m_droppedFrameCount;
+  }
+
+  /**
+   * @return the number of frames that made it all the way through the pipeline
+   */
+  public long processedFrameCount() {
+    return m_processedFrameCount;
+  }
+
+  private void grabLoop() {
+    while (m_running && !Thread.interrupted()) {
+      Slot slot = m_freeSlots.poll();
+
+      if (slot == null) {
+        // Falling behind: keep the camera flowing but don't queue the frame
+        if (m_cvSink.grabFrame(m_droppedFrame) != 0) {
+          m_nextSequence++;
+          m_droppedFrameCount++;
+        }
+        continue;
+      }
+
+      long frameTime = m_cvSink.grabFrame(slot.frame);
+      if (frameTime == 0) {
+        // Only report when grabbing starts failing: with the camera unplugged, every grab times out
+        if (!m_grabFailing) {
+          DriverStation.reportError("Vision grab failed: " + m_cvSink.getError(), false);
+          m_grabFailing = true;
+        }
+        m_freeSlots.offer(slot);
+        continue;
+      }
+      m_grabFailing = false;
+
+      slot.sequence = m_nextSequence++;
+      slot.frameTime = frameTime;
+      m_toSegment.offer(slot);  // Can't be full, there's only ringSize slots
+    }
+  }
+
+  private void segmentLoop() {
+    try {
+      while (m_running) {
+        Slot slot = m_toSegment.take();
+        m_pipeline.segment(slot.frame, slot.segmented, slot.info);
+        m_toLocate.offer(slot);  // Can't be full, and doesn't lose the slot if we've been interrupted
+      }
+    }
+    catch (InterruptedException ex) {
+      // Stopped
+    }
+  }
+
+  private void locateLoop() {
+    try {
+      while (m_running) {
+        Slot slot = m_toLocate.take();
+        m_pipeline.locate(slot.segmented, slot.info);
+        m_listener.copyPipelineOutputs(slot.sequence, slot.frameTime, m_pipeline);
+        m_processedFrameCount++;
+        m_freeSlots.offer(slot);
+      }
+    }
+    catch (InterruptedException ex) {
+      // Stopped
+    }
+  }
+}
@@ -0,0 +1,165 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2019 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+package frc.robot.vision;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.core.*;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.imgproc.Moments;
+
+import edu.wpi.first.vision.VisionPipeline;
+
+/**
+ * Vision Pipeline for finding Power Cells (the yellow balls) in the intake camera for Infinite Recharge (2020)
+ */
+public class PowerCellPipeline implements VisionPipeline {
+  //Processing Constants
+  private static class VisionConstants {
+    private static final double ImageWidth = 320.0;
+    private static final double ImageHeight = 240.0;
+
+    private static final double[] HsvThresholdHue = {20.0, 35.0};
+    private static final double[] HsvThresholdSaturation = {100.0, 255.0};
+    private static final double[] HsvThresholdValue = {100.0, 255.0};
+
+    private static final double FilterContoursMinArea = 50.0;
+    private static final double[] FilterContoursRatio = {0.5, 3.0};  // wider allows for cells side by side
+  }
+
+  private volatile boolean m_suspendProcessing = false;
+
+  private final HsvLookupTable m_hsvLookupTable = new HsvLookupTable();
+
+  //Outputs
+  private Mat m_resizeImageOutput = new Mat();
+  private Mat m_hsvThresholdOutput = new Mat();
+  private ArrayList<MatOfPoint> m_findContoursOutput = new ArrayList<MatOfPoint>();
+  private ArrayList<MatOfPoint> m_filterContoursOutput = new ArrayList<MatOfPoint>();
+  private MatOfPoint m_largestCell = null;
+
+  private final Mat m_hierarchy = new Mat();
+
+  static {
+    System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+  }
+
+  /**
+   * This is the primary method that runs the entire pipeline and updates the outputs.
+   */
+  @Override public void process(Mat source0) {
+    m_findContoursOutput.clear();
+    m_filterContoursOutput.clear();
+    m_largestCell = null;
+
+    if (m_suspendProcessing) {
+      return;
+    }
+
+    // Step Resize_Image0:
+    Mat image = source0;
+    if (source0.cols() != (int)VisionConstants.ImageWidth || source0.rows() != (int)VisionConstants.ImageHeight) {
+      Imgproc.resize(source0, m_resizeImageOutput,
+        new Size(VisionConstants.ImageWidth, VisionConstants.ImageHeight), 0.0, 0.0, Imgproc.INTER_LINEAR);
+      image = m_resizeImageOutput;
+    }
+
+    // Step HSV_Threshold0:
+    m_hsvLookupTable.update(VisionConstants.HsvThresholdHue, VisionConstants.HsvThresholdSaturation,
+      VisionConstants.HsvThresholdValue);
+    m_hsvLookupTable.apply(image, m_hsvThresholdOutput);
+
+    // Step Find_Contours0:
+    // (only the outside of each cell, the seams can leave holes in the mask)
+    Imgproc.findContours(m_hsvThresholdOutput, m_findContoursOutput, m_hierarchy,
+      Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
+
+    // Step Filter_Contours0:
+    filterContours(m_findContoursOutput, VisionConstants.FilterContoursMinArea, VisionConstants.FilterContoursRatio,
+      m_filterContoursOutput);
+  }
+
+  /**
+   * Find the center of the provided contour
+   * @param contour The contour to find the center of
+   * @return The coordinates to the center of the contour
+   */
+  public Point findCenter(MatOfPoint contour) {
+    Moments m = Imgproc.moments(contour);
+    return new Point(m.m10 / m.m00, m.m01 / m.m00);
+  }
+
+  /**
+   * Find the offset between the center of the image and a point
+   * @param point the point that is offset from the center
+   * @return The difference in x & y from the center of the image to the specified point
+   */
+  public Point findOffset(Point point) {
+    return new Point(point.x - (VisionConstants.ImageWidth / 2), point.y - (VisionConstants.ImageHeight / 2));
+  }
+
+  /**
+   * Returns whether processing has been suspended
+   */
+  public boolean isProcessingSuspended() {
+    return m_suspendProcessing;
+  }
+
+  /**
+   * Set whether to suspend processing of the images
+   */
+  public void suspendProcessing(boolean setting) {
+    m_suspendProcessing = setting;
+  }
+
+  /**
+   * @return the biggest (so probably the closest) Power Cell, or null if none were found
+   */
+  public MatOfPoint largestCell() {
+    return m_largestCell;
+  }
+
+  /**
+   * This method is a generated getter for the output of a Filter_Contours.
+   * @return ArrayList<MatOfPoint> output from Filter_Contours.
+   */
+  public ArrayList<MatOfPoint> filterContoursOutput() {
+    return m_filterContoursOutput;
+  }
+
+  /**
+   * Filters out contours that are too small or the wrong shape to be Power Cells,
+   * and notes the largest one that's left.
+   * @param inputContours is the input list of contours
+   * @param minArea is the minimum area of a contour that will be kept
+   * @param ratio is the minimum and maximum ratio of width to height
+   * @param output is the the output list of contours
+   */
+  private void filterContours(List<MatOfPoint> inputContours, double minArea, double[] ratio,
+    List<MatOfPoint> output) {
+
+    double largestArea = 0;
+    for (int i = 0; i < inputContours.size(); i++) {
+      final MatOfPoint contour = inputContours.get(i);
+
+      final Rect bb = Imgproc.boundingRect(contour);
+      final double r = bb.width / (double)bb.height;
+      if (r < ratio[0] || r > ratio[1]) continue;
+
+      final double area = Imgproc.contourArea(contour);
+      if (area < minArea) continue;
+
+      output.add(contour);
+      if (area > largestArea) {
+        largestArea = area;
+        m_largestCell = contour;
+      }
+    }
+  }
+}
@@ -14,12 +14,17 @@ import org.opencv.core.*;
 import org.opencv.imgproc.Imgproc;
 import org.opencv.imgproc.Moments;
 
-import edu.wpi.first.vision.VisionPipeline;
-
 /**
  * Vision Pipeline for finding the upper Power Port target for Infinite Recharge (2020)
  */
-public class PowerPortPipeline implements VisionPipeline {
+public class PowerPortPipeline implements StagedVisionPipeline {
+  /**
+   * The timed steps of the pipeline
+   */
+  public enum Stage {
+    kResize, kThreshold, kPrefilter, kFindContours, kFilterContours
+  }
+
   //Processing Constants
   private static class VisionConstants {
     private static final double ImageWidth = 320.0;
@@ -36,16 +41,68 @@ public class PowerPortPipeline implements VisionPipeline {
 		private static final double[] FilterContoursSolidity = {0, 60.0};
 		private static final double FilterContoursMinVertices = 0.0;
 		private static final double FilterContoursMinRatio = 0.0;
+
+    // Padding around the last known target when searching a region of interest
+    private static final double RoiPaddingRatio = 0.5;  // fraction of the target's larger side
+    private static final int RoiMinPadding = 20;        // pixels
   }
   
-  private boolean m_suspendProcessing = true;
+  // Suspended until something needs the target (see CameraSubsystemGRIP.startProcessing())
+  private volatile boolean m_suspendProcessing = true;
+
+  // Hue, saturation & value ranges (replaced as a whole so the vision threads never see half an update)
+  private volatile double[][] m_hsvThresholds = {
+    VisionConstants.HsvThresholdHue.clone(), VisionConstants.HsvThresholdSaturation.clone(), VisionConstants.HsvThresholdValue.clone()
+  };
+
+  // Segment with a precomputed BGR lookup table instead of cvtColor + inRange
+  private boolean m_useLookupTable = true;
+  private final HsvLookupTable m_hsvLookupTable = new HsvLookupTable();
+
+  // Wipe blobs that are too small from the mask before finding contours
+  private boolean m_blobPrefilter = false;
+  private final RunLengthBlobExtractor m_blobExtractor = new RunLengthBlobExtractor();
+
+  // Picks the most likely target when more than one gets through the filters
+  private final TargetRanker m_targetRanker = new TargetRanker();
+
+  // Range, yaw & skew of the best target
+  private boolean m_solvePose = true;
+  private final PowerPortPoseSolver m_poseSolver = new PowerPortPoseSolver();
+  private boolean m_poseValid = false;
+
+  // Region of interest tracking. The tracked region is set by the locate stage and read by the
+  // segment stage, which can be on different threads, so it's only touched while holding m_roi.
+  private boolean m_roiTrackingEnabled = true;
+  private boolean m_roiValid = false;
+  private final Rect m_roi = new Rect();
+
+  // The region searched on the last frame (process() only; the pipelined runner keeps it in the
+  // frame's FrameInfo) and the counts of each kind of frame (written where the frame is located)
+  private final Rect m_searchRegion = new Rect();
+  private final Point m_roiOffset = new Point();
+  private final Point m_locateOffset = new Point();
+  private boolean m_lastFrameRoi = false;
+  private long m_roiFrameCount = 0;
+  private long m_fullFrameCount = 0;
+
+  // How long each stage took on the last frame (nanoseconds). With the pipelined runner, each
+  // frame's timings travel in its FrameInfo and are only copied here by the locate stage.
+  private final long[] m_stageNanos = new long[Stage.values().length];
 
   //Outputs
   private Mat m_resizeImageOutput = new Mat();  
+  private Mat m_processImage = m_resizeImageOutput;   // the resize output, or the source if it was already the right size
   private Mat m_hsvThresholdOutput = new Mat();
   private ArrayList<MatOfPoint> m_findContoursOutput = new ArrayList<MatOfPoint>();
 	private ArrayList<MatOfPoint> m_filterContoursOutput = new ArrayList<MatOfPoint>();
-  
+
+  // Reusable buffers for filtering (grown only when a larger contour comes along)
+  private final Mat m_hierarchy = new Mat();
+  private final MatOfInt m_hullIndices = new MatOfInt();
+  private int[] m_pointBuffer = new int[256];
+  private int[] m_hullBuffer = new int[128];
+
   static {
     System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
   }
@@ -54,32 +111,54 @@ public class PowerPortPipeline implements VisionPipeline {
    * This is the primary method that runs the entire pipeline and updates the outputs.
    */
   @Override public void process(Mat source0) {
-    // Step Resize_Image0:
-    Mat resizeImageInput = source0;
-    double resizeImageWidth = VisionConstants.ImageWidth;
-    double resizeImageHeight = VisionConstants.ImageHeight;
-    int resizeImageInterpolation = Imgproc.INTER_LINEAR;
-    resizeImage(resizeImageInput, resizeImageWidth, resizeImageHeight, resizeImageInterpolation, m_resizeImageOutput);
-
     if (m_suspendProcessing) {
-      // Don't waste cycles trying to locate the target if we don't need/expect one
-      m_hsvThresholdOutput = m_resizeImageOutput;
+      // Don't waste cycles (not even resizing) if we don't need/expect a target
+      // (the threshold output keeps its own Mat since ROI frames are thresholded from a submat)
       m_findContoursOutput.clear();
       m_filterContoursOutput.clear();
+      updateRegionOfInterest(null);
+      solvePose(null);
+      skipStages(m_stageNanos, Stage.kResize);
       return;
     }
 
+    long stageStart = System.nanoTime();
+
+    // Step Resize_Image0:
+    m_processImage = resizeIfNeeded(source0);
+    stageStart = endStage(m_stageNanos, Stage.kResize, stageStart);
+
+    // Step Region_Of_Interest0:
+    // Once we have a target, only search the area around where it was last seen
+    boolean roiFrame = chooseSearchRegion(m_processImage, m_searchRegion);
+    Mat searchImage = roiFrame ? m_processImage.submat(m_searchRegion) : m_processImage;
+    m_roiOffset.x = m_searchRegion.x;
+    m_roiOffset.y = m_searchRegion.y;
+    countSearch(roiFrame);
+
     // Step HSV_Threshold0:
-    Mat hsvThresholdInput = m_resizeImageOutput;
-    double[] hsvThresholdHue = VisionConstants.HsvThresholdHue;
-    double[] hsvThresholdSaturation = VisionConstants.HsvThresholdSaturation;
-    double[] hsvThresholdValue = VisionConstants.HsvThresholdValue;
+    Mat hsvThresholdInput = searchImage;
+    double[][] hsvThresholds = m_hsvThresholds;
+    double[] hsvThresholdHue = hsvThresholds[0];
+    double[] hsvThresholdSaturation = hsvThresholds[1];
+    double[] hsvThresholdValue = hsvThresholds[2];
     hsvThreshold(hsvThresholdInput, hsvThresholdHue, hsvThresholdSaturation, hsvThresholdValue, m_hsvThresholdOutput);
 
+    if (roiFrame) {
+      // Only releases the submat header, not the resized image
+      searchImage.release();
+    }
+    stageStart = endStage(m_stageNanos, Stage.kThreshold, stageStart);
+
+    // Step Blob_Prefilter0:
+    prefilter(m_hsvThresholdOutput);
+    stageStart = endStage(m_stageNanos, Stage.kPrefilter, stageStart);
+
 		// Step Find_Contours0:
 		Mat findContoursInput = m_hsvThresholdOutput;
 		boolean findContoursExternalOnly = false;
-    findContours(findContoursInput, findContoursExternalOnly, m_findContoursOutput); 
+    findContours(findContoursInput, findContoursExternalOnly, m_roiOffset, m_findContoursOutput); 
+    stageStart = endStage(m_stageNanos, Stage.kFindContours, stageStart);
     
     		// Step Filter_Contours0:
 		ArrayList<MatOfPoint> filterContoursInput = m_findContoursOutput;
@@ -94,6 +173,79 @@ public class PowerPortPipeline implements VisionPipeline {
       filterContoursMinArea, filterContoursMinPerimeter, filterContoursMinWidth, filterContoursMinHeight, 
       filterContoursSolidity, filterContoursMinVertices, filterContoursMinRatio, 
       m_filterContoursOutput);
+    endStage(m_stageNanos, Stage.kFilterContours, stageStart);
+
+    MatOfPoint target = bestTarget();
+    updateRegionOfInterest(target);
+    solvePose(target);
+  }
+
+  /**
+   * First stage when run by a {@link PipelinedVisionRunner}: resize and threshold.
+   * Only the region of interest around the last target located is thresholded, as in process().
+   */
+  @Override public void segment(Mat source, Mat segmented, FrameInfo frame) {
+    if (m_suspendProcessing) {
+      segmented.release();
+      skipStages(frame.stageNanos, Stage.kResize);
+      return;
+    }
+
+    long stageStart = System.nanoTime();
+    Mat image = resizeIfNeeded(source);
+    stageStart = endStage(frame.stageNanos, Stage.kResize, stageStart);
+
+    boolean roiFrame = chooseSearchRegion(image, frame.region);
+    Mat searchImage = roiFrame ? image.submat(frame.region) : image;
+    double[][] hsvThresholds = m_hsvThresholds;
+    hsvThreshold(searchImage, hsvThresholds[0], hsvThresholds[1], hsvThresholds[2], segmented);
+    if (roiFrame) {
+      searchImage.release();
+    }
+    endStage(frame.stageNanos, Stage.kThreshold, stageStart);
+  }
+
+  /**
+   * Second stage when run by a {@link PipelinedVisionRunner}: find and filter the contours.
+   * Afterwards stageNanos() gives this frame's timings, segment stages included.
+   */
+  @Override public void locate(Mat segmented, FrameInfo frame) {
+    if (segmented.empty()) {
+      m_findContoursOutput.clear();
+      m_filterContoursOutput.clear();
+      updateRegionOfInterest(null);
+      solvePose(null);
+      skipStages(frame.stageNanos, Stage.kPrefilter);
+      System.arraycopy(frame.stageNanos, 0, m_stageNanos, 0, m_stageNanos.length);
+      return;
+    }
+
+    // Contours come out in full frame coordinates, wherever the segmented region was
+    countSearch(segmented.cols() < (int)VisionConstants.ImageWidth || segmented.rows() < (int)VisionConstants.ImageHeight);
+    m_locateOffset.x = frame.region.x;
+    m_locateOffset.y = frame.region.y;
+
+    long stageStart = System.nanoTime();
+    prefilter(segmented);
+    stageStart = endStage(frame.stageNanos, Stage.kPrefilter, stageStart);
+    findContours(segmented, false, m_locateOffset, m_findContoursOutput);
+    stageStart = endStage(frame.stageNanos, Stage.kFindContours, stageStart);
+    filterContours(m_findContoursOutput, 
+      VisionConstants.FilterContoursMinArea, VisionConstants.FilterContoursMinPerimeter, 
+      VisionConstants.FilterContoursMinWidth, VisionConstants.FilterContoursMinHeight, 
+      VisionConstants.FilterContoursSolidity, VisionConstants.FilterContoursMinVertices, 
+      VisionConstants.FilterContoursMinRatio, 
+      m_filterContoursOutput);
+    endStage(frame.stageNanos, Stage.kFilterContours, stageStart);
+
+    MatOfPoint target = bestTarget();
+    updateRegionOfInterest(target);
+    solvePose(target);
+    System.arraycopy(frame.stageNanos, 0, m_stageNanos, 0, m_stageNanos.length);
+  }
+
+  @Override public int stageCount() {
+    return m_stageNanos.length;
   }
 
   /**
@@ -143,18 +295,158 @@ public class PowerPortPipeline implements VisionPipeline {
   }
 
   /**
-   * Set whether to suspend processing of the images (other than resizing)
+   * Set whether to suspend processing of the images (including resizing)
    */
   public void suspendProcessing(boolean setting) {
     m_suspendProcessing = setting;
   }
   
+  /**
+   * Get how long a stage of the pipeline took on the last frame
+   * (with the pipelined runner, the last frame located; only call this from the locate thread)
+   * @param stage the stage
+   * @return the time in nanoseconds (0 if the stage was skipped)
+   */
+  public long stageNanos(Stage stage) {
+    return m_stageNanos[stage.ordinal()];
+  }
+
+  /**
+   * This method is a generated getter for the output of a Find_Contours.
+   * @return ArrayList<MatOfPoint> output from Find_Contours.
+   */
+  public ArrayList<MatOfPoint> findContoursOutput() {
+    return m_findContoursOutput;
+  }
+
+  /**
+   * Get the most likely target of those that got through the filters
+   * @return the best target from filterContoursOutput(), or null if there isn't one
+   */
+  public MatOfPoint bestTarget() {
+    int best = m_targetRanker.getBest();
+    return (best >= 0 && best < m_filterContoursOutput.size()) ? m_filterContoursOutput.get(best) : null;
+  }
+
+  /**
+   * @return how sure we are that bestTarget() is the Power Port, from 0 to 1
+   */
+  public double bestTargetConfidence() {
+    return (bestTarget() != null) ? m_targetRanker.getConfidence() : 0;
+  }
+
+  /**
+   * Set whether to solve for the range, yaw and skew of the best target on each frame
+   */
+  public void setPoseSolving(boolean enabled) {
+    m_solvePose = enabled;
+    m_poseValid = false;
+  }
+
+  /**
+   * @return whether the last frame found a target and solved its pose
+   */
+  public boolean hasTargetPose() {
+    return m_poseValid;
+  }
+
+  /**
+   * @return the horizontal distance from the camera to the target, in inches
+   */
+  public double targetRangeInches() {
+    return m_poseSolver.getRangeInches();
+  }
+
+  /**
+   * @return the horizontal angle from the camera's axis to the target, in degrees (positive is right)
+   */
+  public double targetYawDegrees() {
+    return m_poseSolver.getYawDegrees();
+  }
+
+  /**
+   * @return how far the target is turned away from facing the camera, in degrees
+   */
+  public double targetSkewDegrees() {
+    return m_poseSolver.getSkewDegrees();
+  }
+
+  /**
+   * Set the color ranges to segment by (e.g. from HsvCalibrationTool), in place of the tuned defaults
+   * @param hue The min and max hue
+   * @param sat The min and max saturation
+   * @param val The min and max value
+   */
+  public void setHsvThresholds(double[] hue, double[] sat, double[] val) {
+    m_hsvThresholds = new double[][] {hue.clone(), sat.clone(), val.clone()};
+  }
+
+  /**
+   * Set whether to segment with the HSV lookup table (true) or with cvtColor + inRange (false)
+   */
+  public void setLookupTableThreshold(boolean enabled) {
+    m_useLookupTable = enabled;
+  }
+
+  /**
+   * Set whether to wipe blobs that are too narrow or short for the filters from the mask before
+   * finding contours. Only the width and height checks are applied to blobs, since every contour
+   * inside a blob fails those too, so the targets are the same but findContours doesn't have to
+   * trace every speck. (The area and ratio checks stay with the contours: a ring's hole can pass
+   * them when the ring's blob wouldn't.)
+   */
+  public void setBlobPrefilter(boolean enabled) {
+    m_blobPrefilter = enabled;
+  }
+
+  /**
+   * @return the number of blobs in the mask before the prefilter on the last frame (0 if it's off)
+   */
+  public int prefilterBlobCount() {
+    return m_blobPrefilter ? m_blobExtractor.getBlobCount() : 0;
+  }
+
+  /**
+   * Set whether to search only around the last known target once it has been found
+   */
+  public void setRegionOfInterestTracking(boolean enabled) {
+    synchronized (m_roi) {
+      m_roiTrackingEnabled = enabled;
+      m_roiValid = false;
+    }
+  }
+
+  /**
+   * Returns whether the last processed frame only searched the region of interest
+   * (false when the whole frame was searched)
+   */
+  public boolean isRegionOfInterestFrame() {
+    return m_lastFrameRoi;
+  }
+
+  /**
+   * @return the number of frames that only searched the region of interest
+   */
+  public long roiFrameCount() {
+    return m_roiFrameCount;
+  }
+
+  /**
+   * @return the number of frames that searched the whole image
+   */
+  public long fullFrameCount() {
+    return m_fullFrameCount;
+  }
+
   /**
    * This method is a generated getter for the output of a Resize_Image.
+   * When the source frame was already the right size this is the source frame itself, which
+   * belongs to the caller (with PipelinedVisionRunner, one of its ring Mats) and is overwritten
+   * when the caller reuses it: only use it on the thread that called process(), and copy it to keep it.
    * @return Mat output from Resize_Image.
    */
   public Mat resizeImageOutput() {
-    return m_resizeImageOutput;
+    return m_processImage;
   }
 
   /**
@@ -166,6 +458,43 @@ public class PowerPortPipeline implements VisionPipeline {
 	}
   
 
+  /**
+   * Records the time a stage took
+   * @param stageNanos the frame's stage timings
+   * @param stage the stage that just finished
+   * @param stageStart the System.nanoTime() when the stage started
+   * @return the time the stage ended (the start of the next stage)
+   */
+  private static long endStage(long[] stageNanos, Stage stage, long stageStart) {
+    long now = System.nanoTime();
+    stageNanos[stage.ordinal()] = now - stageStart;
+    return now;
+  }
+
+  /**
+   * Records that a stage, and all stages after it, did not run
+   * @param stageNanos the frame's stage timings
+   */
+  private static void skipStages(long[] stageNanos, Stage firstSkipped) {
+    for (int i = firstSkipped.ordinal(); i < stageNanos.length; i++) {
+      stageNanos[i] = 0;
+    }
+  }
+
+  /**
+   * Scales an image to the processing size, unless it's already that size
+   * @param source the camera frame
+   * @return the image to process (the source itself, or the resize output)
+   */
+  private Mat resizeIfNeeded(Mat source) {
+    if (source.cols() == (int)VisionConstants.ImageWidth && source.rows() == (int)VisionConstants.ImageHeight) {
+      return source;
+    }
+
+    resizeImage(source, VisionConstants.ImageWidth, VisionConstants.ImageHeight, Imgproc.INTER_LINEAR, m_resizeImageOutput);
+    return m_resizeImageOutput;
+  }
+
   /**
    * Scales and image to an exact size.
    * @param input The image on which to perform the Resize.
@@ -188,20 +517,26 @@ public class PowerPortPipeline implements VisionPipeline {
 	 * @param output The image in which to store the output.
 	 */
 	private void hsvThreshold(Mat input, double[] hue, double[] sat, double[] val, Mat output) {
+    if (m_useLookupTable) {
+      // Only rebuilds the table when the thresholds change
+      m_hsvLookupTable.update(hue, sat, val);
+      m_hsvLookupTable.apply(input, output);
+      return;
+    }
+
     Imgproc.cvtColor(input, output, Imgproc.COLOR_BGR2HSV);
     Core.inRange(output, new Scalar(hue[0], sat[0], val[0]),
                          new Scalar(hue[1], sat[1], val[1]), output);
   }
 
   /**
-	 * Sets the values of pixels in a binary image to their distance to the nearest black pixel.
-	 * @param input The image on which to perform the Distance Transform.
-	 * @param type The Transform.
-	 * @param maskSize the size of the mask.
-	 * @param output The image in which to store the output.
+	 * Finds the contours in a binary image.
+	 * @param input The binary image to search.
+	 * @param externalOnly Whether to only find the outermost contours.
+	 * @param offset Added to every contour point (where the input sits in the full frame).
+	 * @param contours The list in which to store the contours.
 	 */
-	private void findContours(Mat input, boolean externalOnly, List<MatOfPoint> contours) {
-    Mat hierarchy = new Mat();
+	private void findContours(Mat input, boolean externalOnly, Point offset, List<MatOfPoint> contours) {
     contours.clear();
 
     int mode;
@@ -213,11 +548,110 @@ public class PowerPortPipeline implements VisionPipeline {
     }
 
     int method = Imgproc.CHAIN_APPROX_SIMPLE;
-    Imgproc.findContours(input, contours, hierarchy, mode, method);
+    Imgproc.findContours(input, contours, m_hierarchy, mode, method, offset);
+  }
+
+  /**
+   * Wipes the blobs that would fail the width and height checks in filterContours, if the prefilter is on
+   * @param mask the thresholded image, cleaned in place
+   */
+  private void prefilter(Mat mask) {
+    if (!m_blobPrefilter) {
+      return;
+    }
+
+    // (the area and ratio checks can't be applied to blobs: see RunLengthBlobExtractor)
+    m_blobExtractor.extract(mask);
+    m_blobExtractor.retain(VisionConstants.FilterContoursMinWidth, VisionConstants.FilterContoursMinHeight, mask);
+  }
+
+  /**
+   * Solves for the pose of the target, if pose solving is turned on
+   * @param target the target, or null if there isn't one
+   */
+  private void solvePose(MatOfPoint target) {
+    if (target == null || !m_solvePose) {
+      m_poseValid = false;
+      return;
+    }
+    m_poseValid = m_poseSolver.solve(target);
+  }
+
+  /**
+   * Picks the part of the image to search: the region of interest around the last target
+   * located, or the whole image if there isn't one
+   * @param image the resized camera frame
+   * @param region set to the part of the image to search
+   * @return true if it's only part of the image, false if it's the whole image
+   */
+  private boolean chooseSearchRegion(Mat image, Rect region) {
+    synchronized (m_roi) {
+      if (m_roiTrackingEnabled && m_roiValid) {
+        region.x = m_roi.x;
+        region.y = m_roi.y;
+        region.width = m_roi.width;
+        region.height = m_roi.height;
+        return region.width < image.cols() || region.height < image.rows();
+      }
+    }
+
+    region.x = 0;
+    region.y = 0;
+    region.width = image.cols();
+    region.height = image.rows();
+    return false;
+  }
+
+  /**
+   * Counts a frame that has been searched (on the thread that locates the frames)
+   * @param roiFrame whether only the region of interest was searched
+   */
+  private void countSearch(boolean roiFrame) {
+    m_lastFrameRoi = roiFrame;
+    if (roiFrame) {
+      m_roiFrameCount++;
+    }
+    else {
+      m_fullFrameCount++;
+    }
+  }
+
+  /**
+   * Centers the region of interest on the best target, or falls back to the full frame
+   * when the target has been lost.
+   * @param target the target to track (in full frame coordinates), or null if there isn't one
+   */
+  private void updateRegionOfInterest(MatOfPoint target) {
+    if (target == null) {
+      synchronized (m_roi) {
+        m_roiValid = false;
+      }
+      return;
+    }
+
+    final Rect bb = Imgproc.boundingRect(target);
+    final int padding = Math.max(VisionConstants.RoiMinPadding, 
+      (int)(VisionConstants.RoiPaddingRatio * Math.max(bb.width, bb.height)));
+
+    // Frames are always resized to the processing size before they're searched
+    final int left = Math.max(0, bb.x - padding);
+    final int top = Math.max(0, bb.y - padding);
+    final int right = Math.min((int)VisionConstants.ImageWidth, bb.x + bb.width + padding);
+    final int bottom = Math.min((int)VisionConstants.ImageHeight, bb.y + bb.height + padding);
+
+    synchronized (m_roi) {
+      m_roi.x = left;
+      m_roi.y = top;
+      m_roi.width = right - left;
+      m_roi.height = bottom - top;
+      m_roiValid = m_roi.width > 0 && m_roi.height > 0;
+    }
   }
 
 	/**
 	 * Filters out contours that do not meet certain criteria.
+	 * The checks run from cheapest to most expensive so that the specks and reflections
+	 * which make up most of a noisy frame are rejected before any hull is computed.
 	 * @param inputContours is the input list of contours
 	 * @param output is the the output list of contours
 	 * @param minArea is the minimum area of a contour that will be kept
@@ -233,46 +667,108 @@ public class PowerPortPipeline implements VisionPipeline {
     double[] solidity, double minVertexCount, double minRatio, 
     List<MatOfPoint> output) {
 
-    final MatOfInt hull = new MatOfInt();
     output.clear();
+    m_targetRanker.clear();
     
-		//operation
-		for (int i = 0; i < inputContours.size(); i++) {
+    for (int i = 0; i < inputContours.size(); i++) {
       final MatOfPoint contour = inputContours.get(i);
       
-      // Filter by Width & Height
-			final Rect bb = Imgproc.boundingRect(contour);
-			if (bb.width < minWidth) continue;
+      // Filter by number of vertices (no computation at all)
+      final int vertexCount = contour.rows();
+      if (vertexCount < minVertexCount) continue;
+
+      // Filter by Width, Height & ratio
+      final Rect bb = Imgproc.boundingRect(contour);
+      if (bb.width < minWidth) continue;
       if (bb.height < minHeight) continue;
+      final double ratio = bb.width / (double)bb.height;
+      if (ratio < minRatio) continue;
       
-      // Filter by Area & Perimeter
-			final double area = Imgproc.contourArea(contour);
-			if (area < minArea) continue;
-      if (Imgproc.arcLength(new MatOfPoint2f(contour.toArray()), true) < minPerimeter) continue;
+      // Filter by Area
+      final double area = Imgproc.contourArea(contour);
+      if (area < minArea) continue;
+
+      // Filter by Concavity
+      if (Imgproc.isContourConvex(contour)) continue;
+
+      // Everything past here works on the points in Java, so copy them over once
+      final int[] points = readPoints(contour, vertexCount);
+
+      // Filter by Perimeter
+      if (closedPerimeter(points, vertexCount) < minPerimeter) continue;
       
       // Filter by Solidity
-			Imgproc.convexHull(contour, hull);
-			MatOfPoint mopHull = new MatOfPoint();
-			mopHull.create((int) hull.size().height, 1, CvType.CV_32SC2);
-			for (int j = 0; j < hull.size().height; j++) {
-				int index = (int)hull.get(j, 0)[0];
-				double[] point = new double[] { contour.get(index, 0)[0], contour.get(index, 0)[1]};
-				mopHull.put(j, 0, point);
-			}
-			final double solid = 100 * area / Imgproc.contourArea(mopHull);
+      final double solid = 100 * area / hullArea(contour, points);
       if (solid < solidity[0] || solid > solidity[1]) continue;
-      
-      // Filter by number of vertices
-      if (contour.rows() < minVertexCount)	continue;
-      
-      // Filter by ratio
-			final double ratio = bb.width / (double)bb.height;
-      if (ratio < minRatio) continue;
-      
-      // Filter be Concavity
-      if (Imgproc.isContourConvex(contour)) continue;
 
-			output.add(contour);
+      output.add(contour);
+      m_targetRanker.add(area, bb.width, bb.height, solid, bb.x + bb.width / 2.0, bb.y + bb.height / 2.0);
+    }
+
+    m_targetRanker.rank();
+  }
+
+  /**
+   * Copies the points of a contour into the reusable point buffer with a single native call
+   * @param contour the contour to copy
+   * @param vertexCount the number of points in the contour
+   * @return the buffer holding the x,y pairs of the contour
+   */
+  private int[] readPoints(MatOfPoint contour, int vertexCount) {
+    if (m_pointBuffer.length < vertexCount * 2) {
+      m_pointBuffer = new int[vertexCount * 2];
+    }
+    contour.get(0, 0, m_pointBuffer);
+    return m_pointBuffer;
+  }
+
+  /**
+   * Calculates the perimeter of a closed contour (same result as Imgproc.arcLength)
+   * @param points the x,y pairs of the contour
+   * @param vertexCount the number of points in the contour
+   * @return the perimeter in pixels
+   */
+  private static double closedPerimeter(int[] points, int vertexCount) {
+    double perimeter = 0;
+    int lastX = points[2 * vertexCount - 2];
+    int lastY = points[2 * vertexCount - 1];
+
+    for (int i = 0; i < vertexCount; i++) {
+      final int x = points[2 * i];
+      final int y = points[2 * i + 1];
+      final double dx = x - lastX;
+      final double dy = y - lastY;
+      perimeter += Math.sqrt(dx * dx + dy * dy);
+      lastX = x;
+      lastY = y;
+    }
+    return perimeter;
+  }
+
+  /**
+   * Calculates the area of the convex hull of a contour without building a hull contour
+   * @param contour the contour
+   * @param points the x,y pairs of the contour (from readPoints)
+   * @return the area of the convex hull in pixels
+   */
+  private double hullArea(MatOfPoint contour, int[] points) {
+    Imgproc.convexHull(contour, m_hullIndices);
+
+    final int hullCount = m_hullIndices.rows();
+    if (m_hullBuffer.length < hullCount) {
+      m_hullBuffer = new int[hullCount];
+    }
+    m_hullIndices.get(0, 0, m_hullBuffer);
+
+    // Shoelace formula over the hull vertices
+    double twiceArea = 0;
+    int last = m_hullBuffer[hullCount - 1];
+    for (int j = 0; j < hullCount; j++) {
+      final int index = m_hullBuffer[j];
+      twiceArea += (double)points[2 * last] * points[2 * index + 1] 
+                 - (double)points[2 * index] * points[2 * last + 1];
+      last = index;
     }
+    return Math.abs(twiceArea) / 2.0;
   }
 }
@@ -0,0 +1,219 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2019 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+package frc.robot.vision;
+
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDouble;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.MatOfPoint3f;
+import org.opencv.core.Point3;
+
+/**
+ * Works out where the Power Port is relative to the camera (range, yaw and skew) from the
+ * outline of its vision target, using solvePnP.
+ * 
+ * <p>The target is the bottom half of a hexagon, so the four outer corners (the two top
+ * corners and the two bottom corners) are matched to the real target's dimensions.
+ * solvePnP gives the target's position in the camera's frame, which is tilted up by the camera's
+ * pitch, so it's rotated to be level before the range, yaw and skew are worked out.
+ * All matrices are allocated once and reused; the previous solution seeds the next solve.
+ */
+public class PowerPortPoseSolver {
+  // Camera intrinsics at 320x240 (pixels). Calibrate these for the shooter camera.
+  public static final double kFocalLengthX = 290.0;
+  public static final double kFocalLengthY = 290.0;
+  public static final double kPrincipalPointX = 160.0;
+  public static final double kPrincipalPointY = 120.0;
+
+  private static class PoseConstants {
+    // Target dimensions (inches), from the game manual
+    private static final double TargetTopWidth = 39.25;
+    private static final double TargetBottomWidth = 19.625;
+    private static final double TargetHeight = 17.0;
+
+    // Camera extrinsics: how far the shooter camera is tilted up from level (degrees) and the
+    // height of its lens above the floor (inches). Measure these on the robot.
+    private static final double CameraPitch = 25.0;
+    private static final double CameraHeight = 20.0;
+  }
+
+  private final double m_cameraHeight;
+  private final double m_cosPitch;
+  private final double m_sinPitch;
+
+  private final MatOfPoint3f m_objectPoints = new MatOfPoint3f();
+  private final MatOfPoint2f m_imagePoints = new MatOfPoint2f();
+  private final Mat m_cameraMatrix = new Mat(3, 3, CvType.CV_64FC1);
+  private final MatOfDouble m_distortion = new MatOfDouble(0, 0, 0, 0, 0);
+  private final Mat m_rvec = new Mat();
+  private final Mat m_tvec = new Mat();
+  private final Mat m_rotation = new Mat();
+
+  private final float[] m_corners = new float[8];
+  private final double[] m_translation = new double[3];
+  private final double[] m_rotationValues = new double[9];
+  private int[] m_pointBuffer = new int[256];
+  private boolean m_haveGuess = false;
+
+  // Outputs
+  private boolean m_valid = false;
+  private double m_range = 0;
+  private double m_yaw = 0;
+  private double m_skew = 0;
+  private double m_targetHeight = 0;
+
+  /**
+   * Creates a new PowerPortPoseSolver for the shooter camera
+   */
+  public PowerPortPoseSolver() {
+    this(PoseConstants.CameraPitch, PoseConstants.CameraHeight);
+  }
+
+  /**
+   * Creates a new PowerPortPoseSolver
+   * @param cameraPitchDegrees how far the camera is tilted up from level, in degrees
+   * @param cameraHeightInches the height of the camera's lens above the floor, in inches
+   */
+  public PowerPortPoseSolver(double cameraPitchDegrees, double cameraHeightInches) {
+    m_cameraHeight = cameraHeightInches;
+    m_cosPitch = Math.cos(Math.toRadians(cameraPitchDegrees));
+    m_sinPitch = Math.sin(Math.toRadians(cameraPitchDegrees));
+
+    // Target corners in the same order as findCorners(): top left, top right, bottom right, bottom left
+    // (x to the right, y down, centered on the target)
+    final double top = -PoseConstants.TargetHeight / 2;
+    final double bottom = PoseConstants.TargetHeight / 2;
+    m_objectPoints.fromArray(
+      new Point3(-PoseConstants.TargetTopWidth / 2, top, 0),
+      new Point3(PoseConstants.TargetTopWidth / 2, top, 0),
+      new Point3(PoseConstants.TargetBottomWidth / 2, bottom, 0),
+      new Point3(-PoseConstants.TargetBottomWidth / 2, bottom, 0));
+
+    m_cameraMatrix.put(0, 0, 
+      kFocalLengthX, 0, kPrincipalPointX,
+      0, kFocalLengthY, kPrincipalPointY,
+      0, 0, 1);
+
+    m_imagePoints.alloc(4);
+  }
+
+  /**
+   * Solves for the pose of the target
+   * @param contour the target's contour (in full frame, 320x240 pixel coordinates)
+   * @return whether a pose was found (the getters keep the last pose if not)
+   */
+  public boolean solve(MatOfPoint contour) {
+    final int vertexCount = contour.rows();
+    if (vertexCount < 4) {
+      m_valid = false;
+      return false;
+    }
+
+    findCorners(contour, vertexCount);
+    m_imagePoints.put(0, 0, m_corners);
+
+    m_valid = Calib3d.solvePnP(m_objectPoints, m_imagePoints, m_cameraMatrix, m_distortion, 
+      m_rvec, m_tvec, m_haveGuess, Calib3d.SOLVEPNP_ITERATIVE);
+    m_haveGuess = m_valid;
+    if (!m_valid) {
+      return false;
+    }
+
+    m_tvec.get(0, 0, m_translation);
+    Calib3d.Rodrigues(m_rvec, m_rotation);
+    m_rotation.get(0, 0, m_rotationValues);
+
+    // Level the camera's frame (x right, y down, z out of the lens) by undoing its pitch:
+    // right stays right, and y and z become forward along the floor and up
+    final double right = m_translation[0];
+    final double forward = m_translation[2] * m_cosPitch + m_translation[1] * m_sinPitch;
+    final double up = m_translation[2] * m_sinPitch - m_translation[1] * m_cosPitch;
+    m_range = Math.hypot(right, forward);
+    m_yaw = Math.toDegrees(Math.atan2(right, forward));
+    m_targetHeight = m_cameraHeight + up;
+
+    // Rotation of the target about the vertical (0 when it squarely faces the way the robot faces),
+    // from the direction of the target's normal (the rotation's third column) along the floor
+    final double normalRight = m_rotationValues[2];
+    final double normalForward = m_rotationValues[8] * m_cosPitch + m_rotationValues[5] * m_sinPitch;
+    m_skew = Math.toDegrees(Math.atan2(normalRight, normalForward));
+
+    return true;
+  }
+
+  /**
+   * @return whether the last solve found a pose
+   */
+  public boolean isValid() {
+    return m_valid;
+  }
+
+  /**
+   * @return the distance along the floor from the camera to the center of the target, in inches
+   */
+  public double getRangeInches() {
+    return m_range;
+  }
+
+  /**
+   * @return the horizontal angle from the camera's axis to the target, in degrees (positive is right)
+   */
+  public double getYawDegrees() {
+    return m_yaw;
+  }
+
+  /**
+   * @return how far the target is turned about the vertical away from facing the camera, in degrees
+   */
+  public double getSkewDegrees() {
+    return m_skew;
+  }
+
+  /**
+   * @return the height of the center of the target above the floor, in inches (a long way from
+   *         the real target's means a bad solve, or that the camera's pitch and height are off)
+   */
+  public double getTargetHeightInches() {
+    return m_targetHeight;
+  }
+
+  /**
+   * Finds the four outer corners of the target from the extremes of its outline
+   * (image y is down, so top left has the smallest x + y, bottom right the largest, etc.)
+   */
+  private void findCorners(MatOfPoint contour, int vertexCount) {
+    if (m_pointBuffer.length < vertexCount * 2) {
+      m_pointBuffer = new int[vertexCount * 2];
+    }
+    contour.get(0, 0, m_pointBuffer);
+
+    int topLeft = 0, topRight = 0, bottomRight = 0, bottomLeft = 0;
+    for (int i = 1; i < vertexCount; i++) {
+      final int sum = m_pointBuffer[2 * i] + m_pointBuffer[2 * i + 1];
+      final int diff = m_pointBuffer[2 * i] - m_pointBuffer[2 * i + 1];
+
+      if (sum < m_pointBuffer[2 * topLeft] + m_pointBuffer[2 * topLeft + 1]) topLeft = i;
+      if (sum > m_pointBuffer[2 * bottomRight] + m_pointBuffer[2 * bottomRight + 1]) bottomRight = i;
+      if (diff > m_pointBuffer[2 * topRight] - m_pointBuffer[2 * topRight + 1]) topRight = i;
+      if (diff < m_pointBuffer[2 * bottomLeft] - m_pointBuffer[2 * bottomLeft + 1]) bottomLeft = i;
+    }
+
+    setCorner(0, topLeft);
+    setCorner(1, topRight);
+    setCorner(2, bottomRight);
+    setCorner(3, bottomLeft);
+  }
+
+  private void setCorner(int corner, int point) {
+    m_corners[2 * corner] = m_pointBuffer[2 * point];
+    m_corners[2 * corner + 1] = m_pointBuffer[2 * point + 1];
+  }
+}
@@ -0,0 +1,324 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2019 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+package frc.robot.vision;
+
+import java.util.Arrays;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * Finds the 8-connected blobs of a binary mask in one scan, by splitting each row into runs
+ * of set pixels and joining touching runs with union-find.
+ *
+ * <p>Blobs use the same connectivity as findContours, so every contour of a blob (its outline and
+ * the outlines of its holes) fits inside the blob's bounding box. Wiping the blobs that are too
+ * narrow or too short before finding contours therefore leaves exactly the contours that would
+ * have passed a width and height check anyway. That doesn't hold for area or width to height
+ * ratio: a ring's hole can have a larger area than the ring has pixels, or be wider for its
+ * height than the ring, so those checks are left to the contours. Everything is kept in
+ * primitive arrays that are only grown, so once they are big enough nothing is allocated per
+ * frame or per blob.
+ */
+public class RunLengthBlobExtractor {
+  private static final int kInitialRuns = 1024;
+  private static final int kInitialBlobs = 256;
+
+  // The mask, copied out in one call
+  private byte[] m_pixels = new byte[0];
+  private int m_rows = 0;
+  private int m_cols = 0;
+
+  // Runs of set pixels in scan order (end is one past the last column)
+  private int m_runCount = 0;
+  private int[] m_runRow = new int[kInitialRuns];
+  private int[] m_runStart = new int[kInitialRuns];
+  private int[] m_runEnd = new int[kInitialRuns];
+  private int[] m_runParent = new int[kInitialRuns];
+  private int[] m_runBlob = new int[kInitialRuns];
+
+  // Per blob bounding box and raw moments
+  private int m_blobCount = 0;
+  private int[] m_left = new int[kInitialBlobs];
+  private int[] m_top = new int[kInitialBlobs];
+  private int[] m_right = new int[kInitialBlobs];
+  private int[] m_bottom = new int[kInitialBlobs];
+  private long[] m_m00 = new long[kInitialBlobs];
+  private double[] m_m10 = new double[kInitialBlobs];
+  private double[] m_m01 = new double[kInitialBlobs];
+  private double[] m_m20 = new double[kInitialBlobs];
+  private double[] m_m02 = new double[kInitialBlobs];
+  private double[] m_m11 = new double[kInitialBlobs];
+  private boolean[] m_keep = new boolean[kInitialBlobs];
+
+  /**
+   * Finds the blobs in a mask
+   * @param mask an 8-bit, single channel mask (any non-zero pixel is set)
+   * @return the number of blobs found
+   */
+  public int extract(Mat mask) {
+    m_rows = mask.rows();
+    m_cols = mask.cols();
+    final int pixels = m_rows * m_cols;
+    if (m_pixels.length < pixels) {
+      m_pixels = new byte[pixels];
+    }
+    mask.get(0, 0, m_pixels);
+
+    findRuns();
+    labelBlobs();
+    return m_blobCount;
+  }
+
+  /**
+   * Wipes the blobs that are too narrow or too short from the last extracted mask
+   * (no contour inside them could pass a width and height check)
+   * @param minWidth minimum bounding box width
+   * @param minHeight minimum bounding box height
+   * @param output the image in which to store the cleaned mask (may be the extracted mask)
+   * @return the number of blobs kept
+   */
+  public int retain(double minWidth, double minHeight, Mat output) {
+    int kept = 0;
+    for (int i = 0; i < m_blobCount; i++) {
+      m_keep[i] = getWidth(i) >= minWidth && getHeight(i) >= minHeight;
+      if (m_keep[i]) kept++;
+    }
+
+    final byte[] pixels = m_pixels;
+    for (int run = 0; run < m_runCount; run++) {
+      if (!m_keep[m_runBlob[run]]) {
+        final int base = m_runRow[run] * m_cols;
+        for (int col = m_runStart[run]; col < m_runEnd[run]; col++) {
+          pixels[base + col] = 0;
+        }
+      }
+    }
+
+    output.create(m_rows, m_cols, CvType.CV_8UC1);
+    output.put(0, 0, pixels, 0, m_rows * m_cols);
+    return kept;
+  }
+
+  /**
+   * @return the number of blobs found by the last extract()
+   */
+  public int getBlobCount() {
+    return m_blobCount;
+  }
+
+  /**
+   * @return the number of pixels in a blob
+   */
+  public long getArea(int blob) {
+    return m_m00[blob];
+  }
+
+  public int getLeft(int blob) {
+    return m_left[blob];
+  }
+
+  public int getTop(int blob) {
+    return m_top[blob];
+  }
+
+  public int getWidth(int blob) {
+    return m_right[blob] - m_left[blob] + 1;
+  }
+
+  public int getHeight(int blob) {
+    return m_bottom[blob] - m_top[blob] + 1;
+  }
+
+  public double getCentroidX(int blob) {
+    return m_m10[blob] / m_m00[blob];
+  }
+
+  public double getCentroidY(int blob) {
+    return m_m01[blob] / m_m00[blob];
+  }
+
+  /**
+   * @return the second central moment of a blob in x (like Moments.mu20, but over pixels)
+   */
+  public double getMu20(int blob) {
+    return m_m20[blob] - m_m10[blob] * getCentroidX(blob);
+  }
+
+  /**
+   * @return the second central moment of a blob in y (like Moments.mu02, but over pixels)
+   */
+  public double getMu02(int blob) {
+    return m_m02[blob] - m_m01[blob] * getCentroidY(blob);
+  }
+
+  /**
+   * @return the second central cross moment of a blob (like Moments.mu11, but over pixels)
+   */
+  public double getMu11(int blob) {
+    return m_m11[blob] - m_m10[blob] * getCentroidY(blob);
+  }
+
+  /**
+   * Splits each row into runs and joins each run to the runs it touches in the row above
+   */
+  private void findRuns() {
+    final byte[] pixels = m_pixels;
+    m_runCount = 0;
+
+    int aboveFirst = 0;
+    int aboveEnd = 0;
+    for (int row = 0; row < m_rows; row++) {
+      final int base = row * m_cols;
+      final int rowFirst = m_runCount;
+      int above = aboveFirst;
+
+      int col = 0;
+      while (col < m_cols) {
+        if (pixels[base + col] == 0) {
+          col++;
+          continue;
+        }
+
+        final int start = col;
+        while (col < m_cols && pixels[base + col] != 0) {
+          col++;
+        }
+        final int run = addRun(row, start, col);
+
+        // Touching includes diagonally, so the run above may end one column early or start one late
+        while (above < aboveEnd && m_runEnd[above] < start) {
+          above++;
+        }
+        for (int i = above; i < aboveEnd && m_runStart[i] <= col; i++) {
+          union(run, i);
+        }
+      }
+
+      aboveFirst = rowFirst;
+      aboveEnd = m_runCount;
+    }
+  }
+
+  private int addRun(int row, int start, int end) {
+    if (m_runCount == m_runRow.length) {
+      final int size = 2 * m_runCount;
+      m_runRow = Arrays.copyOf(m_runRow, size);
+      m_runStart = Arrays.copyOf(m_runStart, size);
+      m_runEnd = Arrays.copyOf(m_runEnd, size);
+      m_runParent = Arrays.copyOf(m_runParent, size);
+      m_runBlob = Arrays.copyOf(m_runBlob, size);
+    }
+
+    final int run = m_runCount++;
+    m_runRow[run] = row;
+    m_runStart[run] = start;
+    m_runEnd[run] = end;
+    m_runParent[run] = run;
+    return run;
+  }
+
+  /**
+   * Joins two sets of runs, keeping the earlier run as the root
+   */
+  private void union(int a, int b) {
+    final int rootA = find(a);
+    final int rootB = find(b);
+    if (rootA < rootB) {
+      m_runParent[rootB] = rootA;
+    }
+    else if (rootB < rootA) {
+      m_runParent[rootA] = rootB;
+    }
+  }
+
+  private int find(int run) {
+    while (m_runParent[run] != run) {
+      // Path halving
+      m_runParent[run] = m_runParent[m_runParent[run]];
+      run = m_runParent[run];
+    }
+    return run;
+  }
+
+  /**
+   * Numbers the blobs and adds up the bounding box and moments of each
+   */
+  private void labelBlobs() {
+    m_blobCount = 0;
+
+    for (int run = 0; run < m_runCount; run++) {
+      // A root is always the first run of its blob, so it has been numbered already
+      final int root = find(run);
+      final int blob;
+      if (root == run) {
+        blob = addBlob();
+      }
+      else {
+        blob = m_runBlob[root];
+      }
+      m_runBlob[run] = blob;
+
+      final int row = m_runRow[run];
+      final int first = m_runStart[run];
+      final int last = m_runEnd[run] - 1;
+      final long count = last - first + 1;
+      final double sumX = (first + last) * count / 2.0;
+      final double sumXX = sumOfSquares(last) - sumOfSquares(first - 1);
+
+      m_left[blob] = Math.min(m_left[blob], first);
+      m_right[blob] = Math.max(m_right[blob], last);
+      m_top[blob] = Math.min(m_top[blob], row);
+      m_bottom[blob] = Math.max(m_bottom[blob], row);
+
+      m_m00[blob] += count;
+      m_m10[blob] += sumX;
+      m_m01[blob] += (double)row * count;
+      m_m20[blob] += sumXX;
+      m_m02[blob] += (double)row * row * count;
+      m_m11[blob] += row * sumX;
+    }
+  }
+
+  private int addBlob() {
+    if (m_blobCount == m_m00.length) {
+      final int size = 2 * m_blobCount;
+      m_left = Arrays.copyOf(m_left, size);
+      m_top = Arrays.copyOf(m_top, size);
+      m_right = Arrays.copyOf(m_right, size);
+      m_bottom = Arrays.copyOf(m_bottom, size);
+      m_m00 = Arrays.copyOf(m_m00, size);
+      m_m10 = Arrays.copyOf(m_m10, size);
+      m_m01 = Arrays.copyOf(m_m01, size);
+      m_m20 = Arrays.copyOf(m_m20, size);
+      m_m02 = Arrays.copyOf(m_m02, size);
+      m_m11 = Arrays.copyOf(m_m11, size);
+      m_keep = Arrays.copyOf(m_keep, size);
+    }
+
+    final int blob = m_blobCount++;
+    m_left[blob] = Integer.MAX_VALUE;
+    m_top[blob] = Integer.MAX_VALUE;
+    m_right[blob] = Integer.MIN_VALUE;
+    m_bottom[blob] = Integer.MIN_VALUE;
+    m_m00[blob] = 0;
+    m_m10[blob] = 0;
+    m_m01[blob] = 0;
+    m_m20[blob] = 0;
+    m_m02[blob] = 0;
+    m_m11[blob] = 0;
+    return blob;
+  }
+
+  /**
+   * @return 0^2 + 1^2 + ... + n^2
+   */
+  private static double sumOfSquares(long n) {
+    return n * (n + 1) * (2 * n + 1) / 6.0;
+  }
+}
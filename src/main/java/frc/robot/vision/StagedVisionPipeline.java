@@ -0,0 +1,62 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2019 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+package frc.robot.vision;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+import edu.wpi.first.vision.VisionPipeline;
+
+/**
+ * A vision pipeline that can be split into two stages so consecutive frames can be worked on
+ * at the same time (see {@link PipelinedVisionRunner}).
+ * 
+ * <p>Each stage is only ever called from one thread, but the two stages are called from
+ * different threads. A stage may only share state with the other stage through its arguments,
+ * which travel with the frame.
+ */
+public interface StagedVisionPipeline extends VisionPipeline {
+  /**
+   * What is known about one frame as it goes through the stages. The runner keeps one for each
+   * frame in flight, so the stages of different frames never write over each other's.
+   */
+  final class FrameInfo {
+    /** How long each of the pipeline's timed stages took on this frame (nanoseconds, 0 if skipped) */
+    public final long[] stageNanos;
+
+    /** The part of the frame that was segmented, in full frame coordinates */
+    public final Rect region = new Rect();
+
+    /**
+     * @param stageCount the number of timed stages (see {@link StagedVisionPipeline#stageCount()})
+     */
+    public FrameInfo(int stageCount) {
+      stageNanos = new long[stageCount];
+    }
+  }
+
+  /**
+   * @return the number of timed stages the pipeline records in each frame's {@link FrameInfo}
+   */
+  int stageCount();
+
+  /**
+   * First stage: turns a camera frame into a segmented (binary) image
+   * @param source the camera frame
+   * @param segmented the image in which to store the output (left empty if there's nothing to find)
+   * @param frame the frame's info, for recording this stage's timings and the region it segmented
+   */
+  void segment(Mat source, Mat segmented, FrameInfo frame);
+
+  /**
+   * Second stage: locates the targets in a segmented image and updates the pipeline outputs
+   * @param segmented the output of {@link #segment(Mat, Mat, FrameInfo)}
+   * @param frame the info segment() recorded for the same frame
+   */
+  void locate(Mat segmented, FrameInfo frame);
+}
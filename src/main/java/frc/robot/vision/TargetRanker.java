@@ -0,0 +1,198 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2019 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+package frc.robot.vision;
+
+import java.util.Arrays;
+
+/**
+ * Picks the most likely Power Port target out of several candidates, instead of giving up
+ * whenever reflections produce more than one.
+ * 
+ * <p>Each candidate is scored on its area (relative to the biggest candidate), how close its
+ * aspect ratio and solidity are to the real target's, and how close it is to the target we
+ * were locked onto last frame. The lock is kept for a few frames with no candidates, so a
+ * single bad frame doesn't lose it.
+ */
+public class TargetRanker {
+  private static class RankingConstants {
+    // What the target looks like (39.25" x 17" outline of 2" tape)
+    private static final double ExpectedRatio = 39.25 / 17.0;
+    private static final double ExpectedSolidity = 30.0;  // percent
+
+    private static final double AreaWeight = 0.3;
+    private static final double RatioWeight = 0.25;
+    private static final double SolidityWeight = 0.2;
+    private static final double LockWeight = 0.25;
+
+    private static final double LockDistance = 40.0;      // pixels for the lock score to fall to ~37%
+    private static final double MinLockConfidence = 0.4;  // confidence needed to (re)lock
+    private static final int LockFrames = 5;              // frames a lock survives without a target
+  }
+
+  private static final int kInitialCapacity = 16;
+
+  // Candidates for the current frame
+  private double[] m_area = new double[kInitialCapacity];
+  private double[] m_ratio = new double[kInitialCapacity];
+  private double[] m_solidity = new double[kInitialCapacity];
+  private double[] m_centerX = new double[kInitialCapacity];
+  private double[] m_centerY = new double[kInitialCapacity];
+  private int m_count = 0;
+
+  // Result of the last rank()
+  private int m_best = -1;
+  private double m_confidence = 0;
+
+  // Where the target we're locked onto was last seen
+  private boolean m_locked = false;
+  private double m_lockX = 0;
+  private double m_lockY = 0;
+  private int m_framesWithoutLock = 0;
+
+  /**
+   * Removes all candidates, ready for the next frame
+   */
+  public void clear() {
+    m_count = 0;
+  }
+
+  /**
+   * Adds a candidate for the current frame
+   * @param area the area of the candidate in pixels
+   * @param width the width of its bounding box in pixels
+   * @param height the height of its bounding box in pixels
+   * @param solidity its solidity in percent (area / convex hull area * 100)
+   * @param centerX the x coordinate of its center in pixels
+   * @param centerY the y coordinate of its center in pixels
+   */
+  public void add(double area, double width, double height, double solidity, double centerX, double centerY) {
+    if (m_count == m_area.length) {
+      grow();
+    }
+
+    m_area[m_count] = area;
+    m_ratio[m_count] = (height > 0) ? width / height : 0;
+    m_solidity[m_count] = solidity;
+    m_centerX[m_count] = centerX;
+    m_centerY[m_count] = centerY;
+    m_count++;
+  }
+
+  /**
+   * Ranks the candidates and updates the lock
+   * @return the index (in the order added) of the best candidate, or -1 if there are none
+   */
+  public int rank() {
+    m_best = -1;
+    m_confidence = 0;
+
+    if (m_count == 0) {
+      if (m_locked && ++m_framesWithoutLock > RankingConstants.LockFrames) {
+        m_locked = false;
+      }
+      return -1;
+    }
+
+    double maxArea = 0;
+    for (int i = 0; i < m_count; i++) {
+      maxArea = Math.max(maxArea, m_area[i]);
+    }
+
+    double bestScore = -1;
+    double runnerUpScore = 0;
+    for (int i = 0; i < m_count; i++) {
+      double score = score(i, maxArea);
+      if (score > bestScore) {
+        runnerUpScore = Math.max(bestScore, 0);
+        bestScore = score;
+        m_best = i;
+      }
+      else if (score > runnerUpScore) {
+        runnerUpScore = score;
+      }
+    }
+
+    // A clear winner is worth more than the best of several look-alikes
+    m_confidence = bestScore * (0.5 + 0.5 * (bestScore - runnerUpScore) / bestScore);
+    if (m_count == 1) {
+      m_confidence = bestScore;
+    }
+
+    if (m_confidence >= RankingConstants.MinLockConfidence) {
+      m_locked = true;
+      m_lockX = m_centerX[m_best];
+      m_lockY = m_centerY[m_best];
+      m_framesWithoutLock = 0;
+    }
+    else if (m_locked && ++m_framesWithoutLock > RankingConstants.LockFrames) {
+      m_locked = false;
+    }
+
+    return m_best;
+  }
+
+  /**
+   * @return the index of the best candidate from the last rank(), or -1 if there were none
+   */
+  public int getBest() {
+    return m_best;
+  }
+
+  /**
+   * @return how sure we are that the best candidate is the target, from 0 to 1
+   */
+  public double getConfidence() {
+    return m_confidence;
+  }
+
+  /**
+   * @return whether we're locked onto a target
+   */
+  public boolean isLocked() {
+    return m_locked;
+  }
+
+  /**
+   * Drops the lock (e.g. when the robot has turned away from the target)
+   */
+  public void resetLock() {
+    m_locked = false;
+    m_framesWithoutLock = 0;
+  }
+
+  private double score(int i, double maxArea) {
+    double areaScore = (maxArea > 0) ? m_area[i] / maxArea : 0;
+
+    double ratioError = (m_ratio[i] > 0) ? Math.abs(Math.log(m_ratio[i] / RankingConstants.ExpectedRatio)) : 10;
+    double ratioScore = 1.0 / (1.0 + 2.0 * ratioError);
+
+    double solidityError = Math.abs(m_solidity[i] - RankingConstants.ExpectedSolidity) / RankingConstants.ExpectedSolidity;
+    double solidityScore = Math.max(0, 1.0 - solidityError);
+
+    // Without a lock every candidate gets the same, neutral, lock score
+    double lockScore = 0.5;
+    if (m_locked) {
+      double distance = Math.hypot(m_centerX[i] - m_lockX, m_centerY[i] - m_lockY);
+      lockScore = Math.exp(-distance / RankingConstants.LockDistance);
+    }
+
+    return RankingConstants.AreaWeight * areaScore
+         + RankingConstants.RatioWeight * ratioScore
+         + RankingConstants.SolidityWeight * solidityScore
+         + RankingConstants.LockWeight * lockScore;
+  }
+
+  private void grow() {
+    int capacity = m_area.length * 2;
+    m_area = Arrays.copyOf(m_area, capacity);
+    m_ratio = Arrays.copyOf(m_ratio, capacity);
+    m_solidity = Arrays.copyOf(m_solidity, capacity);
+    m_centerX = Arrays.copyOf(m_centerX, capacity);
+    m_centerY = Arrays.copyOf(m_centerY, capacity);
+  }
+}
@@ -0,0 +1,103 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2019 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+package frc.robot.vision;
+
+/**
+ * Kalman filter for the horizontal angle to the target (same sign as the camera's angle X).
+ * 
+ * <p>Between camera frames the angle is predicted from the robot's turn rate, so it can be
+ * used on every scheduler run; each new frame then corrects it. The variance of the estimate
+ * grows while predicting and shrinks with each measurement.
+ */
+public class TargetTracker {
+  private static class TrackerConstants {
+    // Variance added per second of prediction (degrees^2/s), plus a share for gyro error while turning
+    private static final double ProcessNoise = 4.0;
+    private static final double TurnRateNoise = 0.05;   // fraction of the turn rate
+
+    // Variance of a camera measurement (degrees^2)
+    private static final double MeasurementNoise = 1.0;
+
+    // When to stop trusting the estimate
+    private static final double MaxStdDev = 5.0;        // degrees
+    private static final double LostTimeout = 0.5;      // seconds since the last measurement
+  }
+
+  private boolean m_initialized = false;
+  private double m_angle = 0;
+  private double m_variance = 0;
+  private double m_lastMeasurementTime = 0;
+
+  /**
+   * Moves the estimate forward in time
+   * @param turnRate the robot's turn rate in degrees per second (clockwise positive)
+   * @param dt seconds since the last prediction
+   */
+  public void predict(double turnRate, double dt) {
+    if (!m_initialized || dt <= 0) {
+      return;
+    }
+
+    // Turning the robot clockwise moves the target the same way in the camera's angle
+    m_angle += turnRate * dt;
+
+    double rateNoise = TrackerConstants.TurnRateNoise * turnRate;
+    m_variance += (TrackerConstants.ProcessNoise + rateNoise * rateNoise) * dt;
+  }
+
+  /**
+   * Corrects the estimate with a camera measurement
+   * @param angle the measured angle in degrees, already adjusted for any turning since the frame was captured
+   * @param timestamp when the frame was captured (FPGA seconds)
+   */
+  public void correct(double angle, double timestamp) {
+    if (!m_initialized) {
+      m_angle = angle;
+      m_variance = TrackerConstants.MeasurementNoise;
+      m_initialized = true;
+    }
+    else {
+      double gain = m_variance / (m_variance + TrackerConstants.MeasurementNoise);
+      m_angle += gain * (angle - m_angle);
+      m_variance *= (1 - gain);
+    }
+    m_lastMeasurementTime = timestamp;
+  }
+
+  /**
+   * Forgets the target
+   */
+  public void reset() {
+    m_initialized = false;
+    m_variance = 0;
+  }
+
+  /**
+   * @param now the current FPGA time in seconds
+   * @return whether the estimate is recent and certain enough to use
+   */
+  public boolean hasTarget(double now) {
+    return m_initialized 
+      && now - m_lastMeasurementTime < TrackerConstants.LostTimeout 
+      && getStdDev() < TrackerConstants.MaxStdDev;
+  }
+
+  /**
+   * @return the estimated angle to the target in degrees
+   */
+  public double getAngle() {
+    return m_angle;
+  }
+
+  /**
+   * @return the standard deviation of the estimate in degrees
+   */
+  public double getStdDev() {
+    return Math.sqrt(m_variance);
+  }
+}
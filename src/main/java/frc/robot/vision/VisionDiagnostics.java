@@ -0,0 +1,171 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2019 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+package frc.robot.vision;
+
+import java.util.Arrays;
+
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTableEntry;
+import edu.wpi.first.networktables.NetworkTableInstance;
+
+/**
+ * Keeps rolling percentiles of how long each {@link PowerPortPipeline} stage takes and how many
+ * blobs/contours each frame has, and publishes them (with frame rates and how many frames only
+ * searched the region of interest) to a network table.
+ *
+ * <p>The stage timings and counts only cover the Power Port pipeline running on the robot
+ * (CameraSubsystemGRIP with kProcessOnRobot); the Pi's processing isn't measured here. Other
+ * streams can still publish their frame rates by calling publishIfDue() without record().
+ *
+ * <p>Everything is published in a sub table per statistic, e.g. {@code Threshold/p95} in
+ * milliseconds or {@code Contours Found/p50}, so each value can be graphed on Shuffleboard.
+ * Call record() and publishIfDue() from the thread that runs the pipeline; recording only
+ * writes into fixed arrays, and the sorting is left for publishing, which happens at a low rate.
+ */
+public class VisionDiagnostics {
+  private static final int kWindow = 256;   // frames
+  private static final double[] kPercentiles = {0.50, 0.95, 0.99};
+  private static final String[] kPercentileNames = {"p50", "p95", "p99"};
+
+  private static final String kTotal = "Total";
+  private static final String kBlobs = "Blobs";
+  private static final String kContoursFound = "Contours Found";
+  private static final String kContoursKept = "Contours Kept";
+
+  private final PowerPortPipeline.Stage[] m_stages = PowerPortPipeline.Stage.values();
+  private final long m_periodNanos;
+
+  // Rolling windows: one per stage, then the total and the blob/contour counts
+  private final int m_totalIndex = m_stages.length;
+  private final int m_blobsIndex = m_stages.length + 1;
+  private final int m_foundIndex = m_stages.length + 2;
+  private final int m_keptIndex = m_stages.length + 3;
+  private final long[][] m_windows = new long[m_stages.length + 4][kWindow];
+  private final NetworkTableEntry[][] m_percentileEntries = new NetworkTableEntry[m_windows.length][];
+  private final long[] m_sorted = new long[kWindow];
+  private int m_next = 0;
+  private int m_count = 0;
+
+  private final NetworkTableEntry m_processedEntry;
+  private final NetworkTableEntry m_droppedEntry;
+  private final NetworkTableEntry m_processedRateEntry;
+  private final NetworkTableEntry m_droppedRateEntry;
+  private final NetworkTableEntry m_roiFramesEntry;
+  private final NetworkTableEntry m_fullFramesEntry;
+
+  // Running totals from the pipeline, as of the last frame recorded
+  private long m_roiFrames = 0;
+  private long m_fullFrames = 0;
+
+  private long m_lastPublishNanos = System.nanoTime();
+  private long m_lastProcessed = 0;
+  private long m_lastDropped = 0;
+
+  /**
+   * Creates a new VisionDiagnostics.
+   * @param tableName the network table to publish to
+   * @param period how often to publish, in seconds
+   */
+  public VisionDiagnostics(String tableName, double period) {
+    m_periodNanos = (long)(period * 1e9);
+
+    NetworkTable table = NetworkTableInstance.getDefault().getTable(tableName);
+    for (PowerPortPipeline.Stage stage : m_stages) {
+      m_percentileEntries[stage.ordinal()] = percentileEntries(table, stage.name().substring(1));
+    }
+    m_percentileEntries[m_totalIndex] = percentileEntries(table, kTotal);
+    m_percentileEntries[m_blobsIndex] = percentileEntries(table, kBlobs);
+    m_percentileEntries[m_foundIndex] = percentileEntries(table, kContoursFound);
+    m_percentileEntries[m_keptIndex] = percentileEntries(table, kContoursKept);
+
+    NetworkTable frames = table.getSubTable("Frames");
+    m_processedEntry = frames.getEntry("Processed");
+    m_droppedEntry = frames.getEntry("Dropped");
+    m_processedRateEntry = frames.getEntry("Processed Per Sec");
+    m_droppedRateEntry = frames.getEntry("Dropped Per Sec");
+    m_roiFramesEntry = frames.getEntry("Region Of Interest");
+    m_fullFramesEntry = frames.getEntry("Full Frame");
+  }
+
+  /**
+   * Adds the timings and counts of the frame the pipeline just finished
+   */
+  public void record(PowerPortPipeline pipeline) {
+    long total = 0;
+    for (PowerPortPipeline.Stage stage : m_stages) {
+      final long nanos = pipeline.stageNanos(stage);
+      m_windows[stage.ordinal()][m_next] = nanos;
+      total += nanos;
+    }
+    m_windows[m_totalIndex][m_next] = total;
+    m_windows[m_blobsIndex][m_next] = pipeline.prefilterBlobCount();
+    m_windows[m_foundIndex][m_next] = pipeline.findContoursOutput().size();
+    m_windows[m_keptIndex][m_next] = pipeline.filterContoursOutput().size();
+    m_roiFrames = pipeline.roiFrameCount();
+    m_fullFrames = pipeline.fullFrameCount();
+
+    m_next = (m_next + 1) % kWindow;
+    m_count = Math.min(m_count + 1, kWindow);
+  }
+
+  /**
+   * Publishes the statistics if the publishing period has passed
+   * @param processedFrames the number of frames processed so far
+   * @param droppedFrames the number of frames dropped so far
+   * @return true if they were published
+   */
+  public boolean publishIfDue(long processedFrames, long droppedFrames) {
+    final long now = System.nanoTime();
+    final long elapsed = now - m_lastPublishNanos;
+    if (elapsed < m_periodNanos) {
+      return false;
+    }
+
+    for (int i = 0; i < m_windows.length; i++) {
+      // Timings go out in milliseconds, counts as they are
+      publishPercentiles(m_windows[i], m_percentileEntries[i], (i <= m_totalIndex) ? 1e-6 : 1);
+    }
+
+    final double seconds = elapsed / 1e9;
+    m_processedEntry.setDouble(processedFrames);
+    m_droppedEntry.setDouble(droppedFrames);
+    m_processedRateEntry.setDouble((processedFrames - m_lastProcessed) / seconds);
+    m_droppedRateEntry.setDouble((droppedFrames - m_lastDropped) / seconds);
+    if (m_count > 0) {
+      m_roiFramesEntry.setDouble(m_roiFrames);
+      m_fullFramesEntry.setDouble(m_fullFrames);
+    }
+
+    m_lastPublishNanos = now;
+    m_lastProcessed = processedFrames;
+    m_lastDropped = droppedFrames;
+    return true;
+  }
+
+  private void publishPercentiles(long[] window, NetworkTableEntry[] entries, double scale) {
+    if (m_count == 0) {
+      return;
+    }
+
+    System.arraycopy(window, 0, m_sorted, 0, m_count);
+    Arrays.sort(m_sorted, 0, m_count);
+    for (int p = 0; p < kPercentiles.length; p++) {
+      final int index = Math.max(0, (int)Math.ceil(kPercentiles[p] * m_count) - 1);
+      entries[p].setDouble(m_sorted[index] * scale);
+    }
+  }
+
+  private static NetworkTableEntry[] percentileEntries(NetworkTable table, String name) {
+    NetworkTable subTable = table.getSubTable(name);
+    NetworkTableEntry[] entries = new NetworkTableEntry[kPercentileNames.length];
+    for (int p = 0; p < kPercentileNames.length; p++) {
+      entries[p] = subTable.getEntry(kPercentileNames[p]);
+    }
+    return entries;
+  }
+}
@@ -0,0 +1,361 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2019 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+package frc.robot.vision;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.opencv.core.Mat;
+
+import edu.wpi.cscore.CvSink;
+import edu.wpi.cscore.VideoSource;
+import edu.wpi.first.vision.VisionPipeline;
+import edu.wpi.first.wpilibj.DriverStation;
+
+/**
+ * Runs the pipelines of several camera streams on one fixed pool of worker threads
+ * (one per core), so the streams share the processor instead of each having its own thread.
+ *
+ * <p>Each stream grabs frames on its own thread (grabbing is mostly waiting for the camera)
+ * and has at most one frame being processed at a time; frames that arrive while it's busy, or
+ * sooner than its frame rate cap allows, are dropped. When several streams have a frame
+ * waiting, the stream with the highest priority is processed first, so e.g. the shooter camera
+ * can win over the intake camera while aiming.
+ */
+public class VisionExecutor {
+  private static VisionExecutor s_instance;
+
+  private final int m_workerCount;
+  private final List<Stream<?>> m_streams = new ArrayList<>();
+
+  // Streams with a frame waiting for a worker, highest priority first (first come first served within a priority)
+  private final PriorityBlockingQueue<Stream<?>> m_ready = new PriorityBlockingQueue<>(11, (a, b) ->
+    (a.m_queuedPriority != b.m_queuedPriority)
+      ? Integer.compare(b.m_queuedPriority, a.m_queuedPriority)
+      : Long.compare(a.m_queuedOrder, b.m_queuedOrder));
+  private long m_nextOrder = 0;
+
+  private volatile boolean m_running = false;
+  private Thread[] m_workers;
+
+  /**
+   * @return the executor shared by all of the robot's camera streams
+   */
+  public static synchronized VisionExecutor getInstance() {
+    if (s_instance == null) {
+      s_instance = new VisionExecutor();
+    }
+    return s_instance;
+  }
+
+  /**
+   * Creates a new executor with one worker per available core.
+   */
+  public VisionExecutor() {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Creates a new executor.
+   * @param workerCount the number of worker threads
+   */
+  public VisionExecutor(int workerCount) {
+    m_workerCount = Math.max(1, workerCount);
+  }
+
+  /**
+   * Adds a camera stream. Its frames start being processed once the executor is started.
+   * @param name the name of the stream (used for its threads and error messages)
+   * @param videoSource the video source to use to supply images for the pipeline
+   * @param pipeline the vision pipeline to run
+   * @param priority which stream to process first when several have a frame waiting (higher wins)
+   * @param maxFps the most frames per second to process (0 for no limit)
+   * @param listener a function to call after the pipeline has finished with each frame
+   *                 (called on a worker thread; the pipeline outputs are only valid during the call)
+   * @return the stream, for changing its priority and frame rate cap
+   */
+  public synchronized <P extends VisionPipeline> Stream<P> addStream(String name, VideoSource videoSource, P pipeline,
+    int priority, double maxFps, PipelinedVisionRunner.Listener<? super P> listener) {
+
+    Stream<P> stream = new Stream<>(this, name, videoSource, pipeline, listener);
+    stream.setPriority(priority);
+    stream.setMaxFps(maxFps);
+    m_streams.add(stream);
+
+    if (m_running) {
+      stream.start();
+    }
+    return stream;
+  }
+
+  /**
+   * Starts the workers and the streams' grab threads
+   */
+  public synchronized void startAsync() {
+    if (m_running) {
+      return;
+    }
+    m_running = true;
+
+    m_workers = new Thread[m_workerCount];
+    for (int i = 0; i < m_workerCount; i++) {
+      m_workers[i] = new Thread(this::workerLoop, "Vision Worker " + i);
+      m_workers[i].setDaemon(true);
+      m_workers[i].start();
+    }
+    for (Stream<?> stream : m_streams) {
+      stream.start();
+    }
+  }
+
+  /**
+   * Stops the workers and grab threads. Frames waiting to be processed are discarded.
+   */
+  public synchronized void stop() {
+    m_running = false;
+    if (m_workers != null) {
+      for (Thread worker : m_workers) {
+        worker.interrupt();
+      }
+      m_workers = null;
+    }
+    for (Stream<?> stream : m_streams) {
+      stream.stop();
+    }
+
+    // Streams still waiting for a worker won't be processed now, so let them take frames again
+    // (a stream a worker already has is let go when its process() finishes)
+    List<Stream<?>> waiting = new ArrayList<>();
+    m_ready.drainTo(waiting);
+    for (Stream<?> stream : waiting) {
+      stream.m_inFlight.set(false);
+    }
+  }
+
+  /**
+   * @return the number of worker threads
+   */
+  public int getWorkerCount() {
+    return m_workerCount;
+  }
+
+  /**
+   * Queues a stream's frame for the workers (called on the stream's grab thread)
+   */
+  private void submit(Stream<?> stream) {
+    // The queue only looks at the priority when a stream is added, so save it here
+    // (changing it later must not reorder a queue the stream is already in)
+    synchronized (m_ready) {
+      stream.m_queuedPriority = stream.m_priority;
+      stream.m_queuedOrder = m_nextOrder++;
+    }
+    m_ready.offer(stream);
+  }
+
+  private void workerLoop() {
+    try {
+      while (m_running) {
+        m_ready.take().process();
+      }
+    }
+    catch (InterruptedException ex) {
+      // Stopped
+    }
+  }
+
+  /**
+   * A camera stream and its pipeline
+   */
+  public static final class Stream<P extends VisionPipeline> {
+    private final VisionExecutor m_executor;
+    private final String m_name;
+    private final CvSink m_cvSink;
+    private final P m_pipeline;
+    private final PipelinedVisionRunner.Listener<? super P> m_listener;
+
+    private volatile int m_priority = 0;
+    private volatile long m_minPeriodNanos = 0;
+    private volatile boolean m_enabled = true;
+
+    // Set by submit() when the stream is queued
+    private int m_queuedPriority;
+    private long m_queuedOrder;
+
+    // The grab thread grabs into one frame while a worker processes the other
+    private Mat m_grabFrame = new Mat();
+    private Mat m_workFrame = new Mat();
+    private final AtomicBoolean m_inFlight = new AtomicBoolean(false);
+    private long m_workSequence;
+    private long m_workFrameTime;
+
+    private long m_nextSequence = 0;
+    private long m_nextSubmitNanos = 0;
+    private volatile long m_processedFrameCount = 0;
+    private volatile long m_droppedFrameCount = 0;
+    private volatile long m_throttledFrameCount = 0;
+
+    private Thread m_grabThread;
+    private boolean m_grabbing = false;
+    private boolean m_grabFailing = false;   // grab thread only
+
+    private Stream(VisionExecutor executor, String name, VideoSource videoSource, P pipeline,
+      PipelinedVisionRunner.Listener<? super P> listener) {
+
+      m_executor = executor;
+      m_name = name;
+      m_cvSink = new CvSink(name + " CvSink");
+      m_cvSink.setSource(videoSource);
+      m_pipeline = pipeline;
+      m_listener = listener;
+    }
+
+    /**
+     * Set which stream to process first when several have a frame waiting (higher wins)
+     */
+    public void setPriority(int priority) {
+      m_priority = priority;
+    }
+
+    /**
+     * Set the most frames per second to process; frames that come in faster are dropped
+     * @param maxFps the frame rate cap (0 for no limit)
+     */
+    public void setMaxFps(double maxFps) {
+      m_minPeriodNanos = (maxFps > 0) ? (long)(1e9 / maxFps) : 0;
+    }
+
+    /**
+     * Set whether to process this stream's frames (they are still grabbed so the camera keeps flowing)
+     */
+    public void setEnabled(boolean enabled) {
+      m_enabled = enabled;
+    }
+
+    public String getName() {
+      return m_name;
+    }
+
+    public P getPipeline() {
+      return m_pipeline;
+    }
+
+    /**
+     * @return the number of frames that have been processed
+     */
+    public long processedFrameCount() {
+      return m_processedFrameCount;
+    }
+
+    /**
+     * @return the number of frames dropped because the previous frame was still being processed
+     */
+    public long droppedFrameCount() {
+      return m_droppedFrameCount;
+    }
+
+    /**
+     * @return the number of frames dropped to stay under the frame rate cap
+     */
+    public long throttledFrameCount() {
+      return m_throttledFrameCount;
+    }
+
+    private synchronized void start() {
+      if (m_grabbing) {
+        return;
+      }
+      if (m_grabThread != null) {
+        // A stopped grab thread can still be waiting in grabFrame, and mustn't grab into the
+        // frames alongside the new one
+        try {
+          m_grabThread.join();
+        }
+        catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+      m_grabbing = true;
+      m_nextSubmitNanos = System.nanoTime();
+      m_grabThread = new Thread(this::grabLoop, m_name + " Grab");
+      m_grabThread.setDaemon(true);
+      m_grabThread.start();
+    }
+
+    private synchronized void stop() {
+      if (m_grabbing) {
+        m_grabbing = false;
+        m_grabThread.interrupt();
+      }
+    }
+
+    private void grabLoop() {
+      while (m_executor.m_running && !Thread.interrupted()) {
+        long frameTime = m_cvSink.grabFrame(m_grabFrame);
+        if (frameTime == 0) {
+          // Only report when grabbing starts failing: with the camera unplugged, every grab times out
+          if (!m_grabFailing) {
+            DriverStation.reportError(m_name + " grab failed: " + m_cvSink.getError(), false);
+            m_grabFailing = true;
+          }
+          continue;
+        }
+        m_grabFailing = false;
+
+        long sequence = m_nextSequence++;
+        if (!m_enabled) {
+          continue;
+        }
+
+        // Frames are allowed a quarter of a period early, so camera jitter doesn't
+        // turn e.g. a 15 fps cap on a 30 fps camera into 10 fps
+        long now = System.nanoTime();
+        long period = m_minPeriodNanos;
+        if (now - m_nextSubmitNanos < -period / 4) {
+          m_throttledFrameCount++;
+          continue;
+        }
+
+        if (!m_inFlight.compareAndSet(false, true)) {
+          m_droppedFrameCount++;
+          continue;
+        }
+
+        // Nobody else touches the work frame while the stream isn't in flight
+        Mat frame = m_workFrame;
+        m_workFrame = m_grabFrame;
+        m_grabFrame = frame;
+        m_workSequence = sequence;
+        m_workFrameTime = frameTime;
+        m_nextSubmitNanos = (now - m_nextSubmitNanos > period) ? now + period : m_nextSubmitNanos + period;
+
+        m_executor.submit(this);
+      }
+    }
+
+    /**
+     * Processes the waiting frame (called on a worker thread)
+     */
+    private void process() {
+      try {
+        m_pipeline.process(m_workFrame);
+        m_listener.copyPipelineOutputs(m_workSequence, m_workFrameTime, m_pipeline);
+        m_processedFrameCount++;
+      }
+      catch (RuntimeException ex) {
+        // Don't let one stream's bad frame take a worker away from the others
+        DriverStation.reportError(m_name + " pipeline failed: " + ex, false);
+      }
+      finally {
+        m_inFlight.set(false);
+      }
+    }
+  }
+}
@@ -0,0 +1,152 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2019 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+package frc.robot.vision;
+
+/**
+ * Everything the vision coprocessor reports about one frame, sent as a single NetworkTables
+ * double array so the robot never mixes values from different frames.
+ * 
+ * <p>Layout: version, sequence, capture time, latency, target count, center x, center y,
+ * offset x, offset y, angle x, angle y. Packets are mutable and meant to be reused; decoding
+ * into an existing packet doesn't allocate.
+ * 
+ * <p>The robot only decodes packets. The Pi's vision program, which is deployed to the Pi
+ * separately rather than built from this project, fills one in with setFrame()/setTarget()
+ * and publishes encode()'s array under VisionConstants.kPacketKey.
+ */
+public class VisionPacket {
+  public static final int kVersion = 1;
+  public static final int kLength = 11;
+
+  private static final int kVersionIndex = 0;
+  private static final int kSequenceIndex = 1;
+  private static final int kCaptureTimeIndex = 2;
+  private static final int kLatencyIndex = 3;
+  private static final int kTargetCountIndex = 4;
+  private static final int kCenterXIndex = 5;
+  private static final int kCenterYIndex = 6;
+  private static final int kOffsetXIndex = 7;
+  private static final int kOffsetYIndex = 8;
+  private static final int kAngleXIndex = 9;
+  private static final int kAngleYIndex = 10;
+
+  private long m_sequence = -1;
+  private double m_captureTime = 0;
+  private double m_latency = 0;
+  private int m_targetCount = 0;
+  private double m_centerX = 0;
+  private double m_centerY = 0;
+  private double m_offsetX = 0;
+  private double m_offsetY = 0;
+  private double m_angleX = 0;
+  private double m_angleY = 0;
+
+  /**
+   * Reads a packet
+   * @param data the NetworkTables double array
+   * @return false (leaving this packet unchanged) if the data isn't a packet we understand
+   */
+  public boolean decode(double[] data) {
+    if (data == null || data.length < kLength || (int)data[kVersionIndex] != kVersion) {
+      return false;
+    }
+
+    m_sequence = (long)data[kSequenceIndex];
+    m_captureTime = data[kCaptureTimeIndex];
+    m_latency = data[kLatencyIndex];
+    m_targetCount = (int)data[kTargetCountIndex];
+    m_centerX = data[kCenterXIndex];
+    m_centerY = data[kCenterYIndex];
+    m_offsetX = data[kOffsetXIndex];
+    m_offsetY = data[kOffsetYIndex];
+    m_angleX = data[kAngleXIndex];
+    m_angleY = data[kAngleYIndex];
+    return true;
+  }
+
+  /**
+   * Writes the packet (on the coprocessor, before publishing it)
+   * @param data an array of at least kLength doubles
+   */
+  public void encode(double[] data) {
+    data[kVersionIndex] = kVersion;
+    data[kSequenceIndex] = m_sequence;
+    data[kCaptureTimeIndex] = m_captureTime;
+    data[kLatencyIndex] = m_latency;
+    data[kTargetCountIndex] = m_targetCount;
+    data[kCenterXIndex] = m_centerX;
+    data[kCenterYIndex] = m_centerY;
+    data[kOffsetXIndex] = m_offsetX;
+    data[kOffsetYIndex] = m_offsetY;
+    data[kAngleXIndex] = m_angleX;
+    data[kAngleYIndex] = m_angleY;
+  }
+
+  /**
+   * Copies another packet into this one
+   */
+  public void copyFrom(VisionPacket other) {
+    m_sequence = other.m_sequence;
+    m_captureTime = other.m_captureTime;
+    m_latency = other.m_latency;
+    m_targetCount = other.m_targetCount;
+    m_centerX = other.m_centerX;
+    m_centerY = other.m_centerY;
+    m_offsetX = other.m_offsetX;
+    m_offsetY = other.m_offsetY;
+    m_angleX = other.m_angleX;
+    m_angleY = other.m_angleY;
+  }
+
+  /**
+   * Sets the frame information (on the coprocessor)
+   * @param sequence the frame's sequence number
+   * @param captureTime when the frame was captured, in seconds on the coprocessor's clock
+   * @param latency seconds from capture to publishing the packet
+   */
+  public void setFrame(long sequence, double captureTime, double latency) {
+    m_sequence = sequence;
+    m_captureTime = captureTime;
+    m_latency = latency;
+  }
+
+  /**
+   * Sets the target information (on the coprocessor)
+   */
+  public void setTarget(int targetCount, double centerX, double centerY, 
+                        double offsetX, double offsetY, double angleX, double angleY) {
+    m_targetCount = targetCount;
+    m_centerX = centerX;
+    m_centerY = centerY;
+    m_offsetX = offsetX;
+    m_offsetY = offsetY;
+    m_angleX = angleX;
+    m_angleY = angleY;
+  }
+
+  /** @return the frame's sequence number (-1 before the first packet) */
+  public long getSequence() { return m_sequence; }
+  /** @return when the frame was captured, in seconds on the coprocessor's clock */
+  public double getCaptureTime() { return m_captureTime; }
+  /** @return seconds from capture to the packet being published */
+  public double getLatency() { return m_latency; }
+  /** @return the number of targets found */
+  public int getTargetCount() { return m_targetCount; }
+  /** @return the center of the target in pixels */
+  public double getCenterX() { return m_centerX; }
+  /** @return the center of the target in pixels */
+  public double getCenterY() { return m_centerY; }
+  /** @return the normalized offset of the target from the center of the image */
+  public double getOffsetX() { return m_offsetX; }
+  /** @return the normalized offset of the target from the center of the image */
+  public double getOffsetY() { return m_offsetY; }
+  /** @return the horizontal angle to the target in degrees */
+  public double getAngleX() { return m_angleX; }
+  /** @return the vertical angle to the target in degrees */
+  public double getAngleY() { return m_angleY; }
+}
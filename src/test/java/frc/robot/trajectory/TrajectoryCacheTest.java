@@ -0,0 +1,103 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2019 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+package frc.robot.trajectory;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.wpi.first.wpilibj.geometry.Pose2d;
+import edu.wpi.first.wpilibj.geometry.Rotation2d;
+import edu.wpi.first.wpilibj.trajectory.Trajectory;
+
+/**
+ * Writes trajectory files and reads them back
+ */
+public class TrajectoryCacheTest {
+  private static final long kFingerprint = 0x2020025412345678L;
+  private static final double kTolerance = 1e-5;   // everything is stored as floats
+
+  @Test
+  public void readsBackWhatWasWritten() throws IOException {
+    Trajectory trajectory = sampleTrajectory();
+    File file = tempFile();
+    TrajectoryCache.write(file, kFingerprint, trajectory);
+
+    Trajectory read = TrajectoryCache.read(file, kFingerprint);
+    assertNotNull(read);
+    List<Trajectory.State> expected = trajectory.getStates();
+    List<Trajectory.State> actual = read.getStates();
+    assertEquals(expected.size(), actual.size());
+
+    for (int i = 0; i < expected.size(); i++) {
+      Trajectory.State want = expected.get(i);
+      Trajectory.State got = actual.get(i);
+      assertEquals(want.timeSeconds, got.timeSeconds, kTolerance);
+      assertEquals(want.velocityMetersPerSecond, got.velocityMetersPerSecond, kTolerance);
+      assertEquals(want.accelerationMetersPerSecondSq, got.accelerationMetersPerSecondSq, kTolerance);
+      assertEquals(want.poseMeters.getTranslation().getX(), got.poseMeters.getTranslation().getX(), kTolerance);
+      assertEquals(want.poseMeters.getTranslation().getY(), got.poseMeters.getTranslation().getY(), kTolerance);
+      assertEquals(want.poseMeters.getRotation().getRadians(), got.poseMeters.getRotation().getRadians(), kTolerance);
+      assertEquals(want.curvatureRadPerMeter, got.curvatureRadPerMeter, kTolerance);
+    }
+    assertEquals(trajectory.getTotalTimeSeconds(), read.getTotalTimeSeconds(), kTolerance);
+  }
+
+  @Test
+  public void staleFingerprintReadsAsNull() throws IOException {
+    File file = tempFile();
+    TrajectoryCache.write(file, kFingerprint, sampleTrajectory());
+
+    // The waypoints or limits changed since the file was generated
+    assertNull(TrajectoryCache.read(file, kFingerprint + 1));
+  }
+
+  @Test(expected = IOException.class)
+  public void rejectsAFileThatIsntATrajectory() throws IOException {
+    File file = tempFile();
+    Files.write(file.toPath(), "not a trajectory at all".getBytes());
+    TrajectoryCache.read(file, kFingerprint);
+  }
+
+  @Test(expected = IOException.class)
+  public void rejectsATruncatedFile() throws IOException {
+    File file = tempFile();
+    TrajectoryCache.write(file, kFingerprint, sampleTrajectory());
+    byte[] bytes = Files.readAllBytes(file.toPath());
+    Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length - 3));
+    TrajectoryCache.read(file, kFingerprint);
+  }
+
+  /**
+   * A gentle S-curve, with headings on both sides of zero
+   */
+  private static Trajectory sampleTrajectory() {
+    List<Trajectory.State> states = new ArrayList<>();
+    for (int i = 0; i <= 50; i++) {
+      final double t = i * 0.02;
+      final double heading = 0.6 * Math.sin(2 * Math.PI * t);
+      states.add(new Trajectory.State(t, 1.5 * t, (i < 50) ? 1.5 : 0.0,
+        new Pose2d(3.0 * t + 0.123, 0.4 * Math.sin(Math.PI * t) - 1.0, new Rotation2d(heading)),
+        1.2 * Math.PI * Math.cos(2 * Math.PI * t)));
+    }
+    return new Trajectory(states);
+  }
+
+  private static File tempFile() throws IOException {
+    File file = File.createTempFile("trajectory", ".bin");
+    file.deleteOnExit();
+    return file;
+  }
+}
@@ -0,0 +1,149 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2019 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+package frc.robot.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Fits simulated characterization runs of a drivetrain with known gains
+ */
+public class CharacterizationLogTest {
+  private static final double kMetersPerInch = 0.0254;
+  private static final double kPeriod = 0.005;        // the 200 Hz sensor loop
+  private static final double kMinVelocity = 0.05;
+
+  // What the simulated drivetrain's sides really are
+  private static final double kS = 0.9;
+  private static final double kLeftV = 2.4;
+  private static final double kRightV = 2.7;
+  private static final double kA = 0.35;
+
+  @Test
+  public void recoversTheGainsOfANoiselessDrivetrain() {
+    CharacterizationLog[] logs = allRuns(null);
+
+    double[] left = CharacterizationLog.fit(logs, true, kMinVelocity);
+    assertNotNull(left);
+    assertEquals(kS, left[0], 0.02);
+    assertEquals(kLeftV, left[1], 0.02);
+    assertEquals(kA, left[2], 0.01);
+    assertTrue("r squared " + left[3], left[3] > 0.999);
+
+    // The right side is fitted from its own samples
+    double[] right = CharacterizationLog.fit(logs, false, kMinVelocity);
+    assertNotNull(right);
+    assertEquals(kRightV, right[1], 0.02);
+  }
+
+  @Test
+  public void recoversTheGainsThroughEncoderNoise() {
+    double[] gains = CharacterizationLog.fit(allRuns(new Random(2020)), true, kMinVelocity);
+    assertNotNull(gains);
+    assertEquals(kS, gains[0], 0.1);
+    assertEquals(kLeftV, gains[1], 0.1);
+    assertEquals(kA, gains[2], 0.05);
+
+    // Still a good fit, just not a perfect one
+    assertTrue("r squared " + gains[3], gains[3] > 0.95 && gains[3] < 0.9999);
+  }
+
+  @Test
+  public void needsARunThatAccelerates() {
+    // Constant voltage from a standstill, after the drivetrain has settled: no acceleration to fit kA to
+    CharacterizationLog log = new CharacterizationLog(1000);
+    double velocity = (6.0 - kS) / kLeftV;
+    for (int i = 0; i < 1000; i++) {
+      log.record(i * kPeriod, 6.0, 12.0, 0, 0, velocity / kMetersPerInch, velocity / kMetersPerInch, 0);
+    }
+    assertNull(CharacterizationLog.fit(new CharacterizationLog[] {log}, true, kMinVelocity));
+  }
+
+  @Test
+  public void needsSamplesThatAreMoving() {
+    CharacterizationLog log = new CharacterizationLog(100);
+    for (int i = 0; i < 100; i++) {
+      log.record(i * kPeriod, 0.5, 12.0, 0, 0, 0, 0, 0);
+    }
+    assertNull(CharacterizationLog.fit(new CharacterizationLog[] {log}, true, kMinVelocity));
+  }
+
+  @Test
+  public void dropsSamplesOnceFull() {
+    CharacterizationLog log = new CharacterizationLog(2);
+    assertTrue(log.record(0, 0, 0, 0, 0, 0, 0, 0));
+    assertTrue(log.record(0, 0, 0, 0, 0, 0, 0, 0));
+    assertTrue(log.isFull());
+    assertFalse(log.record(0, 0, 0, 0, 0, 0, 0, 0));
+    assertEquals(2, log.size());
+
+    log.clear();
+    assertEquals(0, log.size());
+    assertFalse(log.isFull());
+  }
+
+  /**
+   * Quasistatic (0.25 V/s ramp) and dynamic (6 V step) runs, forwards and backwards
+   */
+  private static CharacterizationLog[] allRuns(Random noise) {
+    return new CharacterizationLog[] {
+      run(0.25, 0.0, 10.0, noise),
+      run(-0.25, 0.0, 10.0, noise),
+      run(0.0, 6.0, 2.0, noise),
+      run(0.0, -6.0, 2.0, noise),
+    };
+  }
+
+  /**
+   * Simulates a run, with volts = rampRate * t + step
+   */
+  private static CharacterizationLog run(double rampRate, double step, double duration, Random noise) {
+    final int samples = (int)(duration / kPeriod);
+    final int substeps = 50;
+    CharacterizationLog log = new CharacterizationLog(samples);
+
+    double leftVelocity = 0;
+    double rightVelocity = 0;
+    double leftDistance = 0;
+    double rightDistance = 0;
+    for (int i = 0; i < samples; i++) {
+      final double time = i * kPeriod;
+      final double volts = rampRate * time + step;
+
+      double leftRate = leftVelocity / kMetersPerInch;
+      double rightRate = rightVelocity / kMetersPerInch;
+      if (noise != null) {
+        leftRate += 0.5 * noise.nextGaussian();
+        rightRate += 0.5 * noise.nextGaussian();
+      }
+      log.record(time, volts, 12.0, leftDistance / kMetersPerInch, rightDistance / kMetersPerInch,
+        leftRate, rightRate, 0);
+
+      for (int s = 0; s < substeps; s++) {
+        final double dt = kPeriod / substeps;
+        leftVelocity += acceleration(volts, leftVelocity, kLeftV) * dt;
+        rightVelocity += acceleration(volts, rightVelocity, kRightV) * dt;
+        leftDistance += leftVelocity * dt;
+        rightDistance += rightVelocity * dt;
+      }
+    }
+    return log;
+  }
+
+  private static double acceleration(double volts, double velocity, double kV) {
+    // Static friction holds the drivetrain still until the voltage overcomes it
+    if (velocity == 0 && Math.abs(volts) <= kS) {
+      return 0;
+    }
+    final double direction = (velocity != 0) ? Math.signum(velocity) : Math.signum(volts);
+    return (volts - kS * direction - kV * velocity) / kA;
+  }
+}
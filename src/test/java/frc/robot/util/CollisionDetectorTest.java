@@ -0,0 +1,181 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2019 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+package frc.robot.util;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class CollisionDetectorTest {
+  private static final double kThreshold = 1.0;
+
+  private double m_accelX = 0;
+
+  @Test
+  public void firstSampleAndSmallChangesAreNotCollisions() {
+    CollisionDetector detector = new CollisionDetector(kThreshold, 0.0, 4);
+    CollisionDetector.Event event = new CollisionDetector.Event();
+
+    detector.sample(0.0, 3.0, -3.0);    // nothing to compare against yet
+    detector.sample(0.01, 3.5, -2.5);
+    assertFalse(detector.poll(event));
+    assertTrue(Double.isNaN(detector.getLatestEventTime()));
+  }
+
+  @Test
+  public void reportsTheJumpThatCrossedTheThreshold() {
+    CollisionDetector detector = new CollisionDetector(kThreshold, 0.0, 4);
+    CollisionDetector.Event event = new CollisionDetector.Event();
+
+    detector.sample(0.0, 0.1, 0.0);
+    detector.sample(0.01, 0.2, -1.4);
+
+    assertTrue(detector.poll(event));
+    assertEquals(0.01, event.getTimestamp(), 0.0);
+    assertEquals(0.1, event.getJerkX(), 1e-9);
+    assertEquals(-1.4, event.getJerkY(), 1e-9);
+    assertEquals(0.01, detector.getLatestEventTime(), 0.0);
+    assertFalse(detector.poll(event));
+  }
+
+  @Test
+  public void ignoresJumpsDuringTheHoldoff() {
+    CollisionDetector detector = new CollisionDetector(kThreshold, 0.5, 8);
+    CollisionDetector.Event event = new CollisionDetector.Event();
+
+    detector.sample(0.0, 0.0, 0.0);
+    hit(detector, 1.0);
+    hit(detector, 1.2);   // still ringing from the first
+    hit(detector, 1.49);
+    hit(detector, 1.5);
+
+    assertTrue(detector.poll(event));
+    assertEquals(1.0, event.getTimestamp(), 0.0);
+    assertTrue(detector.poll(event));
+    assertEquals(1.5, event.getTimestamp(), 0.0);
+    assertFalse(detector.poll(event));
+  }
+
+  @Test
+  public void wrapsAroundTheRing() {
+    CollisionDetector detector = new CollisionDetector(kThreshold, 0.0, 4);
+    CollisionDetector.Event event = new CollisionDetector.Event();
+    detector.sample(0.0, 0.0, 0.0);
+
+    // Go round the 4 slot ring several times, never quite filling it
+    int next = 1;
+    for (int round = 0; round < 10; round++) {
+      for (int i = 0; i < 3; i++) {
+        hit(detector, next + i);
+      }
+      for (int i = 0; i < 3; i++) {
+        assertTrue(detector.poll(event));
+        assertEquals(next + i, event.getTimestamp(), 0.0);
+      }
+      assertFalse(detector.poll(event));
+      next += 3;
+    }
+    assertEquals(0, detector.getOverflowCount());
+  }
+
+  @Test
+  public void dropsAndCountsTheNewestEventsWhenFull() {
+    CollisionDetector detector = new CollisionDetector(kThreshold, 0.0, 4);
+    CollisionDetector.Event event = new CollisionDetector.Event();
+    detector.sample(0.0, 0.0, 0.0);
+
+    for (int i = 1; i <= 6; i++) {
+      hit(detector, i);
+    }
+    assertEquals(2, detector.getOverflowCount());
+    assertEquals(4.0, detector.getLatestEventTime(), 0.0);
+
+    // Taking one makes room for one more
+    assertTrue(detector.poll(event));
+    assertEquals(1.0, event.getTimestamp(), 0.0);
+    hit(detector, 7);
+    hit(detector, 8);
+    assertEquals(3, detector.getOverflowCount());
+
+    for (double expected : new double[] {2.0, 3.0, 4.0, 7.0}) {
+      assertTrue(detector.poll(event));
+      assertEquals(expected, event.getTimestamp(), 0.0);
+    }
+    assertFalse(detector.poll(event));
+  }
+
+  @Test
+  public void roundsTheCapacityUpToAPowerOfTwo() {
+    CollisionDetector detector = new CollisionDetector(kThreshold, 0.0, 5);
+    detector.sample(0.0, 0.0, 0.0);
+
+    for (int i = 1; i <= 9; i++) {
+      hit(detector, i);
+    }
+    assertEquals(1, detector.getOverflowCount());
+  }
+
+  @Test
+  public void clearDropsWaitingEvents() {
+    CollisionDetector detector = new CollisionDetector(kThreshold, 0.0, 4);
+    CollisionDetector.Event event = new CollisionDetector.Event();
+    detector.sample(0.0, 0.0, 0.0);
+
+    for (int i = 1; i <= 3; i++) {
+      hit(detector, i);
+    }
+    detector.clear();
+    assertFalse(detector.poll(event));
+
+    // The cleared slots are free again
+    for (int i = 4; i <= 7; i++) {
+      hit(detector, i);
+    }
+    assertEquals(0, detector.getOverflowCount());
+    assertTrue(detector.poll(event));
+    assertEquals(4.0, event.getTimestamp(), 0.0);
+  }
+
+  @Test
+  public void handsEventsAcrossThreadsInOrder() throws InterruptedException {
+    final int events = 200000;
+    final CollisionDetector detector = new CollisionDetector(kThreshold, 0.0, 16);
+
+    Thread producer = new Thread(() -> {
+      detector.sample(0.0, 0.0, 0.0);
+      for (int i = 1; i <= events; i++) {
+        hit(detector, i);
+      }
+    });
+    producer.start();
+
+    CollisionDetector.Event event = new CollisionDetector.Event();
+    int received = 0;
+    double last = 0;
+    boolean producing = true;
+    while (producing) {
+      // Check before polling, so nothing published before the producer finished is missed
+      producing = producer.isAlive();
+      while (detector.poll(event)) {
+        assertTrue("events out of order", event.getTimestamp() > last);
+        assertTrue(Math.abs(event.getJerkX()) > kThreshold);
+        last = event.getTimestamp();
+        received++;
+      }
+    }
+    producer.join();
+
+    assertEquals(events, received + detector.getOverflowCount());
+  }
+
+  // Flips the X acceleration between +2 and -2 G, well past the threshold
+  private void hit(CollisionDetector detector, double timestamp) {
+    m_accelX = (m_accelX > 0) ? -2.0 : 2.0;
+    detector.sample(timestamp, m_accelX, 0.0);
+  }
+}
@@ -0,0 +1,79 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2019 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+package frc.robot.util;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class HeadingHistoryTest {
+  private static final double kEpsilon = 1e-9;
+
+  @Test
+  public void emptyHistoryGivesZero() {
+    HeadingHistory history = new HeadingHistory(4);
+    assertEquals(0.0, history.getHeadingAt(1.0), kEpsilon);
+  }
+
+  @Test
+  public void interpolatesBetweenSamples() {
+    HeadingHistory history = new HeadingHistory(8);
+    history.record(1.0, 10.0);
+    history.record(1.1, 20.0);
+    history.record(1.3, -20.0);
+
+    assertEquals(10.0, history.getHeadingAt(1.0), kEpsilon);
+    assertEquals(15.0, history.getHeadingAt(1.05), kEpsilon);
+    assertEquals(20.0, history.getHeadingAt(1.1), kEpsilon);
+    assertEquals(0.0, history.getHeadingAt(1.2), kEpsilon);
+  }
+
+  @Test
+  public void clampsOutsideTheRecordedTimes() {
+    HeadingHistory history = new HeadingHistory(8);
+    history.record(1.0, 10.0);
+    history.record(2.0, 30.0);
+
+    assertEquals(10.0, history.getHeadingAt(0.5), kEpsilon);
+    assertEquals(30.0, history.getHeadingAt(2.5), kEpsilon);
+  }
+
+  @Test
+  public void keepsOnlyTheNewestSamplesAfterWrapping() {
+    HeadingHistory history = new HeadingHistory(3);
+    for (int i = 0; i < 5; i++) {
+      history.record(i, i * 10.0);
+    }
+
+    // Samples 0 and 1 have been overwritten, so anything before 2 gets the oldest kept heading
+    assertEquals(20.0, history.getHeadingAt(0.5), kEpsilon);
+    assertEquals(25.0, history.getHeadingAt(2.5), kEpsilon);
+    assertEquals(35.0, history.getHeadingAt(3.5), kEpsilon);
+    assertEquals(40.0, history.getHeadingAt(10.0), kEpsilon);
+  }
+
+  @Test
+  public void interpolatesContinuousHeadingsPastOneEighty() {
+    HeadingHistory history = new HeadingHistory(4);
+    history.record(0.0, 170.0);
+    history.record(1.0, 190.0);
+
+    assertEquals(180.0, history.getHeadingAt(0.5), kEpsilon);
+  }
+
+  @Test
+  public void clearForgetsEverything() {
+    HeadingHistory history = new HeadingHistory(4);
+    history.record(1.0, 45.0);
+    history.clear();
+    assertEquals(0.0, history.getHeadingAt(1.0), kEpsilon);
+
+    history.record(2.0, 90.0);
+    assertEquals(90.0, history.getHeadingAt(1.0), kEpsilon);
+  }
+}
@@ -0,0 +1,125 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2019 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+package frc.robot.util;
+
+import static org.junit.Assert.*;
+
+import java.util.function.DoubleSupplier;
+
+import org.junit.Test;
+
+public class InputShaperTest {
+  private static final double kEpsilon = 1e-9;
+
+  @Test
+  public void passesThroughWithNoStages() {
+    InputShaper shaper = new InputShaper();
+    assertEquals(0.3, shaper.calculate(0.3), kEpsilon);
+    assertEquals(-1.0, shaper.calculate(-1.0), kEpsilon);
+    assertEquals(1.0, shaper.calculate(1.7), kEpsilon);   // clamped
+  }
+
+  @Test
+  public void deadbandZeroesTheCenterAndRescalesTheRest() {
+    InputShaper shaper = new InputShaper().withDeadband(0.1);
+    assertEquals(0.0, shaper.calculate(0.1), kEpsilon);
+    assertEquals(0.0, shaper.calculate(-0.05), kEpsilon);
+    assertEquals(0.5, shaper.calculate(0.55), kEpsilon);
+    assertEquals(-0.5, shaper.calculate(-0.55), kEpsilon);
+    assertEquals(1.0, shaper.calculate(1.0), kEpsilon);
+  }
+
+  @Test
+  public void expoSoftensTheMiddleButKeepsTheEnds() {
+    InputShaper shaper = new InputShaper().withExpo(0.6);
+    assertEquals(0.4 * 0.5 + 0.6 * 0.125, shaper.calculate(0.5), kEpsilon);
+    assertEquals(-(0.4 * 0.5 + 0.6 * 0.125), shaper.calculate(-0.5), kEpsilon);
+    assertEquals(1.0, shaper.calculate(1.0), kEpsilon);
+    assertEquals(0.0, shaper.calculate(0.0), kEpsilon);
+
+    InputShaper cubic = new InputShaper().withExpo(1.0);
+    assertEquals(0.125, cubic.calculate(0.5), kEpsilon);
+  }
+
+  @Test
+  public void deadbandComesBeforeExpo() {
+    InputShaper shaper = new InputShaper().withDeadband(0.2).withExpo(1.0);
+    assertEquals(0.125, shaper.calculate(0.6), kEpsilon);
+  }
+
+  @Test
+  public void precisionScalesWhileHeld() {
+    boolean[] held = {false};
+    InputShaper shaper = new InputShaper().withPrecision(0.4, () -> held[0]);
+    assertEquals(0.5, shaper.calculate(0.5), kEpsilon);
+
+    held[0] = true;
+    assertEquals(0.2, shaper.calculate(0.5), kEpsilon);
+    assertEquals(-0.4, shaper.calculate(-1.0), kEpsilon);
+  }
+
+  @Test
+  public void slewRateLimitsMovingAwayFromZero() {
+    InputShaper shaper = new InputShaper().withSlewRate(3.0);   // 0.06 per 20ms run
+
+    assertEquals(0.06, shaper.calculate(1.0), kEpsilon);
+    assertEquals(0.12, shaper.calculate(1.0), kEpsilon);
+
+    // Reaches full after 1/3 of a second
+    double value = 0;
+    for (int i = 0; i < 15; i++) {
+      value = shaper.calculate(1.0);
+    }
+    assertEquals(1.0, value, kEpsilon);
+  }
+
+  @Test
+  public void slewRateDoesNotLimitMovingTowardsZero() {
+    InputShaper shaper = new InputShaper().withSlewRate(3.0);
+    for (int i = 0; i < 20; i++) {
+      shaper.calculate(1.0);
+    }
+
+    assertEquals(0.2, shaper.calculate(0.2), kEpsilon);
+    assertEquals(0.0, shaper.calculate(0.0), kEpsilon);
+  }
+
+  @Test
+  public void slewRateReversalDropsToZeroThenIsLimited() {
+    InputShaper shaper = new InputShaper().withSlewRate(3.0);
+    for (int i = 0; i < 20; i++) {
+      shaper.calculate(1.0);
+    }
+
+    // Straight through zero, then only one step the other way
+    assertEquals(-0.06, shaper.calculate(-1.0), kEpsilon);
+    assertEquals(-0.12, shaper.calculate(-1.0), kEpsilon);
+  }
+
+  @Test
+  public void resetStartsTheSlewRateFromZero() {
+    InputShaper shaper = new InputShaper().withSlewRate(3.0);
+    shaper.calculate(1.0);
+    shaper.calculate(1.0);
+    shaper.reset();
+
+    assertEquals(0.06, shaper.calculate(1.0), kEpsilon);
+  }
+
+  @Test
+  public void shapeWrapsAnAxis() {
+    double[] axis = {0.0};
+    InputShaper shaper = new InputShaper().withDeadband(0.1);
+    DoubleSupplier shaped = shaper.shape(() -> axis[0]);
+
+    axis[0] = 0.05;
+    assertEquals(0.0, shaped.getAsDouble(), kEpsilon);
+    axis[0] = 1.0;
+    assertEquals(1.0, shaped.getAsDouble(), kEpsilon);
+  }
+}
@@ -0,0 +1,119 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2019 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+package frc.robot.vision;
+
+import static org.junit.Assert.*;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Checks the lookup table segments like cvtColor + inRange, on a sweep through BGR space
+ */
+public class HsvLookupTableTest {
+  private static final int kBinSize = 1 << (8 - HsvLookupTable.kBits);
+  private static final int kStep = 3;   // sweep every third level of each channel
+
+  private static final double[] kHue = {66.0, 100.0};
+  private static final double[] kSat = {66.0, 240.0};
+  private static final double[] kVal = {123.0, 255.0};
+
+  @BeforeClass
+  public static void loadOpenCv() {
+    System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+  }
+
+  @Test
+  public void matchesCvtColorAwayFromThresholds() {
+    checkSweep(kHue, kSat, kVal);
+  }
+
+  @Test
+  public void matchesCvtColorWithWrappedAroundRanges() {
+    // Reds, both ends of the hue range, and the full saturation and value ranges
+    checkSweep(new double[] {0.0, 10.0}, new double[] {0.0, 255.0}, new double[] {0.0, 255.0});
+    checkSweep(new double[] {170.0, 180.0}, new double[] {100.0, 255.0}, new double[] {50.0, 255.0});
+  }
+
+  @Test
+  public void rebuildsOnlyWhenTheThresholdsChange() {
+    HsvLookupTable table = new HsvLookupTable();
+    assertTrue(table.update(kHue, kSat, kVal));
+    assertFalse(table.update(kHue.clone(), kSat.clone(), kVal.clone()));
+    assertTrue(table.update(new double[] {60.0, 100.0}, kSat, kVal));
+  }
+
+  /**
+   * Segments every swept color both ways. Each color has to match cvtColor + inRange, unless
+   * it's within half a bin of a threshold: then the table gives the result for the center of
+   * the color's bin, which has to match cvtColor + inRange on that center instead.
+   */
+  private static void checkSweep(double[] hue, double[] sat, double[] val) {
+    final int levels = 256 / kStep + 1;
+    Mat colors = new Mat(levels * levels, levels, CvType.CV_8UC3);
+    Mat centers = new Mat(levels * levels, levels, CvType.CV_8UC3);
+    byte[] colorPixels = new byte[levels * levels * levels * 3];
+    byte[] centerPixels = new byte[colorPixels.length];
+
+    int i = 0;
+    for (int b = 0; b < levels; b++) {
+      for (int g = 0; g < levels; g++) {
+        for (int r = 0; r < levels; r++) {
+          final int[] bgr = {Math.min(255, b * kStep), Math.min(255, g * kStep), Math.min(255, r * kStep)};
+          for (int c = 0; c < 3; c++) {
+            colorPixels[i] = (byte)bgr[c];
+            centerPixels[i] = (byte)(bgr[c] / kBinSize * kBinSize + kBinSize / 2);
+            i++;
+          }
+        }
+      }
+    }
+    colors.put(0, 0, colorPixels);
+    centers.put(0, 0, centerPixels);
+
+    HsvLookupTable table = new HsvLookupTable();
+    table.update(hue, sat, val);
+    Mat tableMask = new Mat();
+    table.apply(colors, tableMask);
+
+    Mat colorMask = inRange(colors, hue, sat, val);
+    Mat centerMask = inRange(centers, hue, sat, val);
+
+    final int pixels = levels * levels * levels;
+    byte[] fromTable = new byte[pixels];
+    byte[] fromColor = new byte[pixels];
+    byte[] fromCenter = new byte[pixels];
+    tableMask.get(0, 0, fromTable);
+    colorMask.get(0, 0, fromColor);
+    centerMask.get(0, 0, fromCenter);
+
+    int nearThreshold = 0;
+    for (int p = 0; p < pixels; p++) {
+      assertEquals("bin center of pixel " + p, fromCenter[p], fromTable[p]);
+      if (fromTable[p] != fromColor[p]) {
+        // Only allowed when the color and its bin center are on opposite sides of a threshold
+        assertNotEquals(fromColor[p], fromCenter[p]);
+        nearThreshold++;
+      }
+    }
+    assertTrue("too many colors near a threshold: " + nearThreshold, nearThreshold < pixels / 10);
+  }
+
+  private static Mat inRange(Mat bgr, double[] hue, double[] sat, double[] val) {
+    Mat hsv = new Mat();
+    Mat mask = new Mat();
+    Imgproc.cvtColor(bgr, hsv, Imgproc.COLOR_BGR2HSV);
+    Core.inRange(hsv, new Scalar(hue[0], sat[0], val[0]), new Scalar(hue[1], sat[1], val[1]), mask);
+    return mask;
+  }
+}
@@ -0,0 +1,129 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2019 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+package frc.robot.vision;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Checks the pipelined stages (segment then locate) track the region of interest and time each
+ * frame like process() does
+ */
+public class PowerPortPipelineTest {
+  // A color inside the default HSV thresholds (cyan), on a black frame
+  private static final Scalar kTargetColor = new Scalar(220, 220, 40);
+
+  @BeforeClass
+  public static void loadOpenCv() {
+    System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+  }
+
+  @Test
+  public void stagesSearchTheRegionOfInterestLikeProcess() {
+    Mat frame = targetFrame(100, 80);
+
+    PowerPortPipeline whole = new PowerPortPipeline();
+    PowerPortPipeline staged = new PowerPortPipeline();
+    whole.suspendProcessing(false);
+    staged.suspendProcessing(false);
+
+    StagedVisionPipeline.FrameInfo info = new StagedVisionPipeline.FrameInfo(staged.stageCount());
+    Mat segmented = new Mat();
+
+    for (int i = 0; i < 3; i++) {
+      whole.process(frame);
+      staged.segment(frame, segmented, info);
+      staged.locate(segmented, info);
+
+      assertNotNull(whole.bestTarget());
+      assertNotNull(staged.bestTarget());
+      assertEquals(Arrays.toString(whole.bestTarget().toArray()), Arrays.toString(staged.bestTarget().toArray()));
+      assertEquals(whole.isRegionOfInterestFrame(), staged.isRegionOfInterestFrame());
+    }
+
+    // Only the first frame searched everything; the rest only thresholded around the target
+    assertEquals(1, staged.fullFrameCount());
+    assertEquals(2, staged.roiFrameCount());
+    assertTrue(segmented.cols() < frame.cols());
+    assertTrue(segmented.rows() < frame.rows());
+  }
+
+  @Test
+  public void stagesFallBackToTheFullFrameWhenTheTargetIsLost() {
+    PowerPortPipeline staged = new PowerPortPipeline();
+    staged.suspendProcessing(false);
+    StagedVisionPipeline.FrameInfo info = new StagedVisionPipeline.FrameInfo(staged.stageCount());
+    Mat segmented = new Mat();
+
+    Mat target = targetFrame(100, 80);
+    staged.segment(target, segmented, info);
+    staged.locate(segmented, info);
+
+    Mat empty = Mat.zeros(240, 320, CvType.CV_8UC3);
+    staged.segment(empty, segmented, info);
+    staged.locate(segmented, info);
+    assertTrue(staged.isRegionOfInterestFrame());
+    assertNull(staged.bestTarget());
+
+    // Found again somewhere else, since the whole frame is searched once it's lost
+    Mat moved = targetFrame(220, 150);
+    staged.segment(moved, segmented, info);
+    staged.locate(segmented, info);
+    assertFalse(staged.isRegionOfInterestFrame());
+    assertNotNull(staged.bestTarget());
+    assertEquals(2, staged.fullFrameCount());
+  }
+
+  @Test
+  public void locateReportsTheTimingsOfItsOwnFrame() {
+    PowerPortPipeline staged = new PowerPortPipeline();
+    staged.suspendProcessing(false);
+    StagedVisionPipeline.FrameInfo first = new StagedVisionPipeline.FrameInfo(staged.stageCount());
+    StagedVisionPipeline.FrameInfo second = new StagedVisionPipeline.FrameInfo(staged.stageCount());
+    Mat firstSegmented = new Mat();
+    Mat secondSegmented = new Mat();
+
+    // Segment the second frame before locating the first, as the runner's threads can
+    // (and suspend it, so none of its stages take any time)
+    Mat frame = targetFrame(100, 80);
+    staged.segment(frame, firstSegmented, first);
+    staged.suspendProcessing(true);
+    staged.segment(frame, secondSegmented, second);
+    staged.locate(firstSegmented, first);
+
+    for (PowerPortPipeline.Stage stage : PowerPortPipeline.Stage.values()) {
+      assertEquals(stage.name(), first.stageNanos[stage.ordinal()], staged.stageNanos(stage));
+    }
+    assertTrue(staged.stageNanos(PowerPortPipeline.Stage.kThreshold) > 0);
+
+    staged.locate(secondSegmented, second);
+    for (PowerPortPipeline.Stage stage : PowerPortPipeline.Stage.values()) {
+      assertEquals(stage.name(), 0, staged.stageNanos(stage));
+    }
+  }
+
+  /**
+   * @return a 320x240 frame with a U shaped target (like the Power Port's tape) at the given corner
+   */
+  private static Mat targetFrame(int x, int y) {
+    Mat frame = Mat.zeros(240, 320, CvType.CV_8UC3);
+    Imgproc.rectangle(frame, new Point(x, y), new Point(x + 59, y + 49), kTargetColor, -1);
+    Imgproc.rectangle(frame, new Point(x + 8, y), new Point(x + 51, y + 41), new Scalar(0, 0, 0), -1);
+    return frame;
+  }
+}
@@ -0,0 +1,125 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2019 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+package frc.robot.vision;
+
+import static org.junit.Assert.*;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+
+/**
+ * Projects the target's corners through a pinhole camera with the solver's intrinsics, from a
+ * pitched camera at a known height, and checks the solver gets the range, yaw and skew back
+ */
+public class PowerPortPoseSolverTest {
+  // The real target (inches), matching the solver's model
+  private static final double kTopWidth = 39.25;
+  private static final double kBottomWidth = 19.625;
+  private static final double kHeight = 17.0;
+  private static final double kCenterHeight = 98.25;   // above the floor
+
+  private static final double kCameraPitch = 25.0;     // degrees
+  private static final double kCameraHeight = 20.0;    // inches
+
+  // Corners are rounded to whole pixels, like a contour's
+  private static final double kRangeTolerance = 0.01;  // fraction of the range
+  private static final double kYawTolerance = 0.25;    // degrees
+  private static final double kSkewTolerance = 2.0;    // degrees
+  private static final double kHeightTolerance = 1.5;  // inches
+
+  @BeforeClass
+  public static void loadOpenCv() {
+    System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+  }
+
+  @Test
+  public void recoversTheRangeOfATargetStraightAhead() {
+    checkPose(150, 0, 0);
+    checkPose(250, 0, 0);
+  }
+
+  @Test
+  public void recoversTheYawOfATargetOffToTheSide() {
+    checkPose(150, 10, 0);
+    checkPose(200, -12, 0);
+  }
+
+  @Test
+  public void recoversTheSkewOfATargetTurnedAway() {
+    checkPose(150, 0, 30);
+    checkPose(180, 8, -25);
+  }
+
+  @Test
+  public void aLevelCameraModelOverestimatesTheRange() {
+    // Ignoring the pitch puts the height difference into the range
+    PowerPortPoseSolver level = new PowerPortPoseSolver(0, kCameraHeight);
+    assertTrue(level.solve(project(150, 0, 0)));
+    assertTrue(level.getRangeInches() > 150 * (1 + kRangeTolerance));
+  }
+
+  /**
+   * Projects a target and checks the solver's pose
+   * @param range the distance along the floor from the camera to the target's center (inches)
+   * @param yaw the angle to the target's center, positive right (degrees)
+   * @param skew the angle the target is turned about the vertical (degrees)
+   */
+  private static void checkPose(double range, double yaw, double skew) {
+    PowerPortPoseSolver solver = new PowerPortPoseSolver(kCameraPitch, kCameraHeight);
+    String pose = "range " + range + ", yaw " + yaw + ", skew " + skew;
+
+    assertTrue(pose, solver.solve(project(range, yaw, skew)));
+    assertTrue(solver.isValid());
+    assertEquals(pose, range, solver.getRangeInches(), range * kRangeTolerance);
+    assertEquals(pose, yaw, solver.getYawDegrees(), kYawTolerance);
+    assertEquals(pose, skew, solver.getSkewDegrees(), kSkewTolerance);
+    assertEquals(pose, kCenterHeight, solver.getTargetHeightInches(), kHeightTolerance);
+  }
+
+  /**
+   * @return the target's outline as the camera would see it: top left, top right, bottom right, bottom left
+   */
+  private static MatOfPoint project(double range, double yaw, double skew) {
+    // Level frame at the camera: right, forward, up
+    final double yawRadians = Math.toRadians(yaw);
+    final double skewRadians = Math.toRadians(skew);
+    final double[] center = {range * Math.sin(yawRadians), range * Math.cos(yawRadians), kCenterHeight - kCameraHeight};
+
+    // Along the target to the right, and down it
+    final double[] across = {Math.cos(skewRadians), -Math.sin(skewRadians), 0};
+    final double[] down = {0, 0, -1};
+
+    final double top = -kHeight / 2;
+    final double bottom = kHeight / 2;
+    final double[][] corners = {
+      {-kTopWidth / 2, top}, {kTopWidth / 2, top}, {kBottomWidth / 2, bottom}, {-kBottomWidth / 2, bottom}
+    };
+
+    final double cosPitch = Math.cos(Math.toRadians(kCameraPitch));
+    final double sinPitch = Math.sin(Math.toRadians(kCameraPitch));
+    Point[] points = new Point[corners.length];
+    for (int i = 0; i < corners.length; i++) {
+      final double right = center[0] + corners[i][0] * across[0] + corners[i][1] * down[0];
+      final double forward = center[1] + corners[i][0] * across[1] + corners[i][1] * down[1];
+      final double up = center[2] + corners[i][0] * across[2] + corners[i][1] * down[2];
+
+      // Into the pitched camera's frame: x right, y down, z out of the lens
+      final double x = right;
+      final double y = forward * sinPitch - up * cosPitch;
+      final double z = forward * cosPitch + up * sinPitch;
+
+      points[i] = new Point(
+        Math.round(PowerPortPoseSolver.kFocalLengthX * x / z + PowerPortPoseSolver.kPrincipalPointX),
+        Math.round(PowerPortPoseSolver.kFocalLengthY * y / z + PowerPortPoseSolver.kPrincipalPointY));
+    }
+    return new MatOfPoint(points);
+  }
+}
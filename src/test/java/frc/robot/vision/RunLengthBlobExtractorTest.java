@@ -0,0 +1,273 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2019 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+package frc.robot.vision;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.imgproc.Moments;
+
+/**
+ * Checks the blob prefilter only ever wipes blobs whose contours the size checks would have
+ * thrown away anyway, whatever the area and ratio bounds, on masks full of specks, lines, solid
+ * shapes and rings (whose holes are contours of their own under RETR_LIST)
+ */
+public class RunLengthBlobExtractorTest {
+  // PowerPortPipeline's size checks
+  private static final double kMinArea = 20.0;
+  private static final double kMinWidth = 20.0;
+  private static final double kMinHeight = 20.0;
+  private static final double kMinRatio = 0.0;
+
+  private static final int kWidth = 320;
+  private static final int kHeight = 240;
+  private static final Scalar kSet = new Scalar(255);
+
+  @BeforeClass
+  public static void loadOpenCv() {
+    System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+  }
+
+  @Test
+  public void keepsExactlyTheContoursThatPassTheSizeChecks() {
+    Random random = new Random(2020);
+    RunLengthBlobExtractor extractor = new RunLengthBlobExtractor();
+
+    for (int frame = 0; frame < 50; frame++) {
+      Mat mask = randomMask(random);
+      List<String> expected = sizedContours(mask);
+
+      extractor.extract(mask);
+      Mat cleaned = new Mat();
+      extractor.retain(kMinWidth, kMinHeight, cleaned);
+
+      assertEquals("frame " + frame, expected, sizedContours(cleaned));
+
+      // Wiping is all it does: every pixel left was set in the mask
+      Mat added = new Mat();
+      Core.subtract(cleaned, mask, added);
+      assertEquals(0, Core.countNonZero(added));
+    }
+  }
+
+  @Test
+  public void keepsRingsAndTheirHoles() {
+    Mat mask = Mat.zeros(kHeight, kWidth, CvType.CV_8UC1);
+    Imgproc.rectangle(mask, new Point(40, 40), new Point(120, 100), kSet, 4);  // big ring, big hole
+    Imgproc.circle(mask, new Point(200, 60), 6, kSet, 2);                      // small ring, small hole
+    Imgproc.rectangle(mask, new Point(70, 65), new Point(72, 67), kSet, -1);   // speck inside the big hole
+    Imgproc.circle(mask, new Point(250, 180), 30, kSet, 3);                    // ring with a big blob inside
+    Imgproc.circle(mask, new Point(250, 180), 15, kSet, -1);
+
+    RunLengthBlobExtractor extractor = new RunLengthBlobExtractor();
+    assertEquals(5, extractor.extract(mask));
+    Mat cleaned = new Mat();
+    assertEquals(3, extractor.retain(kMinWidth, kMinHeight, cleaned));
+
+    List<String> kept = sizedContours(cleaned);
+    assertEquals(sizedContours(mask), kept);
+    // Outer and hole contours of both big rings, plus the blob inside the second
+    assertEquals(5, kept.size());
+  }
+
+  @Test
+  public void keepsHolesThatPassTheAreaAndRatioChecksWhenTheirRingDoesnt() {
+    Mat thinRing = Mat.zeros(kHeight, kWidth, CvType.CV_8UC1);
+    Imgproc.rectangle(thinRing, new Point(20, 20), new Point(100, 80), kSet, 1);     // few pixels, big hole
+    Mat wideRing = Mat.zeros(kHeight, kWidth, CvType.CV_8UC1);
+    Imgproc.rectangle(wideRing, new Point(160, 100), new Point(220, 130), kSet, 5);  // hole is wider for its height
+
+    // The thin ring has fewer pixels than its hole's area; the wide ring is less wide for its height than its hole
+    assertHoleKept(thinRing, 1000.0, kMinRatio);
+    assertHoleKept(wideRing, kMinArea, 2.0);
+  }
+
+  @Test
+  public void keepsTheContoursThatPassAnyAreaAndRatioChecks() {
+    Random random = new Random(4026);
+    RunLengthBlobExtractor extractor = new RunLengthBlobExtractor();
+
+    for (int frame = 0; frame < 20; frame++) {
+      Mat mask = randomMask(random);
+      extractor.extract(mask);
+      Mat cleaned = new Mat();
+      extractor.retain(kMinWidth, kMinHeight, cleaned);
+
+      for (double minArea : new double[] {kMinArea, 200.0, 1000.0}) {
+        for (double minRatio : new double[] {kMinRatio, 1.0, 2.0}) {
+          assertEquals("frame " + frame + ", area " + minArea + ", ratio " + minRatio,
+            sizedContours(mask, minArea, minRatio), sizedContours(cleaned, minArea, minRatio));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void matchesConnectedComponents() {
+    Random random = new Random(254);
+    RunLengthBlobExtractor extractor = new RunLengthBlobExtractor();
+
+    for (int frame = 0; frame < 20; frame++) {
+      Mat mask = randomMask(random);
+      Mat labels = new Mat();
+      Mat stats = new Mat();
+      Mat centroids = new Mat();
+      final int components = Imgproc.connectedComponentsWithStats(mask, labels, stats, centroids, 8, CvType.CV_32S);
+      assertEquals(components - 1, extractor.extract(mask));
+
+      // Component 0 is the background; the labels aren't necessarily in the same order as the blobs
+      TreeSet<String> expected = new TreeSet<>();
+      for (int component = 1; component < components; component++) {
+        expected.add(describeBlob((int)stats.get(component, Imgproc.CC_STAT_LEFT)[0], 
+          (int)stats.get(component, Imgproc.CC_STAT_TOP)[0], (int)stats.get(component, Imgproc.CC_STAT_WIDTH)[0], 
+          (int)stats.get(component, Imgproc.CC_STAT_HEIGHT)[0], (long)stats.get(component, Imgproc.CC_STAT_AREA)[0], 
+          centroids.get(component, 0)[0], centroids.get(component, 1)[0]));
+      }
+      TreeSet<String> actual = new TreeSet<>();
+      for (int blob = 0; blob < extractor.getBlobCount(); blob++) {
+        actual.add(describeBlob(extractor.getLeft(blob), extractor.getTop(blob), extractor.getWidth(blob), 
+          extractor.getHeight(blob), extractor.getArea(blob), extractor.getCentroidX(blob), extractor.getCentroidY(blob)));
+      }
+      assertEquals(expected, actual);
+    }
+  }
+
+  @Test
+  public void centralMomentsMatchImageMoments() {
+    Mat mask = Mat.zeros(kHeight, kWidth, CvType.CV_8UC1);
+    Imgproc.ellipse(mask, new Point(150, 110), new Size(60, 25), 30, 0, 360, kSet, -1);
+
+    RunLengthBlobExtractor extractor = new RunLengthBlobExtractor();
+    assertEquals(1, extractor.extract(mask));
+
+    Moments moments = Imgproc.moments(mask, true);
+    assertEquals(moments.m00, extractor.getArea(0), 0.0);
+    assertEquals(moments.mu20, extractor.getMu20(0), 1e-6 * moments.mu20);
+    assertEquals(moments.mu02, extractor.getMu02(0), 1e-6 * moments.mu02);
+    assertEquals(moments.mu11, extractor.getMu11(0), 1e-6 * Math.abs(moments.mu11));
+  }
+
+  @Test
+  public void pipelineFindsTheSameTargetsWithThePrefilter() {
+    Random random = new Random(1);
+    PowerPortPipeline plain = new PowerPortPipeline();
+    PowerPortPipeline prefiltered = new PowerPortPipeline();
+    prefiltered.setBlobPrefilter(true);
+
+    for (int frame = 0; frame < 20; frame++) {
+      Mat mask = randomMask(random);
+      plain.locate(mask.clone(), new StagedVisionPipeline.FrameInfo(plain.stageCount()));
+      prefiltered.locate(mask.clone(), new StagedVisionPipeline.FrameInfo(prefiltered.stageCount()));
+
+      assertEquals(describe(plain.filterContoursOutput()), describe(prefiltered.filterContoursOutput()));
+      assertTrue(prefiltered.findContoursOutput().size() <= plain.findContoursOutput().size());
+      assertEquals(plain.bestTarget() == null, prefiltered.bestTarget() == null);
+      if (plain.bestTarget() != null) {
+        assertEquals(Arrays.toString(plain.bestTarget().toArray()), Arrays.toString(prefiltered.bestTarget().toArray()));
+      }
+    }
+  }
+
+  /**
+   * Checks the prefilter keeps a ring that fails the given bounds, and the contours that pass them
+   */
+  private static void assertHoleKept(Mat mask, double minArea, double minRatio) {
+    RunLengthBlobExtractor extractor = new RunLengthBlobExtractor();
+    assertEquals(1, extractor.extract(mask));
+    final double ratio = extractor.getWidth(0) / (double)extractor.getHeight(0);
+    assertFalse(extractor.getArea(0) >= minArea && ratio >= minRatio);
+
+    Mat cleaned = new Mat();
+    assertEquals(1, extractor.retain(kMinWidth, kMinHeight, cleaned));
+    List<String> expected = sizedContours(mask, minArea, minRatio);
+    assertFalse(expected.isEmpty());
+    assertEquals(expected, sizedContours(cleaned, minArea, minRatio));
+  }
+
+  private static List<String> sizedContours(Mat mask) {
+    return sizedContours(mask, kMinArea, kMinRatio);
+  }
+
+  /**
+   * @return the contours (outer and holes) that pass the size checks, each as its list of points, sorted
+   */
+  private static List<String> sizedContours(Mat mask, double minArea, double minRatio) {
+    List<MatOfPoint> contours = new ArrayList<>();
+    Imgproc.findContours(mask.clone(), contours, new Mat(), Imgproc.RETR_LIST, Imgproc.CHAIN_APPROX_SIMPLE);
+
+    List<MatOfPoint> sized = new ArrayList<>();
+    for (MatOfPoint contour : contours) {
+      final Rect bb = Imgproc.boundingRect(contour);
+      if (bb.width >= kMinWidth && bb.height >= kMinHeight && bb.width / (double)bb.height >= minRatio
+          && Imgproc.contourArea(contour) >= minArea) {
+        sized.add(contour);
+      }
+    }
+    return describe(sized);
+  }
+
+  private static String describeBlob(int left, int top, int width, int height, long area, double x, double y) {
+    return String.format("%d,%d %dx%d area %d at %.4f,%.4f", left, top, width, height, area, x, y);
+  }
+
+  private static List<String> describe(List<MatOfPoint> contours) {
+    TreeSet<String> sorted = new TreeSet<>();
+    for (MatOfPoint contour : contours) {
+      sorted.add(Arrays.toString(contour.toArray()));
+    }
+    return new ArrayList<>(sorted);
+  }
+
+  /**
+   * A noisy mask: lots of specks, some thin lines, solid shapes and rings, some inside each other
+   */
+  private static Mat randomMask(Random random) {
+    Mat mask = Mat.zeros(kHeight, kWidth, CvType.CV_8UC1);
+
+    for (int i = 0; i < 200; i++) {
+      final int x = random.nextInt(kWidth);
+      final int y = random.nextInt(kHeight);
+      Imgproc.rectangle(mask, new Point(x, y), new Point(x + random.nextInt(3), y + random.nextInt(3)), kSet, -1);
+    }
+    for (int i = 0; i < 8; i++) {
+      Imgproc.line(mask, randomPoint(random), randomPoint(random), kSet, 1);
+    }
+    for (int i = 0; i < 6; i++) {
+      final Point center = randomPoint(random);
+      final Size axes = new Size(3 + random.nextInt(40), 3 + random.nextInt(40));
+      final int thickness = random.nextBoolean() ? -1 : 1 + random.nextInt(4);
+      Imgproc.ellipse(mask, center, axes, random.nextInt(180), 0, 360, kSet, thickness);
+    }
+    for (int i = 0; i < 4; i++) {
+      final Point corner = randomPoint(random);
+      final Point opposite = new Point(corner.x + 5 + random.nextInt(60), corner.y + 5 + random.nextInt(40));
+      Imgproc.rectangle(mask, corner, opposite, kSet, 2 + random.nextInt(3));
+    }
+    return mask;
+  }
+
+  private static Point randomPoint(Random random) {
+    return new Point(random.nextInt(kWidth), random.nextInt(kHeight));
+  }
+}
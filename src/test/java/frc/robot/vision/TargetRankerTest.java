@@ -0,0 +1,119 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2019 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+package frc.robot.vision;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TargetRankerTest {
+  // A candidate shaped just like the real target: 39.25" x 17", 30% solid
+  private static final double kWidth = 78.5;
+  private static final double kHeight = 34.0;
+  private static final double kSolidity = 30.0;
+  private static final double kArea = kWidth * kHeight * kSolidity / 100.0;
+
+  private static final int kLockFrames = 5;
+
+  @Test
+  public void noCandidatesGivesNoTarget() {
+    TargetRanker ranker = new TargetRanker();
+    assertEquals(-1, ranker.rank());
+    assertEquals(-1, ranker.getBest());
+    assertEquals(0.0, ranker.getConfidence(), 0.0);
+    assertFalse(ranker.isLocked());
+  }
+
+  @Test
+  public void picksTheTargetOverReflections() {
+    TargetRanker ranker = new TargetRanker();
+    ranker.add(kArea * 0.5, 20.0, 60.0, 90.0, 50.0, 50.0);    // tall, solid light
+    ranker.add(kArea, kWidth, kHeight, kSolidity, 160.0, 90.0);
+    ranker.add(kArea * 0.8, 90.0, 10.0, 70.0, 250.0, 200.0);  // flat strip of glare
+
+    assertEquals(1, ranker.rank());
+    assertEquals(1, ranker.getBest());
+    assertTrue(ranker.isLocked());
+  }
+
+  @Test
+  public void loneTargetGetsItsFullScore() {
+    TargetRanker ranker = new TargetRanker();
+    ranker.add(kArea, kWidth, kHeight, kSolidity, 160.0, 90.0);
+    ranker.rank();
+
+    // Perfect area, ratio and solidity, plus the neutral lock score
+    assertEquals(0.3 + 0.25 + 0.2 + 0.25 * 0.5, ranker.getConfidence(), 1e-9);
+  }
+
+  @Test
+  public void lookAlikesLowerTheConfidence() {
+    TargetRanker ranker = new TargetRanker();
+    ranker.add(kArea, kWidth, kHeight, kSolidity, 160.0, 90.0);
+    ranker.rank();
+    final double alone = ranker.getConfidence();
+
+    ranker.resetLock();
+    ranker.clear();
+    ranker.add(kArea, kWidth, kHeight, kSolidity, 60.0, 90.0);
+    ranker.add(kArea, kWidth, kHeight, kSolidity, 260.0, 90.0);
+    ranker.rank();
+    assertTrue(ranker.getConfidence() < alone);
+  }
+
+  @Test
+  public void prefersTheCandidateNearestTheLock() {
+    TargetRanker ranker = new TargetRanker();
+    ranker.add(kArea, kWidth, kHeight, kSolidity, 100.0, 100.0);
+    ranker.rank();
+    assertTrue(ranker.isLocked());
+
+    // Two identical candidates: the one where the lock is wins, whichever order they come in
+    ranker.clear();
+    ranker.add(kArea, kWidth, kHeight, kSolidity, 300.0, 100.0);
+    ranker.add(kArea, kWidth, kHeight, kSolidity, 105.0, 100.0);
+    assertEquals(1, ranker.rank());
+  }
+
+  @Test
+  public void lockSurvivesAFewEmptyFrames() {
+    TargetRanker ranker = new TargetRanker();
+    ranker.add(kArea, kWidth, kHeight, kSolidity, 100.0, 100.0);
+    ranker.rank();
+
+    for (int i = 0; i < kLockFrames; i++) {
+      ranker.clear();
+      assertEquals(-1, ranker.rank());
+      assertTrue("lock lost after " + (i + 1) + " empty frames", ranker.isLocked());
+    }
+
+    ranker.clear();
+    ranker.rank();
+    assertFalse(ranker.isLocked());
+  }
+
+  @Test
+  public void resetLockDropsTheLock() {
+    TargetRanker ranker = new TargetRanker();
+    ranker.add(kArea, kWidth, kHeight, kSolidity, 100.0, 100.0);
+    ranker.rank();
+    ranker.resetLock();
+    assertFalse(ranker.isLocked());
+  }
+
+  @Test
+  public void growsPastItsInitialCapacity() {
+    TargetRanker ranker = new TargetRanker();
+    for (int i = 0; i < 40; i++) {
+      ranker.add(kArea * 0.5, 20.0, 60.0, 90.0, i * 10.0, 50.0);
+    }
+    ranker.add(kArea, kWidth, kHeight, kSolidity, 160.0, 90.0);
+
+    assertEquals(40, ranker.rank());
+  }
+}
@@ -0,0 +1,127 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2019 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+package frc.robot.vision;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TargetTrackerTest {
+  private static final double kPeriod = 0.02;       // scheduler period
+  private static final double kFramePeriod = 0.04;  // a camera frame every other run
+
+  @Test
+  public void hasNoTargetUntilTheFirstMeasurement() {
+    TargetTracker tracker = new TargetTracker();
+    tracker.predict(90.0, kPeriod);
+    assertFalse(tracker.hasTarget(0.0));
+    assertEquals(0.0, tracker.getAngle(), 0.0);
+
+    tracker.correct(12.0, 1.0);
+    assertTrue(tracker.hasTarget(1.0));
+    assertEquals(12.0, tracker.getAngle(), 0.0);
+    assertEquals(1.0, tracker.getStdDev(), 1e-9);
+  }
+
+  @Test
+  public void predictFollowsTheTurnRateAndGrowsTheVariance() {
+    TargetTracker tracker = new TargetTracker();
+    tracker.correct(0.0, 0.0);
+    tracker.predict(30.0, 0.1);
+
+    assertEquals(3.0, tracker.getAngle(), 1e-9);
+    // 1 from the measurement, plus (4 + (0.05 * 30)^2) per second of prediction
+    assertEquals(Math.sqrt(1.0 + (4.0 + 1.5 * 1.5) * 0.1), tracker.getStdDev(), 1e-9);
+  }
+
+  @Test
+  public void convergesOnAStationaryTarget() {
+    final double trueAngle = 10.0;
+    Random random = new Random(2020);
+
+    TargetTracker tracker = new TargetTracker();
+    double time = 0;
+    double lastStdDev = Double.MAX_VALUE;
+    for (int i = 0; i < 100; i++) {
+      tracker.predict(0.0, kFramePeriod);
+      time += kFramePeriod;
+      tracker.correct(trueAngle + random.nextGaussian(), time);
+      if (i < 5) {
+        assertTrue("variance should shrink while measurements come in", tracker.getStdDev() < lastStdDev);
+        lastStdDev = tracker.getStdDev();
+      }
+    }
+
+    // Settles well below a single 1 degree measurement
+    assertEquals(trueAngle, tracker.getAngle(), 0.5);
+    assertEquals(0.57, tracker.getStdDev(), 0.01);
+  }
+
+  @Test
+  public void tracksTheTargetWhileTurning() {
+    final double turnRate = -45.0;
+    Random random = new Random(254);
+
+    TargetTracker tracker = new TargetTracker();
+    double trueAngle = 20.0;
+    double time = 0;
+    for (int i = 0; i < 100; i++) {
+      tracker.predict(turnRate, kPeriod);
+      trueAngle += turnRate * kPeriod;
+      time += kPeriod;
+      if (i % 2 == 0) {
+        tracker.correct(trueAngle + 0.5 * random.nextGaussian(), time);
+      }
+      else {
+        // Between frames the prediction alone should stay on the target
+        assertTrue(i < 10 || Math.abs(tracker.getAngle() - trueAngle) < 1.0);
+      }
+    }
+    assertEquals(trueAngle, tracker.getAngle(), 1.0);
+    assertTrue(tracker.hasTarget(time));
+  }
+
+  @Test
+  public void losesTheTargetWhenMeasurementsStop() {
+    TargetTracker tracker = new TargetTracker();
+    tracker.correct(5.0, 1.0);
+
+    assertTrue(tracker.hasTarget(1.0));
+    assertTrue(tracker.hasTarget(1.49));
+    assertFalse(tracker.hasTarget(1.5));
+
+    // A new measurement brings it back
+    tracker.correct(5.0, 2.0);
+    assertTrue(tracker.hasTarget(2.1));
+  }
+
+  @Test
+  public void losesTheTargetWhenTooUncertain() {
+    TargetTracker tracker = new TargetTracker();
+    tracker.correct(0.0, 1.0);
+
+    // Turning hard adds (4 + (0.05 * 200)^2) = 104 degrees^2 a second, so 0.25s takes it past 5 degrees
+    tracker.predict(200.0, 0.25);
+    assertTrue(tracker.getStdDev() > 5.0);
+    assertFalse(tracker.hasTarget(1.25));
+  }
+
+  @Test
+  public void resetForgetsTheTarget() {
+    TargetTracker tracker = new TargetTracker();
+    tracker.correct(5.0, 1.0);
+    tracker.reset();
+    assertFalse(tracker.hasTarget(1.0));
+
+    // The next measurement starts over rather than being blended with the old estimate
+    tracker.correct(-8.0, 1.1);
+    assertEquals(-8.0, tracker.getAngle(), 0.0);
+  }
+}
@@ -0,0 +1,130 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2019 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+package frc.robot.simulation;
+
+import edu.wpi.first.hal.HAL;
+import edu.wpi.first.hal.sim.DriverStationSim;
+import edu.wpi.first.hal.sim.mockdata.SimulatorJNI;
+import edu.wpi.first.wpilibj.geometry.Pose2d;
+import edu.wpi.first.wpilibj.trajectory.Trajectory;
+import edu.wpi.first.wpilibj2.command.Command;
+import edu.wpi.first.wpilibj2.command.CommandScheduler;
+import frc.robot.commands.FollowTrajectoryCommand;
+import frc.robot.subsystems.DriveSubsystem;
+import frc.robot.trajectory.AutoTrajectories;
+import frc.robot.trajectory.TrajectoryCache;
+
+import static frc.robot.Constants.*;
+
+/**
+ * A desktop entry point that drives the autonomous trajectories on the simulated drivetrain,
+ * faster than real time, and scores how well they were followed (see the simulateAuto task in
+ * build.gradle).
+ *
+ * <p>The simulated clock is paused and stepped by hand, a sensor loop period at a time, with the
+ * command scheduler run every robot period, so a 15 second routine takes milliseconds. Only the
+ * drive subsystem is built (the rest of RobotContainer needs hardware that isn't simulated).
+ */
+public final class AutonomousSimulation {
+  private static final double kRobotPeriod = 0.02;      // seconds, TimedRobot's default
+  private static final double kTimeout = 15.0;          // seconds, the length of autonomous
+
+  private AutonomousSimulation() {
+  }
+
+  /**
+   * Simulates the autonomous routines and prints a score for each.
+   * Usage: AutonomousSimulation [routine...] (e.g. OffLine; all of them if none are given)
+   * Exits with 1 if a routine doesn't finish in time.
+   */
+  public static void main(String[] args) {
+    AutoTrajectories[] routines = AutoTrajectories.values();
+    if (args.length > 0) {
+      routines = new AutoTrajectories[args.length];
+      for (int i = 0; i < args.length; i++) {
+        routines[i] = AutoTrajectories.valueOf("k" + args[i]);
+      }
+    }
+
+    if (!HAL.initialize(500, 0)) {
+      throw new IllegalStateException("Failed to initialize the HAL");
+    }
+    SimulatorJNI.pauseTiming();
+
+    DriverStationSim driverStation = new DriverStationSim();
+    driverStation.setDsAttached(true);
+    driverStation.setAutonomous(true);
+    driverStation.setEnabled(true);
+    driverStation.notifyNewData();
+
+    DriveSubsystem drive = new DriveSubsystem();
+    drive.stopSensorLoop();
+    drive.setMaxOutput(DriveConstants.kMaxDriveOutput);
+    TrajectoryCache cache = new TrajectoryCache();
+
+    boolean allFinished = true;
+    for (AutoTrajectories routine : routines) {
+      allFinished &= simulate(drive, cache, routine);
+    }
+    System.exit(allFinished ? 0 : 1);
+  }
+
+  /**
+   * Runs one routine from the origin and prints its score
+   * @return whether it finished before the timeout
+   */
+  private static boolean simulate(DriveSubsystem drive, TrajectoryCache cache, AutoTrajectories routine) {
+    drive.resetSimulation();
+    final DrivetrainSim robot = drive.getSimulation();
+    final Trajectory trajectory = cache.get(routine);
+    final Command command = new FollowTrajectoryCommand(drive, cache, routine);
+
+    final int stepsPerRun = (int)Math.round(kRobotPeriod / DriveConstants.kSensorLoopPeriod);
+    final long stepMicros = Math.round(DriveConstants.kSensorLoopPeriod * 1e6);
+    final long wallStart = System.nanoTime();
+
+    // Where the robot really is against where the trajectory says it should be, every run
+    double sumSquaredError = 0;
+    double maxError = 0;
+    int runs = 0;
+
+    command.schedule();
+    double time = 0;
+    while (command.isScheduled() && time < kTimeout) {
+      CommandScheduler.getInstance().run();
+      for (int i = 0; i < stepsPerRun; i++) {
+        SimulatorJNI.stepTiming(stepMicros);
+        drive.simulationStep(DriveConstants.kSensorLoopPeriod);
+      }
+      time += stepsPerRun * DriveConstants.kSensorLoopPeriod;
+
+      final Pose2d expected = trajectory.sample(time).poseMeters;
+      final double error = Math.hypot(robot.getX() - expected.getTranslation().getX(),
+        robot.getY() - expected.getTranslation().getY());
+      sumSquaredError += error * error;
+      maxError = Math.max(maxError, error);
+      runs++;
+    }
+    final boolean finished = !command.isScheduled();
+    command.cancel();
+    drive.stop();
+
+    final Pose2d goal = trajectory.sample(trajectory.getTotalTimeSeconds()).poseMeters;
+    final double endError = Math.hypot(robot.getX() - goal.getTranslation().getX(),
+      robot.getY() - goal.getTranslation().getY());
+    final double headingError = Math.toDegrees(Math.IEEEremainder(
+      robot.getHeading() - goal.getRotation().getRadians(), 2 * Math.PI));
+
+    System.out.printf("%s: %s in %.2f s (trajectory %.2f s), simulated in %d ms%n",
+      routine.name().substring(1), finished ? "finished" : "TIMED OUT", time,
+      trajectory.getTotalTimeSeconds(), (System.nanoTime() - wallStart) / 1000000);
+    System.out.printf("  tracking error %.3f m rms, %.3f m max; ended %.3f m and %.1f deg off%n",
+      Math.sqrt(sumSquaredError / Math.max(runs, 1)), maxError, endError, headingError);
+    return finished;
+  }
+}
@@ -0,0 +1,47 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2019 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+package frc.robot.trajectory;
+
+import java.io.File;
+import java.io.IOException;
+
+import edu.wpi.first.wpilibj.trajectory.Trajectory;
+
+/**
+ * Desktop tool that generates every one of the {@link AutoTrajectories} into a directory, for
+ * the {@link TrajectoryCache} to load on the robot (see the generateTrajectories task in
+ * build.gradle).
+ */
+public final class AutoTrajectoryGenerator {
+  private AutoTrajectoryGenerator() {
+  }
+
+  /**
+   * Generates every trajectory into a directory.
+   * Usage: AutoTrajectoryGenerator &lt;output directory&gt;
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length != 1) {
+      System.err.println("Usage: AutoTrajectoryGenerator <output directory>");
+      System.exit(2);
+    }
+
+    File directory = new File(args[0]);
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Can't create " + directory);
+    }
+
+    for (AutoTrajectories routine : AutoTrajectories.values()) {
+      Trajectory trajectory = routine.generate();
+      File file = new File(directory, routine.fileName());
+      TrajectoryCache.write(file, routine.fingerprint(), trajectory);
+      System.out.printf("%s: %d states, %.2f s, %d bytes%n", file, trajectory.getStates().size(),
+        trajectory.getTotalTimeSeconds(), file.length());
+    }
+  }
+}
@@ -0,0 +1,197 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2019 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+package frc.robot.vision;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Desktop tool that times the contour filter of the {@link PowerPortPipeline} on frames with
+ * hundreds of contours, the case the filter ordering is for (a noisy frame full of specks and
+ * reflections, with the target somewhere in it).
+ *
+ * <p>The frames are generated from a fixed seed, so runs are comparable: specks (rejected on
+ * size), convex blobs (rejected on concavity), rings and L shapes (which get as far as the
+ * perimeter and solidity checks) and one Power Port shaped U. Run it with the
+ * contourBenchmark gradle task:
+ * <pre>
+ *   ./gradlew contourBenchmark -PopencvLibDir=/path/to/natives [-PcontourArgs="--shapes 1000"]
+ * </pre>
+ * Options:
+ * <ul>
+ *   <li>--shapes N: shapes drawn in each frame (default 600)</li>
+ *   <li>--frames N: number of different frames (default 20)</li>
+ *   <li>--repeat N: number of passes over the frames to time (default 20)</li>
+ *   <li>--warmup N: number of untimed passes first (default 5)</li>
+ *   <li>--seed N: random seed for the frames (default 2020)</li>
+ *   <li>--p99-budget-ms X: exit with status 1 if the filter stage's p99 is over X milliseconds</li>
+ * </ul>
+ */
+public final class ContourFilterBenchmark {
+  private static final int kWidth = 320;
+  private static final int kHeight = 240;
+
+  private ContourFilterBenchmark() {
+  }
+
+  static {
+    System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+  }
+
+  public static void main(String... args) {
+    int shapes = 600;
+    int frameCount = 20;
+    int repeat = 20;
+    int warmup = 5;
+    long seed = 2020;
+    double p99BudgetMs = Double.NaN;
+
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+        case "--shapes": shapes = Integer.parseInt(args[++i]); break;
+        case "--frames": frameCount = Integer.parseInt(args[++i]); break;
+        case "--repeat": repeat = Integer.parseInt(args[++i]); break;
+        case "--warmup": warmup = Integer.parseInt(args[++i]); break;
+        case "--seed": seed = Long.parseLong(args[++i]); break;
+        case "--p99-budget-ms": p99BudgetMs = Double.parseDouble(args[++i]); break;
+        default:
+          System.err.println("Unknown option " + args[i]);
+          System.err.println("Usage: ContourFilterBenchmark [--shapes N] [--frames N] [--repeat N] "
+            + "[--warmup N] [--seed N] [--p99-budget-ms X]");
+          System.exit(2);
+      }
+    }
+
+    final Random random = new Random(seed);
+    final Scalar color = targetColor();
+    List<Mat> frames = new ArrayList<>();
+    for (int i = 0; i < frameCount; i++) {
+      frames.add(drawFrame(random, color, shapes));
+    }
+
+    // Every frame is searched in full, with nothing wiped before findContours
+    PowerPortPipeline pipeline = new PowerPortPipeline();
+    pipeline.suspendProcessing(false);
+    pipeline.setRegionOfInterestTracking(false);
+    pipeline.setBlobPrefilter(false);
+    pipeline.setPoseSolving(false);
+
+    long contoursFound = 0;
+    long targetsKept = 0;
+    for (Mat frame : frames) {
+      pipeline.process(frame);
+      contoursFound += pipeline.findContoursOutput().size();
+      targetsKept += pipeline.filterContoursOutput().size();
+    }
+
+    for (int pass = 0; pass < warmup; pass++) {
+      for (Mat frame : frames) {
+        pipeline.process(frame);
+      }
+    }
+
+    final int samples = repeat * frames.size();
+    long[] filterNanos = new long[samples];
+    long[] findNanos = new long[samples];
+    int sample = 0;
+    for (int pass = 0; pass < repeat; pass++) {
+      for (Mat frame : frames) {
+        pipeline.process(frame);
+        filterNanos[sample] = pipeline.stageNanos(PowerPortPipeline.Stage.kFilterContours);
+        findNanos[sample] = pipeline.stageNanos(PowerPortPipeline.Stage.kFindContours);
+        sample++;
+      }
+    }
+
+    final double contoursPerFrame = contoursFound / (double)frames.size();
+    System.out.printf("%d frames x %d passes, %.0f contours and %.1f targets kept per frame%n",
+      frames.size(), repeat, contoursPerFrame, targetsKept / (double)frames.size());
+    System.out.printf("%-16s %9s %9s %9s%n", "stage (ms)", "p50", "p95", "p99");
+    FrameReplayBenchmark.printPercentiles("FindContours", findNanos);
+    final double filterP99Ms = FrameReplayBenchmark.printPercentiles("FilterContours", filterNanos);
+
+    long sum = 0;
+    for (long nanos : filterNanos) {
+      sum += nanos;
+    }
+    System.out.printf("Filter cost: %.0f ns per contour%n", sum / (double)samples / Math.max(contoursPerFrame, 1));
+
+    if (!Double.isNaN(p99BudgetMs) && filterP99Ms > p99BudgetMs) {
+      System.err.printf("FAIL: filter p99 of %.3f ms is over the %.3f ms budget%n", filterP99Ms, p99BudgetMs);
+      System.exit(1);
+    }
+  }
+
+  /**
+   * @return a BGR color in the middle of the pipeline's default HSV thresholds
+   */
+  private static Scalar targetColor() {
+    Mat hsv = new Mat(1, 1, CvType.CV_8UC3, new Scalar(83, 200, 230));
+    Mat bgr = new Mat();
+    Imgproc.cvtColor(hsv, bgr, Imgproc.COLOR_HSV2BGR);
+    double[] pixel = bgr.get(0, 0);
+    return new Scalar(pixel[0], pixel[1], pixel[2]);
+  }
+
+  /**
+   * Draws one noisy frame
+   * @param shapes the number of shapes to draw (most are specks)
+   */
+  private static Mat drawFrame(Random random, Scalar color, int shapes) {
+    Mat frame = Mat.zeros(kHeight, kWidth, CvType.CV_8UC3);
+
+    for (int i = 0; i < shapes; i++) {
+      final int x = random.nextInt(kWidth);
+      final int y = random.nextInt(kHeight);
+      final double kind = random.nextDouble();
+
+      if (kind < 0.90) {
+        // Speck
+        final int size = 1 + random.nextInt(3);
+        Imgproc.rectangle(frame, new Point(x, y), new Point(x + size, y + size), color, -1);
+      }
+      else if (kind < 0.95) {
+        // Convex blob
+        final int radius = 10 + random.nextInt(8);
+        Imgproc.circle(frame, new Point(x, y), radius, color, -1);
+      }
+      else if (kind < 0.975) {
+        // Ring
+        final int radius = 12 + random.nextInt(10);
+        Imgproc.circle(frame, new Point(x, y), radius, color, 2);
+      }
+      else {
+        // L shape
+        final int size = 20 + random.nextInt(15);
+        Imgproc.rectangle(frame, new Point(x, y), new Point(x + 4, y + size), color, -1);
+        Imgproc.rectangle(frame, new Point(x, y + size - 4), new Point(x + size, y + size), color, -1);
+      }
+    }
+
+    // The target: a U, open at the top, somewhere near the middle
+    final int left = kWidth / 2 - 30 + random.nextInt(20);
+    final int top = kHeight / 2 - 20 + random.nextInt(20);
+    MatOfPoint target = new MatOfPoint(
+      new Point(left, top), new Point(left + 6, top), new Point(left + 12, top + 30),
+      new Point(left + 48, top + 30), new Point(left + 54, top), new Point(left + 60, top),
+      new Point(left + 52, top + 36), new Point(left + 8, top + 36));
+    List<MatOfPoint> polygons = new ArrayList<>();
+    polygons.add(target);
+    Imgproc.fillPoly(frame, polygons, color);
+    return frame;
+  }
+}
@@ -0,0 +1,260 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2019 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+package frc.robot.vision;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Desktop tool that replays recorded camera frames through the {@link PowerPortPipeline} and
+ * reports how long each stage takes, so vision slowdowns are caught before we deploy.
+ * 
+ * <p>Needs the OpenCV desktop natives on java.library.path. Run it with the visionReplay
+ * gradle task:
+ * <pre>
+ *   ./gradlew visionReplay -PframeDir=frames -PopencvLibDir=/path/to/natives [-Pp99BudgetMs=8]
+ * </pre>
+ * Options (after the frame directory):
+ * <ul>
+ *   <li>--repeat N: number of passes over the frames to time (default 10)</li>
+ *   <li>--warmup N: number of untimed passes first, so the JIT has settled (default 2)</li>
+ *   <li>--p99-budget-ms X: exit with status 1 if the total p99 is over X milliseconds</li>
+ *   <li>--cvtcolor: threshold with cvtColor + inRange instead of the lookup table</li>
+ *   <li>--no-roi: always search the full frame</li>
+ *   <li>--blob-prefilter: wipe small blobs from the mask before finding contours</li>
+ *   <li>--check-prefilter: also run every frame without the prefilter and exit with status 1 if
+ *       the targets found differ (implies --blob-prefilter)</li>
+ * </ul>
+ */
+public final class FrameReplayBenchmark {
+  private FrameReplayBenchmark() {
+  }
+
+  static {
+    // The frames are read before the pipeline class (which also loads it) is touched
+    System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+  }
+
+  public static void main(String... args) {
+    if (args.length < 1) {
+      System.err.println("Usage: FrameReplayBenchmark <frame directory> [--repeat N] [--warmup N] "
+        + "[--p99-budget-ms X] [--cvtcolor] [--no-roi] [--blob-prefilter] [--check-prefilter]");
+      System.exit(2);
+    }
+
+    int repeat = 10;
+    int warmup = 2;
+    double p99BudgetMs = Double.NaN;
+    boolean useLookupTable = true;
+    boolean useRoi = true;
+    boolean usePrefilter = false;
+    boolean checkPrefilter = false;
+
+    for (int i = 1; i < args.length; i++) {
+      switch (args[i]) {
+        case "--repeat": repeat = Integer.parseInt(args[++i]); break;
+        case "--warmup": warmup = Integer.parseInt(args[++i]); break;
+        case "--p99-budget-ms": p99BudgetMs = Double.parseDouble(args[++i]); break;
+        case "--cvtcolor": useLookupTable = false; break;
+        case "--no-roi": useRoi = false; break;
+        case "--blob-prefilter": usePrefilter = true; break;
+        case "--check-prefilter": usePrefilter = true; checkPrefilter = true; break;
+        default:
+          System.err.println("Unknown option " + args[i]);
+          System.exit(2);
+      }
+    }
+
+    List<Mat> frames = loadFrames(new File(args[0]));
+    if (frames.isEmpty()) {
+      System.err.println("No frames found in " + args[0]);
+      System.exit(2);
+    }
+
+    PowerPortPipeline pipeline = new PowerPortPipeline();
+    pipeline.suspendProcessing(false);
+    pipeline.setLookupTableThreshold(useLookupTable);
+    pipeline.setRegionOfInterestTracking(useRoi);
+    pipeline.setBlobPrefilter(usePrefilter);
+
+    // The same pipeline without the prefilter, to check that it finds the same targets
+    PowerPortPipeline reference = null;
+    int mismatches = 0;
+    if (checkPrefilter) {
+      reference = new PowerPortPipeline();
+      reference.suspendProcessing(false);
+      reference.setLookupTableThreshold(useLookupTable);
+      reference.setRegionOfInterestTracking(useRoi);
+    }
+
+    // Detection results, from the first pass (later passes see the same frames in the same order)
+    System.out.println("frame,targets,contours,roi,centerX,centerY,confidence,rangeIn,yawDeg,skewDeg");
+    for (int i = 0; i < frames.size(); i++) {
+      pipeline.process(frames.get(i));
+      printDetection(i, pipeline);
+
+      if (reference != null) {
+        reference.process(frames.get(i));
+        if (!sameTargets(pipeline, reference)) {
+          System.err.printf("Frame %d: prefilter found %d targets, contours alone found %d%n", 
+            i, pipeline.filterContoursOutput().size(), reference.filterContoursOutput().size());
+          mismatches++;
+        }
+      }
+    }
+
+    for (int pass = 0; pass < warmup; pass++) {
+      for (Mat frame : frames) {
+        pipeline.process(frame);
+      }
+    }
+
+    // Timed passes
+    final PowerPortPipeline.Stage[] stages = PowerPortPipeline.Stage.values();
+    final int samples = repeat * frames.size();
+    long[][] stageNanos = new long[stages.length][samples];
+    long[] totalNanos = new long[samples];
+
+    int sample = 0;
+    for (int pass = 0; pass < repeat; pass++) {
+      for (Mat frame : frames) {
+        long start = System.nanoTime();
+        pipeline.process(frame);
+        totalNanos[sample] = System.nanoTime() - start;
+
+        for (PowerPortPipeline.Stage stage : stages) {
+          stageNanos[stage.ordinal()][sample] = pipeline.stageNanos(stage);
+        }
+        sample++;
+      }
+    }
+
+    System.out.println();
+    System.out.printf("%d frames x %d passes, threshold: %s, roi: %s, prefilter: %s%n", 
+      frames.size(), repeat, useLookupTable ? "lookup table" : "cvtColor + inRange", useRoi ? "on" : "off",
+      usePrefilter ? "on" : "off");
+    System.out.printf("%-16s %9s %9s %9s%n", "stage (ms)", "p50", "p95", "p99");
+    for (PowerPortPipeline.Stage stage : stages) {
+      printPercentiles(stage.name().substring(1), stageNanos[stage.ordinal()]);
+    }
+    double totalP99Ms = printPercentiles("Total", totalNanos);
+
+    long sum = 0;
+    for (long nanos : totalNanos) {
+      sum += nanos;
+    }
+    System.out.printf("Throughput: %.1f frames/s%n", samples / (sum / 1e9));
+    System.out.printf("ROI frames: %d, full frames: %d%n", pipeline.roiFrameCount(), pipeline.fullFrameCount());
+
+    if (checkPrefilter) {
+      System.out.printf("Prefilter check: %d of %d frames differ%n", mismatches, frames.size());
+    }
+
+    if (mismatches > 0) {
+      System.err.println("FAIL: the blob prefilter changed the targets found");
+      System.exit(1);
+    }
+    if (!Double.isNaN(p99BudgetMs) && totalP99Ms > p99BudgetMs) {
+      System.err.printf("FAIL: p99 of %.3f ms is over the %.3f ms budget%n", totalP99Ms, p99BudgetMs);
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Reads every image in a directory, in name order
+   */
+  private static List<Mat> loadFrames(File directory) {
+    List<Mat> frames = new ArrayList<>();
+    File[] files = directory.listFiles((dir, name) -> {
+      String lower = name.toLowerCase();
+      return lower.endsWith(".png") || lower.endsWith(".jpg") || lower.endsWith(".jpeg");
+    });
+    if (files == null) {
+      return frames;
+    }
+
+    Arrays.sort(files);
+    for (File file : files) {
+      Mat frame = Imgcodecs.imread(file.getPath());
+      if (frame.empty()) {
+        System.err.println("Skipping unreadable frame " + file.getName());
+        continue;
+      }
+      frames.add(frame);
+    }
+    return frames;
+  }
+
+  private static void printDetection(int frame, PowerPortPipeline pipeline) {
+    List<MatOfPoint> targets = pipeline.filterContoursOutput();
+    String center = ",,";
+    MatOfPoint best = pipeline.bestTarget();
+    if (best != null) {
+      Point point = pipeline.findCenter(best);
+      center = String.format("%.1f,%.1f,%.2f", point.x, point.y, pipeline.bestTargetConfidence());
+    }
+    String pose = ",,";
+    if (pipeline.hasTargetPose()) {
+      pose = String.format("%.1f,%.1f,%.1f", 
+        pipeline.targetRangeInches(), pipeline.targetYawDegrees(), pipeline.targetSkewDegrees());
+    }
+    System.out.printf("%d,%d,%d,%b,%s,%s%n", frame, targets.size(), pipeline.findContoursOutput().size(), 
+      pipeline.isRegionOfInterestFrame(), center, pose);
+  }
+
+  /**
+   * Checks that two pipelines kept the same targets (same bounding boxes, in any order)
+   */
+  private static boolean sameTargets(PowerPortPipeline a, PowerPortPipeline b) {
+    List<MatOfPoint> targetsA = a.filterContoursOutput();
+    List<MatOfPoint> targetsB = b.filterContoursOutput();
+    if (targetsA.size() != targetsB.size()) {
+      return false;
+    }
+
+    List<Rect> boxesB = new ArrayList<>();
+    for (MatOfPoint target : targetsB) {
+      boxesB.add(Imgproc.boundingRect(target));
+    }
+    for (MatOfPoint target : targetsA) {
+      if (!boxesB.remove(Imgproc.boundingRect(target))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Prints the p50/p95/p99 of a set of timings
+   * @return the p99 in milliseconds
+   */
+  static double printPercentiles(String name, long[] nanos) {
+    long[] sorted = nanos.clone();
+    Arrays.sort(sorted);
+    double p50 = percentile(sorted, 0.50) / 1e6;
+    double p95 = percentile(sorted, 0.95) / 1e6;
+    double p99 = percentile(sorted, 0.99) / 1e6;
+    System.out.printf("%-16s %9.3f %9.3f %9.3f%n", name, p50, p95, p99);
+    return p99;
+  }
+
+  private static long percentile(long[] sorted, double fraction) {
+    int index = (int)Math.ceil(fraction * sorted.length) - 1;
+    return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+  }
+}
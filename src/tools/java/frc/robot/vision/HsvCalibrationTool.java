@@ -0,0 +1,564 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2019 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+package frc.robot.vision;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Desktop tool that finds the HSV thresholds that pick out the Power Port best in a set of
+ * labeled frames, so we don't have to re-tune the sliders by hand at every venue.
+ *
+ * <p>The search runs in two parallel (fork/join) phases:
+ * <ol>
+ *   <li>Every pixel's HSV goes into two 3D histograms, one for pixels inside a labeled target
+ *       and one for the rest. With prefix sums over them, the number of target and stray pixels
+ *       any threshold box would keep is a handful of lookups, so the whole grid of thresholds
+ *       is scored in a second or two. The score is the overlap (Dice coefficient) between the
+ *       pixels kept and the labeled boxes: the boxes are mostly background, so no threshold gets
+ *       near 1, but more target pixels and fewer stray ones always score higher.</li>
+ *   <li>The best scoring thresholds are run through the {@link PowerPortPipeline} on every frame
+ *       and ranked by detection F1 (precision and recall of the best target against the labels),
+ *       then by how long a frame takes.</li>
+ * </ol>
+ *
+ * <p>Needs the OpenCV desktop natives on java.library.path. Run it with the hsvCalibrate
+ * gradle task:
+ * <pre>
+ *   ./gradlew hsvCalibrate -PframeDir=frames -Plabels=frames/labels.csv -PopencvLibDir=/path/to/natives
+ * </pre>
+ * The labels file has a line per target, {@code file,x,y,w,h}, with the box in the frame's own
+ * pixels. Frames without a line are expected to have no target. Options (after the labels file):
+ * <ul>
+ *   <li>--candidates N: number of thresholds from the first phase to run through the pipeline (default 20)</li>
+ *   <li>--max-ms X: ignore thresholds that take more than X milliseconds per frame</li>
+ * </ul>
+ */
+public final class HsvCalibrationTool {
+  // Histogram bins (OpenCV's 8-bit HSV: hue 0-179, saturation & value 0-255)
+  private static final int kHueBinSize = 2;
+  private static final int kHueBins = 180 / kHueBinSize;
+  private static final int kSvBinSize = 4;
+  private static final int kSvBins = 256 / kSvBinSize;
+
+  // The search grid, in bins
+  private static final int kHueStep = 2;
+  private static final int kSvStep = 4;
+
+  // How much a found target has to overlap a label to count
+  private static final double kMinOverlap = 0.5;
+
+  private static final double kImageWidth = 320.0;
+  private static final double kImageHeight = 240.0;
+
+  private HsvCalibrationTool() {
+  }
+
+  static {
+    System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+  }
+
+  /**
+   * A frame at the pipeline's resolution and its target boxes (scaled to match)
+   */
+  private static class LabeledFrame {
+    final Mat image;
+    final List<Rect> targets = new ArrayList<>();
+
+    LabeledFrame(Mat image) {
+      this.image = image;
+    }
+  }
+
+  /**
+   * A set of thresholds (in HSV units, inclusive) and how well they did
+   */
+  private static class Candidate {
+    final int hueMin, hueMax, satMin, satMax, valMin, valMax;
+    final double pixelScore;
+    double precision, recall, f1, meanMs;
+
+    Candidate(int hueMin, int hueMax, int satMin, int satMax, int valMin, int valMax, double pixelScore) {
+      this.hueMin = hueMin;
+      this.hueMax = hueMax;
+      this.satMin = satMin;
+      this.satMax = satMax;
+      this.valMin = valMin;
+      this.valMax = valMax;
+      this.pixelScore = pixelScore;
+    }
+  }
+
+  public static void main(String... args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("Usage: HsvCalibrationTool <frame directory> <labels csv> [--candidates N] [--max-ms X]");
+      System.exit(2);
+    }
+
+    int candidateCount = 20;
+    double maxMs = Double.POSITIVE_INFINITY;
+    for (int i = 2; i < args.length; i++) {
+      switch (args[i]) {
+        case "--candidates": candidateCount = Integer.parseInt(args[++i]); break;
+        case "--max-ms": maxMs = Double.parseDouble(args[++i]); break;
+        default:
+          System.err.println("Unknown option " + args[i]);
+          System.exit(2);
+      }
+    }
+
+    List<LabeledFrame> frames = loadFrames(new File(args[0]), new File(args[1]));
+    int labeled = 0;
+    for (LabeledFrame frame : frames) {
+      if (!frame.targets.isEmpty()) labeled++;
+    }
+    if (labeled == 0) {
+      System.err.println("No labeled frames found");
+      System.exit(2);
+    }
+    System.out.printf("%d frames (%d with targets), %d threads%n",
+      frames.size(), labeled, ForkJoinPool.commonPool().getParallelism());
+
+    // Phase 1: score every threshold on the grid by the pixels it keeps
+    long start = System.nanoTime();
+    // (a few frames per task, since every task needs its own pair of histograms)
+    final int framesPerTask = Math.max(1, frames.size() / (2 * ForkJoinPool.commonPool().getParallelism()));
+    Histograms histograms = ForkJoinPool.commonPool().invoke(new HistogramTask(frames, 0, frames.size(), framesPerTask));
+    histograms.integrate();
+    List<Candidate> candidates = ForkJoinPool.commonPool().invoke(
+      new SearchTask(histograms, 0, kHueBins / kHueStep, candidateCount)).sorted();
+    System.out.printf("Pixel search: %.2f s%n", (System.nanoTime() - start) / 1e9);
+
+    // Phase 2: run the best of them through the pipeline
+    start = System.nanoTime();
+    ForkJoinPool.commonPool().invoke(new EvaluateTask(candidates, 0, candidates.size(), frames, labeled));
+    System.out.printf("Pipeline evaluation: %.2f s%n%n", (System.nanoTime() - start) / 1e9);
+
+    candidates.sort((a, b) -> (a.f1 != b.f1) ? Double.compare(b.f1, a.f1) : Double.compare(a.meanMs, b.meanMs));
+
+    System.out.println("hue,sat,val,pixelScore,precision,recall,f1,meanMs");
+    Candidate best = null;
+    for (Candidate c : candidates) {
+      System.out.printf("%d-%d,%d-%d,%d-%d,%.4f,%.3f,%.3f,%.3f,%.3f%n", c.hueMin, c.hueMax, c.satMin, c.satMax,
+        c.valMin, c.valMax, c.pixelScore, c.precision, c.recall, c.f1, c.meanMs);
+      if (best == null && c.meanMs <= maxMs) {
+        best = c;
+      }
+    }
+
+    if (best == null) {
+      System.err.printf("FAIL: no thresholds ran in under %.3f ms per frame%n", maxMs);
+      System.exit(1);
+    }
+    System.out.println();
+    System.out.println("Best thresholds (for PowerPortPipeline.VisionConstants):");
+    System.out.printf("    private static final double[] HsvThresholdHue = {%d.0, %d.0};%n", best.hueMin, best.hueMax);
+    System.out.printf("    private static final double[] HsvThresholdSaturation = {%d.0, %d.0};%n", best.satMin, best.satMax);
+    System.out.printf("    private static final double[] HsvThresholdValue = {%d.0, %d.0};%n", best.valMin, best.valMax);
+  }
+
+  /**
+   * Counts of target and stray pixels by HSV bin, turned into prefix sums by integrate()
+   */
+  private static class Histograms {
+    private static final int kHueStride = (kSvBins + 1) * (kSvBins + 1);
+    private static final int kSatStride = kSvBins + 1;
+
+    // Indexed from 1 so the prefix sums have a row of zeros in front
+    final long[] target = new long[(kHueBins + 1) * kHueStride];
+    final long[] stray = new long[(kHueBins + 1) * kHueStride];
+
+    static int index(int hueBin, int satBin, int valBin) {
+      return (hueBin + 1) * kHueStride + (satBin + 1) * kSatStride + (valBin + 1);
+    }
+
+    void add(Histograms other) {
+      for (int i = 0; i < target.length; i++) {
+        target[i] += other.target[i];
+        stray[i] += other.stray[i];
+      }
+    }
+
+    void integrate() {
+      integrate(target);
+      integrate(stray);
+    }
+
+    private static void integrate(long[] counts) {
+      // One pass along each axis
+      for (int h = 1; h <= kHueBins; h++) {
+        for (int s = 0; s <= kSvBins; s++) {
+          for (int v = 0; v <= kSvBins; v++) {
+            counts[h * kHueStride + s * kSatStride + v] += counts[(h - 1) * kHueStride + s * kSatStride + v];
+          }
+        }
+      }
+      for (int h = 0; h <= kHueBins; h++) {
+        for (int s = 1; s <= kSvBins; s++) {
+          for (int v = 0; v <= kSvBins; v++) {
+            counts[h * kHueStride + s * kSatStride + v] += counts[h * kHueStride + (s - 1) * kSatStride + v];
+          }
+        }
+      }
+      for (int h = 0; h <= kHueBins; h++) {
+        for (int s = 0; s <= kSvBins; s++) {
+          for (int v = 1; v <= kSvBins; v++) {
+            counts[h * kHueStride + s * kSatStride + v] += counts[h * kHueStride + s * kSatStride + v - 1];
+          }
+        }
+      }
+    }
+
+    /**
+     * @return the number of pixels in the bins from min to max (inclusive) on every axis
+     */
+    static long count(long[] sums, int h0, int h1, int s0, int s1, int v0, int v1) {
+      final int ha = h0 * kHueStride, hb = (h1 + 1) * kHueStride;
+      final int sa = s0 * kSatStride, sb = (s1 + 1) * kSatStride;
+      final int va = v0, vb = v1 + 1;
+      return sums[hb + sb + vb] - sums[ha + sb + vb] - sums[hb + sa + vb] - sums[hb + sb + va]
+           + sums[ha + sa + vb] + sums[ha + sb + va] + sums[hb + sa + va] - sums[ha + sa + va];
+    }
+  }
+
+  /**
+   * Builds the histograms of a range of frames
+   */
+  private static class HistogramTask extends RecursiveTask<Histograms> {
+    private static final long serialVersionUID = 1L;
+
+    private final List<LabeledFrame> m_frames;
+    private final int m_first;
+    private final int m_end;
+    private final int m_framesPerTask;
+
+    HistogramTask(List<LabeledFrame> frames, int first, int end, int framesPerTask) {
+      m_frames = frames;
+      m_first = first;
+      m_end = end;
+      m_framesPerTask = framesPerTask;
+    }
+
+    @Override
+    protected Histograms compute() {
+      if (m_end - m_first > m_framesPerTask) {
+        final int middle = (m_first + m_end) >>> 1;
+        HistogramTask right = new HistogramTask(m_frames, middle, m_end, m_framesPerTask);
+        right.fork();
+        Histograms histograms = new HistogramTask(m_frames, m_first, middle, m_framesPerTask).compute();
+        histograms.add(right.join());
+        return histograms;
+      }
+
+      Histograms histograms = new Histograms();
+      for (int i = m_first; i < m_end; i++) {
+        addFrame(m_frames.get(i), histograms);
+      }
+      return histograms;
+    }
+
+    private static void addFrame(LabeledFrame frame, Histograms histograms) {
+      Mat hsv = new Mat();
+      Imgproc.cvtColor(frame.image, hsv, Imgproc.COLOR_BGR2HSV);
+      Mat inTarget = Mat.zeros(hsv.rows(), hsv.cols(), CvType.CV_8UC1);
+      for (Rect target : frame.targets) {
+        Imgproc.rectangle(inTarget, target.tl(), 
+          new Point(target.x + target.width - 1, target.y + target.height - 1), new Scalar(1), -1);
+      }
+
+      final int pixels = hsv.rows() * hsv.cols();
+      byte[] hsvPixels = new byte[pixels * 3];
+      byte[] targetPixels = new byte[pixels];
+      hsv.get(0, 0, hsvPixels);
+      inTarget.get(0, 0, targetPixels);
+      hsv.release();
+      inTarget.release();
+
+      for (int i = 0, j = 0; i < pixels; i++, j += 3) {
+        final int index = Histograms.index((hsvPixels[j] & 0xFF) / kHueBinSize,
+          (hsvPixels[j + 1] & 0xFF) / kSvBinSize, (hsvPixels[j + 2] & 0xFF) / kSvBinSize);
+        if (targetPixels[i] != 0) {
+          histograms.target[index]++;
+        }
+        else {
+          histograms.stray[index]++;
+        }
+      }
+    }
+  }
+
+  /**
+   * The best few candidates seen so far (a min-heap on pixel score)
+   */
+  private static class TopCandidates {
+    private final int m_size;
+    private final PriorityQueue<Candidate> m_heap;
+
+    TopCandidates(int size) {
+      m_size = size;
+      m_heap = new PriorityQueue<>(size + 1, (a, b) -> Double.compare(a.pixelScore, b.pixelScore));
+    }
+
+    boolean wouldKeep(double score) {
+      return m_heap.size() < m_size || score > m_heap.peek().pixelScore;
+    }
+
+    void offer(Candidate candidate) {
+      m_heap.add(candidate);
+      if (m_heap.size() > m_size) {
+        m_heap.poll();
+      }
+    }
+
+    TopCandidates merge(TopCandidates other) {
+      for (Candidate candidate : other.m_heap) {
+        if (wouldKeep(candidate.pixelScore)) {
+          offer(candidate);
+        }
+      }
+      return this;
+    }
+
+    List<Candidate> sorted() {
+      List<Candidate> list = new ArrayList<>(m_heap);
+      list.sort((a, b) -> Double.compare(b.pixelScore, a.pixelScore));
+      return list;
+    }
+  }
+
+  /**
+   * Scores every threshold whose minimum hue is in a range of grid steps
+   */
+  private static class SearchTask extends RecursiveTask<TopCandidates> {
+    private static final long serialVersionUID = 1L;
+
+    private final Histograms m_histograms;
+    private final int m_firstStep;
+    private final int m_endStep;
+    private final int m_keep;
+
+    SearchTask(Histograms histograms, int firstStep, int endStep, int keep) {
+      m_histograms = histograms;
+      m_firstStep = firstStep;
+      m_endStep = endStep;
+      m_keep = keep;
+    }
+
+    @Override
+    protected TopCandidates compute() {
+      if (m_endStep - m_firstStep > 1) {
+        final int middle = (m_firstStep + m_endStep) >>> 1;
+        SearchTask right = new SearchTask(m_histograms, middle, m_endStep, m_keep);
+        right.fork();
+        return new SearchTask(m_histograms, m_firstStep, middle, m_keep).compute().merge(right.join());
+      }
+
+      TopCandidates top = new TopCandidates(m_keep);
+      final long[] target = m_histograms.target;
+      final long[] stray = m_histograms.stray;
+      final double boxPixels = Histograms.count(target, 0, kHueBins - 1, 0, kSvBins - 1, 0, kSvBins - 1);
+
+      final int h0 = m_firstStep * kHueStep;
+      for (int h1 = h0 + kHueStep - 1; h1 < kHueBins; h1 += kHueStep) {
+        for (int s0 = 0; s0 < kSvBins; s0 += kSvStep) {
+          for (int s1 = s0 + kSvStep - 1; s1 < kSvBins; s1 += kSvStep) {
+            for (int v0 = 0; v0 < kSvBins; v0 += kSvStep) {
+              for (int v1 = v0 + kSvStep - 1; v1 < kSvBins; v1 += kSvStep) {
+                final long kept = Histograms.count(target, h0, h1, s0, s1, v0, v1);
+                final double score = 2.0 * kept / (kept + Histograms.count(stray, h0, h1, s0, s1, v0, v1) + boxPixels);
+                if (top.wouldKeep(score)) {
+                  top.offer(new Candidate(h0 * kHueBinSize, (h1 + 1) * kHueBinSize - 1,
+                    s0 * kSvBinSize, (s1 + 1) * kSvBinSize - 1, v0 * kSvBinSize, (v1 + 1) * kSvBinSize - 1, score));
+                }
+              }
+            }
+          }
+        }
+      }
+      return top;
+    }
+  }
+
+  /**
+   * Runs a range of candidates through their own pipelines and fills in how they did
+   */
+  private static class EvaluateTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final List<Candidate> m_candidates;
+    private final int m_first;
+    private final int m_end;
+    private final List<LabeledFrame> m_frames;
+    private final int m_labeledFrames;
+
+    EvaluateTask(List<Candidate> candidates, int first, int end, List<LabeledFrame> frames, int labeledFrames) {
+      m_candidates = candidates;
+      m_first = first;
+      m_end = end;
+      m_frames = frames;
+      m_labeledFrames = labeledFrames;
+    }
+
+    @Override
+    protected void compute() {
+      if (m_end - m_first > 1) {
+        final int middle = (m_first + m_end) >>> 1;
+        invokeAll(new EvaluateTask(m_candidates, m_first, middle, m_frames, m_labeledFrames),
+                  new EvaluateTask(m_candidates, middle, m_end, m_frames, m_labeledFrames));
+        return;
+      }
+      if (m_first < m_end) {
+        evaluate(m_candidates.get(m_first));
+      }
+    }
+
+    private void evaluate(Candidate candidate) {
+      // Every frame is judged on its own, the way the pipeline sees a target for the first time
+      PowerPortPipeline pipeline = new PowerPortPipeline();
+      pipeline.suspendProcessing(false);
+      pipeline.setRegionOfInterestTracking(false);
+      pipeline.setPoseSolving(false);
+      pipeline.setHsvThresholds(new double[] {candidate.hueMin, candidate.hueMax},
+        new double[] {candidate.satMin, candidate.satMax}, new double[] {candidate.valMin, candidate.valMax});
+
+      // Untimed pass first so the lookup table is built and the JIT has settled
+      for (LabeledFrame frame : m_frames) {
+        pipeline.process(frame.image);
+      }
+
+      int truePositives = 0;
+      int falsePositives = 0;
+      long nanos = 0;
+      for (LabeledFrame frame : m_frames) {
+        long start = System.nanoTime();
+        pipeline.process(frame.image);
+        nanos += System.nanoTime() - start;
+
+        MatOfPoint best = pipeline.bestTarget();
+        if (best == null) {
+          continue;
+        }
+        if (matchesLabel(Imgproc.boundingRect(best), frame.targets)) {
+          truePositives++;
+        }
+        else {
+          falsePositives++;
+        }
+      }
+
+      candidate.precision = (truePositives + falsePositives > 0)
+        ? truePositives / (double)(truePositives + falsePositives) : 0;
+      candidate.recall = truePositives / (double)m_labeledFrames;
+      candidate.f1 = (candidate.precision + candidate.recall > 0)
+        ? 2 * candidate.precision * candidate.recall / (candidate.precision + candidate.recall) : 0;
+      candidate.meanMs = nanos / 1e6 / m_frames.size();
+    }
+  }
+
+  private static boolean matchesLabel(Rect found, List<Rect> targets) {
+    for (Rect target : targets) {
+      final int left = Math.max(found.x, target.x);
+      final int top = Math.max(found.y, target.y);
+      final int right = Math.min(found.x + found.width, target.x + target.width);
+      final int bottom = Math.min(found.y + found.height, target.y + target.height);
+      if (right <= left || bottom <= top) {
+        continue;
+      }
+
+      final double overlap = (right - left) * (double)(bottom - top);
+      final double union = found.area() + target.area() - overlap;
+      if (overlap / union >= kMinOverlap) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Reads every image in a directory, in name order, with its labels scaled to the pipeline's resolution
+   */
+  private static List<LabeledFrame> loadFrames(File directory, File labelFile) throws IOException {
+    Map<String, List<Rect>> labels = new HashMap<>();
+    try (BufferedReader reader = new BufferedReader(new FileReader(labelFile))) {
+      String line;
+      int lineNumber = 0;
+      while ((line = reader.readLine()) != null) {
+        lineNumber++;
+        String[] fields = line.trim().split("\\s*,\\s*");
+        if (fields.length != 5 || fields[0].isEmpty() || fields[0].startsWith("#")) {
+          continue;
+        }
+        try {
+          Rect box = new Rect(Integer.parseInt(fields[1]), Integer.parseInt(fields[2]),
+            Integer.parseInt(fields[3]), Integer.parseInt(fields[4]));
+          labels.computeIfAbsent(fields[0], name -> new ArrayList<>()).add(box);
+        }
+        catch (NumberFormatException ex) {
+          // Header (or a bad line)
+          if (lineNumber > 1) {
+            System.err.println("Skipping bad label line " + lineNumber + ": " + line);
+          }
+        }
+      }
+    }
+
+    List<LabeledFrame> frames = new ArrayList<>();
+    File[] files = directory.listFiles((dir, name) -> {
+      String lower = name.toLowerCase();
+      return lower.endsWith(".png") || lower.endsWith(".jpg") || lower.endsWith(".jpeg");
+    });
+    if (files == null) {
+      return frames;
+    }
+
+    Arrays.sort(files);
+    for (File file : files) {
+      Mat image = Imgcodecs.imread(file.getPath());
+      if (image.empty()) {
+        System.err.println("Skipping unreadable frame " + file.getName());
+        continue;
+      }
+
+      final double scaleX = kImageWidth / image.cols();
+      final double scaleY = kImageHeight / image.rows();
+      if (scaleX != 1 || scaleY != 1) {
+        Imgproc.resize(image, image, new Size(kImageWidth, kImageHeight), 0.0, 0.0, Imgproc.INTER_LINEAR);
+      }
+
+      LabeledFrame frame = new LabeledFrame(image);
+      for (Rect box : labels.getOrDefault(file.getName(), new ArrayList<>())) {
+        frame.targets.add(new Rect((int)Math.round(box.x * scaleX), (int)Math.round(box.y * scaleY),
+          (int)Math.round(box.width * scaleX), (int)Math.round(box.height * scaleY)));
+      }
+      frames.add(frame);
+    }
+    return frames;
+  }
+}